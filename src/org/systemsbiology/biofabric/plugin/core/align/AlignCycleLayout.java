@@ -108,8 +108,8 @@ public class AlignCycleLayout extends NodeLayout {
                                                                LayoutCriterionFailureException {
     
     NetworkAlignmentBuildData narbd = (NetworkAlignmentBuildData)rbd.getPluginBuildData();
-    maps_ = normalizeAlignMap(narbd.mapG1toG2, narbd.perfectG1toG2, narbd.allLargerNodes, 
-                              narbd.allSmallerNodes, monitor);
+    maps_ = normalizeAlignMap(narbd.mapG1toG2, narbd.perfectG1toG2, narbd.largeNameIndex, 
+                              narbd.smallNameIndex, monitor);
     if (maps_ == null) {
       throw new LayoutCriterionFailureException();
     }
@@ -222,13 +222,13 @@ public class AlignCycleLayout extends NodeLayout {
     NetworkAlignmentBuildData narbd = (NetworkAlignmentBuildData)rbd.getPluginBuildData();
     
     if (maps_ == null) {
-      maps_ = normalizeAlignMap(narbd.mapG1toG2, narbd.perfectG1toG2, narbd.allLargerNodes, 
-                                narbd.allSmallerNodes, monitor);
+      maps_ = normalizeAlignMap(narbd.mapG1toG2, narbd.perfectG1toG2, narbd.largeNameIndex, 
+                                narbd.smallNameIndex, monitor);
     }
     
     Set<NetNode> allNodes = genAllNodes(rbd);
-    Map<NetNode, PathElem> nodesToPathElem = genNodeToPathElem(allNodes);
-    Map<PathElem, NetNode> pathElemToNode = genPathElemToNode(allNodes);
+    Map<NetNode, PathElem> nodesToPathElem = genNodeToPathElem(allNodes, narbd.mergedSourcesMain);
+    Map<PathElem, NetNode> pathElemToNode = genPathElemToNode(nodesToPathElem);
     Map<String, PathElem> smallToElem = new HashMap<String, PathElem>();
     Map<String, PathElem> largeToElem = new HashMap<String, PathElem>();
     Map<PathElem, PathElem> elemToNext = new HashMap<PathElem, PathElem>();
@@ -506,8 +506,8 @@ public class AlignCycleLayout extends NodeLayout {
   
   private NodeMaps normalizeAlignMap(Map<NetNode, NetNode> align, 
                                      Map<NetNode, NetNode> perfectAlign,
-                                     Set<NetNode> allLargerNodes,
-                                     Set<NetNode> allSmallerNodes,                                     
+                                     NodeNameIndex largeIndex,
+                                     NodeNameIndex smallIndex,
                                      BTProgressMonitor monitor)  throws AsynchExitRequestException {
     
     //
@@ -553,38 +553,20 @@ public class AlignCycleLayout extends NodeLayout {
     // does the trick. Check first if the identity map can work.
     //
     
-    LoopReporter lr3 = new LoopReporter(allLargerNodes.size(), 20, monitor, 0.0, 1.00, "progress.identityMapCheckA");
-    
-    HashSet<String> largeNames = new HashSet<String>();
-    for (NetNode large : allLargerNodes) {
-      if (largeNames.contains(large.getName())) {
-      	lr3.finish();
-        return (null); 
-      }
-      largeNames.add(large.getName());
-      lr3.report();
-    }
-    lr3.finish();
-    
-    LoopReporter lr4 = new LoopReporter(allSmallerNodes.size(), 20, monitor, 0.0, 1.00, "progress.identityMapCheckB");
+    //
+    // The shared name indices already know if the names in either network repeat:
+    //
     
-    HashSet<String> smallNames = new HashSet<String>();
-    for (NetNode small : allSmallerNodes) {
-      if (smallNames.contains(small.getName())) {
-      	lr4.finish();
-        return (null); 
-      }
-      smallNames.add(small.getName());
-      lr4.report();
+    if (!largeIndex.hasUniqueNames() || !smallIndex.hasUniqueNames()) {
+      return (null);
     }
-    lr4.finish();
     
     //
     // Before blue nodes came along, it was enough to check that "largeNames.containsAll(smallNames)". But
     // it is sufficient for largeNames to cover the purple nodes, i.e. the keySet:
     //
     
-    boolean identityOK = largeNames.containsAll(keyNames);
+    boolean identityOK = largeIndex.getNameToNode().keySet().containsAll(keyNames);
  
     // 
     // If identity map does not work, we need to build maps from the perfect alignment:
@@ -637,15 +619,26 @@ public class AlignCycleLayout extends NodeLayout {
   **
   ** Get map from network NetNode (of form G1::G2) to path elem (G1)
   ** With handling of blue nodes, nodes names of the form A:: and ::B are
-  ** possible.
+  ** possible. If the merge recorded the source nodes, names are not parsed.
   */
   
-  private Map<NetNode, PathElem> genNodeToPathElem(Set<NetNode> allNodes) { 
+  private Map<NetNode, PathElem> genNodeToPathElem(Set<NetNode> allNodes,
+                                                   NetworkAlignment.MergedNodeSources sources) { 
 
      Map<NetNode, PathElem> n2pe = new HashMap<NetNode, PathElem>();
+     if (sources != null) {
+       for (int i = 0; i < sources.size(); i++) {
+         NetNode key = sources.getMergedNode(i);
+         if ((key != null) && allNodes.contains(key)) {
+           NetNode small = sources.getSmallNode(i), large = sources.getLargeNode(i);
+           n2pe.put(key, new PathElem((small == null) ? "" : small.getName(), (large == null) ? "" : large.getName()));
+         }
+       }
+     }
      for (NetNode key : allNodes) {	 
-       PathElem elem = new PathElem(key);
-       n2pe.put(key, elem);
+       if (!n2pe.containsKey(key)) {
+         n2pe.put(key, new PathElem(key));
+       }
      }
      return (n2pe);
    } 
@@ -688,13 +681,12 @@ public class AlignCycleLayout extends NodeLayout {
   ** Inverse of above
   */
   
-  private Map<PathElem, NetNode> genPathElemToNode(Set<NetNode> allNodes) { 
+  private Map<PathElem, NetNode> genPathElemToNode(Map<NetNode, PathElem> nodesToPathElem) { 
 
     Map<PathElem, NetNode> pe2n = new HashMap<PathElem, NetNode>();
     
-    for (NetNode key : allNodes) {
-    	PathElem elem = new PathElem(key);
-      pe2n.put(elem, key);
+    for (Map.Entry<NetNode, PathElem> entry : nodesToPathElem.entrySet()) {
+      pe2n.put(entry.getValue(), entry.getKey());
     }
     return (pe2n);
   } 
@@ -836,11 +828,14 @@ public class AlignCycleLayout extends NodeLayout {
     NodeColor color;
    
     PathElem(NetNode node) {
-    	// The -1 argument means we get an empty string if the :: is a suffix (blue node)
-      String[] toks = node.getName().split("::", -1);
-      if (toks.length != 2) {
-      	throw new IllegalArgumentException();
-      }
+      this(splitName(node.getName()));
+    }
+    
+    PathElem(String smallName, String largeName) {
+      this(new String[] {smallName, largeName});
+    }
+    
+    private PathElem(String[] toks) {
       boolean firstEmpty = toks[0].equals("");
       boolean secondEmpty = toks[1].equals("");
       //
@@ -862,6 +857,19 @@ public class AlignCycleLayout extends NodeLayout {
       }
     }
     
+    /**
+     ** Split a merged name at the ::; empty string if the :: is a suffix (blue
+     ** node) or prefix (red node)
+     */
+    
+    private static String[] splitName(String name) {
+      int split = name.indexOf("::");
+      if ((split < 0) || (name.indexOf("::", split + 2) >= 0)) {
+        throw new IllegalArgumentException();
+      }
+      return (new String[] {name.substring(0, split), name.substring(split + 2)});
+    }
+    
     @Override
     public String toString() {
     	switch (this.color) {
@@ -0,0 +1,268 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+import org.systemsbiology.biofabric.api.util.PluginResourceManager;
+import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
+import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
+import org.systemsbiology.biofabric.api.worker.LoopReporter;
+
+/****************************************************************************
+ **
+ ** Loads many alignments of the same G1 and G2. The graphs are indexed once,
+ ** and each alignment file is read through AlignmentLoader into a compact
+ ** int array keyed by the graphs' dense node indices. A fixed number of files
+ ** are in flight at any time, so only that many full node maps ever exist.
+ */
+
+public class AlignmentBatchLoader {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private PluginResourceManager rMan_;
+  private NodeNameIndex indexG1_;
+  private NodeNameIndex indexG2_;
+  private List<NetNode> nodesG1_;
+  private List<NetNode> nodesG2_;
+  private boolean useBinaryCopies_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor for graphs that are already loaded
+   */
+
+  public AlignmentBatchLoader(ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
+                              ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
+                              PluginResourceManager rMan) {
+    this(new NodeNameIndex(linksG1, lonersG1), new NodeNameIndex(linksG2, lonersG2), rMan);
+  }
+
+  /***************************************************************************
+   **
+   ** Constructor for graphs that are already indexed
+   */
+
+  public AlignmentBatchLoader(NodeNameIndex indexG1, NodeNameIndex indexG2, PluginResourceManager rMan) {
+    rMan_ = rMan;
+    indexG1_ = indexG1;
+    indexG2_ = indexG2;
+    nodesG1_ = indexG1.getSortedNodes();
+    nodesG2_ = indexG2.getSortedNodes();
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** G1 index
+   */
+
+  public NodeNameIndex getIndexG1() {
+    return (indexG1_);
+  }
+
+  /***************************************************************************
+   **
+   ** G2 index
+   */
+
+  public NodeNameIndex getIndexG2() {
+    return (indexG2_);
+  }
+
+  /***************************************************************************
+   **
+   ** Read text alignments from their binary copies where those are current
+   ** (see AlignmentLoader.fastestCopyOf()). Off by default.
+   */
+
+  public void setUseBinaryCopies(boolean useBinaryCopies) {
+    useBinaryCopies_ = useBinaryCopies;
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Load the files with at most maxInFlight of them being read at once. The
+   ** results are in the same order as the files. A file that fails to load
+   ** does not stop the batch; its result carries the error instead.
+   */
+
+  public List<CompactAlignment> loadAll(List<File> files, int maxInFlight,
+                                        BTProgressMonitor monitor) throws AsynchExitRequestException {
+
+    int threads = Math.max(1, Math.min(maxInFlight, files.size()));
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<CompactAlignment>> pending = new ArrayList<Future<CompactAlignment>>();
+      for (final File file : files) {
+        pending.add(pool.submit(new Callable<CompactAlignment>() {
+          public CompactAlignment call() {
+            return (loadOne(file));
+          }
+        }));
+      }
+
+      LoopReporter lr = new LoopReporter(files.size(), 20, monitor, 0.0, 1.0, "progress.loadingAlignments");
+      List<CompactAlignment> retval = new ArrayList<CompactAlignment>();
+      for (Future<CompactAlignment> future : pending) {
+        try {
+          retval.add(future.get());
+        } catch (InterruptedException iex) {
+          throw (new AsynchExitRequestException());
+        } catch (ExecutionException eex) {
+          throw (new IllegalStateException(eex.getCause()));
+        }
+        lr.report();
+      }
+      lr.finish();
+      return (retval);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /***************************************************************************
+   **
+   ** Load a single file
+   */
+
+  public CompactAlignment loadOne(File file) {
+    AlignmentLoader alod = new AlignmentLoader(null, rMan_);
+    AlignmentLoader.NetAlignFileStats stats = new AlignmentLoader.NetAlignFileStats();
+    HashMap<NetNode, NetNode> map = new HashMap<NetNode, NetNode>();
+    try {
+      File readFile = AlignmentLoader.fastestCopyOf(file, useBinaryCopies_);
+      if (AlignmentLoader.isBinary(readFile)) {
+        alod.readBinaryAlignment(readFile, map, stats, indexG1_, indexG2_);
+      } else {
+        alod.readAlignment(file, map, stats, indexG1_, indexG2_, AlignmentLoader.ParseMode.MAPPED);
+      }
+    } catch (IOException ioex) {
+      return (new CompactAlignment(file, null, 0, stats, ioex));
+    }
+
+    int[] g1ToG2 = new int[nodesG1_.size()];
+    Arrays.fill(g1ToG2, -1);
+    for (Map.Entry<NetNode, NetNode> entry : map.entrySet()) {
+      g1ToG2[indexG1_.getSortedIndex(entry.getKey())] = indexG2_.getSortedIndex(entry.getValue());
+    }
+    return (new CompactAlignment(file, g1ToG2, map.size(), stats, null));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** One loaded alignment: for each G1 node, in G1's name order, the index of
+   ** its G2 match in G2's name order, or -1 if it is unaligned (blue).
+   */
+
+  public class CompactAlignment {
+
+    public final File source;
+    public final int size;
+    public final int badLineCount;
+    public final int dupLineCount;
+    public final IOException error;
+    private final int[] g1ToG2_;
+
+    CompactAlignment(File source, int[] g1ToG2, int size,
+                     AlignmentLoader.NetAlignFileStats stats, IOException error) {
+      this.source = source;
+      this.g1ToG2_ = g1ToG2;
+      this.size = size;
+      this.badLineCount = stats.badLines.size();
+      this.dupLineCount = stats.dupLines.size();
+      this.error = error;
+    }
+
+    /***************************************************************************
+     **
+     ** Answer if the file loaded
+     */
+
+    public boolean isLoaded() {
+      return (error == null);
+    }
+
+    /***************************************************************************
+     **
+     ** G2 index for a G1 index, or -1
+     */
+
+    public int getMatch(int g1Index) {
+      return (g1ToG2_[g1Index]);
+    }
+
+    /***************************************************************************
+     **
+     ** Rebuild the node map, as would come from AlignmentLoader, for handing
+     ** to the scorer or the network builder
+     */
+
+    public Map<NetNode, NetNode> toNodeMap() {
+      if (error != null) {
+        throw (new IllegalStateException());
+      }
+      HashMap<NetNode, NetNode> retval = new HashMap<NetNode, NetNode>();
+      for (int i = 0; i < g1ToG2_.length; i++) {
+        if (g1ToG2_[i] != -1) {
+          retval.put(nodesG1_.get(i), nodesG2_.get(g1ToG2_[i]));
+        }
+      }
+      return (retval);
+    }
+  }
+}
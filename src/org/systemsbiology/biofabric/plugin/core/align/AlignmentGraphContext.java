@@ -0,0 +1,238 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
+import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
+import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
+
+/****************************************************************************
+ **
+ ** The node adjacency of the graphs in one alignment load: G1, G2, the merged
+ ** main alignment and the merged perfect alignment. Each map is built by
+ ** BuildExtractor.createNeighborLinkMap the first time it is asked for and
+ ** then kept, so the scorer, the node group maps, Jaccard similarity and the
+ ** layout all share one copy. The maps must not be changed by their users.
+ ** Building is synchronized per graph, so the maps can be asked for from
+ ** several threads.
+ */
+
+public class AlignmentGraphContext {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final Adjacency small_;
+  private final Adjacency large_;
+  private final Adjacency perfect_;
+  private final Adjacency main_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor for the graphs that do not depend on the main alignment. The
+   ** perfect links and loners are null if there is no perfect alignment.
+   */
+
+  public AlignmentGraphContext(Collection<NetLink> linksSmall, Set<NetNode> lonersSmall,
+                               Collection<NetLink> linksLarge, Set<NetNode> lonersLarge,
+                               Collection<NetLink> linksPerfect, Set<NetNode> lonersPerfect) {
+    small_ = new Adjacency(linksSmall, lonersSmall);
+    large_ = new Adjacency(linksLarge, lonersLarge);
+    perfect_ = (linksPerfect != null) ? new Adjacency(linksPerfect, lonersPerfect) : null;
+    main_ = null;
+  }
+
+  /***************************************************************************
+   **
+   ** Constructor sharing the maps of another context
+   */
+
+  private AlignmentGraphContext(AlignmentGraphContext shared, Collection<NetLink> linksMain, Set<NetNode> lonersMain) {
+    small_ = shared.small_;
+    large_ = shared.large_;
+    perfect_ = shared.perfect_;
+    main_ = new Adjacency(linksMain, lonersMain);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** A context for a main alignment, sharing the G1, G2 and perfect maps of
+   ** this one. Shadow links may be left out of the main links, as they do not
+   ** change who neighbors whom or which link groups a node is in.
+   */
+
+  public AlignmentGraphContext forMain(Collection<NetLink> linksMain, Set<NetNode> lonersMain) {
+    return (new AlignmentGraphContext(this, linksMain, lonersMain));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to neighbors of G1
+   */
+
+  public Map<NetNode, Set<NetNode>> getNeighborsSmall(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (small_.getNeighbors(monitor));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to neighbors of G2
+   */
+
+  public Map<NetNode, Set<NetNode>> getNeighborsLarge(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (large_.getNeighbors(monitor));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to neighbors of the merged main alignment
+   */
+
+  public Map<NetNode, Set<NetNode>> getNeighborsMain(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (mainAdjacency().getNeighbors(monitor));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to links of the merged main alignment
+   */
+
+  public Map<NetNode, Set<NetLink>> getLinksMain(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (mainAdjacency().getLinks(monitor));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to neighbors of the merged perfect alignment
+   */
+
+  public Map<NetNode, Set<NetNode>> getNeighborsPerfect(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (perfectAdjacency().getNeighbors(monitor));
+  }
+
+  /***************************************************************************
+   **
+   ** Node to links of the merged perfect alignment
+   */
+
+  public Map<NetNode, Set<NetLink>> getLinksPerfect(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (perfectAdjacency().getLinks(monitor));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Main alignment maps, which only a context from forMain() has
+   */
+
+  private Adjacency mainAdjacency() {
+    if (main_ == null) {
+      throw (new IllegalStateException("No main alignment in context"));
+    }
+    return (main_);
+  }
+
+  /***************************************************************************
+   **
+   ** Perfect alignment maps
+   */
+
+  private Adjacency perfectAdjacency() {
+    if (perfect_ == null) {
+      throw (new IllegalStateException("No perfect alignment in context"));
+    }
+    return (perfect_);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** One graph and its maps, built on first use
+   */
+
+  private static class Adjacency {
+
+    private Collection<NetLink> links_;
+    private Set<NetNode> loners_;
+    private Map<NetNode, Set<NetNode>> nodeToNeighbors_;
+    private Map<NetNode, Set<NetLink>> nodeToLinks_;
+
+    Adjacency(Collection<NetLink> links, Set<NetNode> loners) {
+      links_ = links;
+      loners_ = loners;
+    }
+
+    synchronized Map<NetNode, Set<NetNode>> getNeighbors(BTProgressMonitor monitor) throws AsynchExitRequestException {
+      build(monitor);
+      return (nodeToNeighbors_);
+    }
+
+    synchronized Map<NetNode, Set<NetLink>> getLinks(BTProgressMonitor monitor) throws AsynchExitRequestException {
+      build(monitor);
+      return (nodeToLinks_);
+    }
+
+    private void build(BTProgressMonitor monitor) throws AsynchExitRequestException {
+      if (nodeToNeighbors_ != null) {
+        return;
+      }
+      Map<NetNode, Set<NetNode>> nodeToNeighbors = new HashMap<NetNode, Set<NetNode>>();
+      Map<NetNode, Set<NetLink>> nodeToLinks = new HashMap<NetNode, Set<NetLink>>();
+      PluginSupportFactory.getBuildExtractor().createNeighborLinkMap(links_, loners_, nodeToNeighbors, nodeToLinks, monitor);
+      nodeToNeighbors_ = nodeToNeighbors;
+      nodeToLinks_ = nodeToLinks;
+      links_ = null; // not needed again
+      loners_ = null;
+      return;
+    }
+  }
+}
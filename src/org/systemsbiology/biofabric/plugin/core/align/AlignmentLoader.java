@@ -23,24 +23,35 @@ package org.systemsbiology.biofabric.plugin.core.align;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-import org.systemsbiology.biofabric.api.io.BuildExtractor;
 import org.systemsbiology.biofabric.api.model.NetLink;
 import org.systemsbiology.biofabric.api.model.NetNode;
 import org.systemsbiology.biofabric.api.util.PluginResourceManager;
-import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
-import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /****************************************************************************
  **
@@ -49,6 +60,64 @@ import java.io.InputStreamReader;
 
 public class AlignmentLoader {
   
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC STATIC MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // READER is the original line-by-line parser. MAPPED memory-maps the file and
+  // scans the bytes directly, only creating Strings for bad or duplicate lines.
+  // PARALLEL does the same, but cuts each mapped window into chunks at line ends
+  // and parses them concurrently before merging the results in file order.
+  //
+  
+  public enum ParseMode {READER, MAPPED, PARALLEL}
+  
+  //
+  // Suffix for the binary alignment format
+  //
+  
+  public static final String BINARY_SUFFIX = ".alignb";
+  
+  //
+  // Suffix for gzip-compressed text alignments (e.g. .align.gz)
+  //
+  
+  public static final String GZIP_SUFFIX = ".gz";
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // Largest single mapping; bigger files are mapped in windows cut at line ends
+  //
+  
+  private static final int MAX_MAP_WINDOW_ = 1 << 30;
+  
+  //
+  // Chunks smaller than this are not worth handing to another thread
+  //
+  
+  private static final int MIN_PARSE_CHUNK_ = 1 << 20;
+  
+  //
+  // Binary format header: "ALNB" and a version number
+  //
+  
+  private static final int BINARY_MAGIC_ = 0x414C4E42;
+  private static final int BINARY_VERSION_ = 2; // version 1 had no source fields
+  
+  //
+  // Source length and time in a binary file that is not a copy of a text file
+  //
+  
+  private static final long NO_SOURCE_ = -1L;
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // PRIVATE INSTANCE MEMBERS
@@ -87,19 +156,436 @@ public class AlignmentLoader {
                               ArrayList<NetLink> linksGraph1, HashSet<NetNode> loneNodesGraph1,
                               ArrayList<NetLink> linksGraph2, HashSet<NetNode> loneNodesGraph2)
           throws IOException {
+    return (readAlignment(infile, mapG1ToG2, stats, linksGraph1, loneNodesGraph1, 
+                          linksGraph2, loneNodesGraph2, ParseMode.READER));
+  }
+  
+  /***************************************************************************
+   **
+   ** Process an alignment (.align) file using the given parser
+   */
+  
+  public String readAlignment(File infile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                              ArrayList<NetLink> linksGraph1, HashSet<NetNode> loneNodesGraph1,
+                              ArrayList<NetLink> linksGraph2, HashSet<NetNode> loneNodesGraph2,
+                              ParseMode mode)
+          throws IOException {
+    return (readAlignment(infile, mapG1ToG2, stats, new NodeNameIndex(linksGraph1, loneNodesGraph1), 
+                          new NodeNameIndex(linksGraph2, loneNodesGraph2), mode));
+  }
+  
+  /***************************************************************************
+   **
+   ** Process an alignment (.align) file against already indexed graphs. A
+   ** gzipped file cannot be mapped, so it is always streamed through the
+   ** line reader, with the inflating done on another thread.
+   */
+  
+  public String readAlignment(File infile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                              NodeNameIndex indexG1, NodeNameIndex indexG2, ParseMode mode)
+          throws IOException {
+    
+    if (isGzipped(infile)) {
+      mode = ParseMode.READER;
+    }
+    
+    switch (mode) {
+      case READER:
+        readAlignmentLines(infile, mapG1ToG2, stats, indexG1.getNameToNode(), indexG2.getNameToNode());
+        break;
+      case MAPPED:
+        readAlignmentMapped(infile, mapG1ToG2, stats, indexG1.getByteIndex(), indexG2.getByteIndex(), null);
+        break;
+      case PARALLEL:
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+          readAlignmentMapped(infile, mapG1ToG2, stats, indexG1.getByteIndex(), indexG2.getByteIndex(), pool);
+        } finally {
+          pool.shutdown();
+        }
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+    return (null);
+  }
+  
+  /***************************************************************************
+   **
+   ** Process an alignment (.align) file for determining graph1 and graph2
+   ** Nearly all error catching is done in other readAlignment method
+   */
+  
+  public Map<String, String> readAlignment(File infile, NetAlignFileStats stats) throws IOException {
+  	
+    Map<String, String> mapG1ToG2Str = new HashMap<String, String>();
+    BufferedReader in = null;
+    
+    try {
+    	in = new BufferedReader(new InputStreamReader(openAlignmentStream(infile), "UTF-8"));
+  
+	   
+	    String line = null;
+	    while ((line = in.readLine()) != null) {
+	    
+	      StringTokenizer st = new StringTokenizer(line);
+	      if (st.countTokens() != 2) {
+	        stats.badLines.add(line);
+	        continue;
+	      }
+	    
+	      String strNameG1 = st.nextToken(), strNameG2 = st.nextToken();
+	      
+	      if (mapG1ToG2Str.containsKey(strNameG1)) {
+	        if (! mapG1ToG2Str.get(strNameG1).equals(strNameG2)) {
+	          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), strNameG1);
+	          throw (new IOException(msg));
+	        } else {
+	          stats.dupLines.add(line);
+	        }
+	      } else {
+	        mapG1ToG2Str.put(strNameG1, strNameG2);
+	      }
+	    }
+    } finally {
+    	if (in != null) in.close();
+    }
+
+    return (mapG1ToG2Str);
+  }
+  
+  /***************************************************************************
+   **
+   ** Write an alignment in the binary (.alignb) format. Layout, all big-endian:
+   **
+   **   int magic, int version,
+   **   long source length, long source modified time,
+   **   int bad line count, int duplicate line count, duplicate lines,
+   **   long G1 fingerprint, int G1 node count,
+   **   long G2 fingerprint, int G2 node count,
+   **   long name table byte count, int pair count,
+   **   G1 names, G2 names (modified UTF-8, in name order),
+   **   pairs of (G1 index, G2 index) into those tables.
+   **
+   ** The fingerprint (NodeNameIndex.getFingerprint()) is a hash over the
+   ** sorted node names, so the table index of a node can be recovered from
+   ** any copy of the same graph. The source fields are -1 here; they are
+   ** only filled in for the copy of a text file (see writeBinaryCopy()).
+   */
+  
+  public void writeBinaryAlignment(File outfile, Map<NetNode, NetNode> mapG1ToG2,
+                                   NodeNameIndex indexG1, NodeNameIndex indexG2) throws IOException {
+    writeBinaryAlignment(outfile, mapG1ToG2, indexG1, indexG2, null, new NetAlignFileStats());
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Write the binary format, recording the text file it was read from (if
+   ** any) and the bad and duplicate lines that reading it found
+   */
+  
+  private void writeBinaryAlignment(File outfile, Map<NetNode, NetNode> mapG1ToG2,
+                                    NodeNameIndex indexG1, NodeNameIndex indexG2,
+                                    File source, NetAlignFileStats stats) throws IOException {
+    
+    List<NetNode> sortedG1 = indexG1.getSortedNodes();
+    List<NetNode> sortedG2 = indexG2.getSortedNodes();
+    
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outfile)));
+      out.writeInt(BINARY_MAGIC_);
+      out.writeInt(BINARY_VERSION_);
+      out.writeLong((source == null) ? NO_SOURCE_ : source.length());
+      out.writeLong((source == null) ? NO_SOURCE_ : source.lastModified());
+      out.writeInt(stats.badLines.size());
+      out.writeInt(stats.dupLines.size());
+      for (String dupLine : stats.dupLines) {
+        out.writeUTF(dupLine);
+      }
+      out.writeLong(indexG1.getFingerprint());
+      out.writeInt(sortedG1.size());
+      out.writeLong(indexG2.getFingerprint());
+      out.writeInt(sortedG2.size());
+      out.writeLong(nameTableBytes(sortedG1) + nameTableBytes(sortedG2));
+      out.writeInt(mapG1ToG2.size());
+      for (NetNode node : sortedG1) {
+        out.writeUTF(node.getName());
+      }
+      for (NetNode node : sortedG2) {
+        out.writeUTF(node.getName());
+      }
+      for (Map.Entry<NetNode, NetNode> entry : mapG1ToG2.entrySet()) {
+        int idx1 = indexG1.getSortedIndex(entry.getKey());
+        int idx2 = indexG2.getSortedIndex(entry.getValue());
+        if (idx1 < 0) {
+          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG1"), entry.getKey().getName());
+          throw (new IOException(msg));
+        }
+        if (idx2 < 0) {
+          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG2"), entry.getValue().getName());
+          throw (new IOException(msg));
+        }
+        out.writeInt(idx1);
+        out.writeInt(idx2);
+      }
+    } finally {
+      if (out != null) out.close();
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Process a binary (.alignb) alignment file. If the fingerprints in the
+   ** header match the loaded graphs, the name tables are skipped and the map is
+   ** filled straight from the index pairs. Otherwise the names are resolved as
+   ** for a text alignment, with the same errors. The duplicate lines found
+   ** when a copy's text was read are reported again.
+   */
+  
+  public void readBinaryAlignment(File infile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                                  NodeNameIndex indexG1, NodeNameIndex indexG2) throws IOException {
+    
+    List<NetNode> sortedG1 = indexG1.getSortedNodes();
+    List<NetNode> sortedG2 = indexG2.getSortedNodes();
+    
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(infile)));
+      if (in.readInt() != BINARY_MAGIC_) {
+        throw (badBinaryFile(infile));
+      }
+      int version = in.readInt();
+      if ((version < 1) || (version > BINARY_VERSION_)) {
+        throw (badBinaryFile(infile));
+      }
+      if (version > 1) { // version 1 files have no source fields
+        in.readLong(); // source length and time; see copyIsCurrent()
+        in.readLong();
+        int numBad = in.readInt();
+        int numDup = in.readInt();
+        if ((numBad < 0) || (numDup < 0)) {
+          throw (badBinaryFile(infile));
+        }
+        for (int i = 0; i < numDup; i++) {
+          stats.dupLines.add(in.readUTF());
+        }
+      }
+      long fpG1 = in.readLong();
+      int numG1 = in.readInt();
+      long fpG2 = in.readLong();
+      int numG2 = in.readInt();
+      long tableBytes = in.readLong();
+      int numPairs = in.readInt();
+      if ((numG1 < 0) || (numG2 < 0) || (tableBytes < 0L) || (numPairs < 0)) {
+        throw (badBinaryFile(infile));
+      }
+      
+      List<NetNode> tableG1;
+      List<NetNode> tableG2;
+      String[] namesG1 = null;
+      String[] namesG2 = null;
+      if ((numG1 == sortedG1.size()) && (fpG1 == indexG1.getFingerprint()) &&
+          (numG2 == sortedG2.size()) && (fpG2 == indexG2.getFingerprint())) {
+        skipFully(in, tableBytes);
+        tableG1 = sortedG1;
+        tableG2 = sortedG2;
+      } else {
+        namesG1 = new String[numG1];
+        for (int i = 0; i < numG1; i++) {
+          namesG1[i] = in.readUTF();
+        }
+        namesG2 = new String[numG2];
+        for (int i = 0; i < numG2; i++) {
+          namesG2[i] = in.readUTF();
+        }
+        tableG1 = Arrays.asList(resolveNames(namesG1, indexG1.getNameToNode()));
+        tableG2 = Arrays.asList(resolveNames(namesG2, indexG2.getNameToNode()));
+      }
       
-    Map<String, NetNode> G1nameToNID, G2nameToNID;
+      for (int i = 0; i < numPairs; i++) {
+        int idx1 = in.readInt();
+        int idx2 = in.readInt();
+        if ((idx1 < 0) || (idx1 >= tableG1.size()) || (idx2 < 0) || (idx2 >= tableG2.size())) {
+          throw (badBinaryFile(infile));
+        }
+        NetNode nodeG1 = tableG1.get(idx1);
+        NetNode nodeG2 = tableG2.get(idx2);
+        if (nodeG1 == null) {
+          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG1"), namesG1[idx1]);
+          throw (new IOException(msg));
+        }
+        if (nodeG2 == null) {
+          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG2"), namesG2[idx2]);
+          throw (new IOException(msg));
+        }
+        NetNode existing = mapG1ToG2.get(nodeG1);
+        if (existing != null) {
+          if (! existing.equals(nodeG2)) {
+            String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), nodeG1.getName());
+            throw (new IOException(msg));
+          } else {
+            stats.dupLines.add(nodeG1.getName() + " " + nodeG2.getName());
+          }
+        } else {
+          mapG1ToG2.put(nodeG1, nodeG2);
+        }
+      }
+    } catch (EOFException eofex) {
+      throw (badBinaryFile(infile));
+    } finally {
+      if (in != null) in.close();
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Write the binary copy of a text alignment that has just been read, beside
+   ** it (see binaryCopyOf()). The copy records the text file's length and time,
+   ** and the duplicate lines found reading it. An alignment with bad lines is
+   ** only partly in the map, so it gets no copy. The copy is written to a
+   ** temporary file first, so a failed write never leaves a partial copy that
+   ** would be read later. Returns null if there is no copy.
+   */
+  
+  public File writeBinaryCopy(File textFile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                              NodeNameIndex indexG1, NodeNameIndex indexG2) throws IOException {
+    if (!stats.badLines.isEmpty()) {
+      return (null);
+    }
+    File copy = binaryCopyOf(textFile);
+    File temp = File.createTempFile(copy.getName(), ".tmp", copy.getParentFile());
+    boolean done = false;
+    try {
+      writeBinaryAlignment(temp, mapG1ToG2, indexG1, indexG2, textFile, stats);
+      if (copy.exists() && !copy.delete()) {
+        throw (new IOException("Cannot replace " + copy.getName()));
+      }
+      if (!temp.renameTo(copy)) {
+        throw (new IOException("Cannot rename " + temp.getName() + " to " + copy.getName()));
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        temp.delete();
+      }
+    }
+    return (copy);
+  }
+  
+  /***************************************************************************
+   **
+   ** Answer if the file is a binary alignment
+   */
+  
+  public static boolean isBinary(File infile) {
+    return (infile.getName().toLowerCase().endsWith(BINARY_SUFFIX));
+  }
+  
+  /***************************************************************************
+   **
+   ** Where the binary copy of a text alignment goes: the full name plus the
+   ** suffix, so foo.align and foo.align.gz get copies of their own
+   */
+  
+  public static File binaryCopyOf(File textFile) {
+    return (new File(textFile.getAbsoluteFile().getParentFile(), textFile.getName() + BINARY_SUFFIX));
+  }
+  
+  /***************************************************************************
+   **
+   ** The file to actually read for an alignment. A binary file is read as is.
+   ** A text file is read from its binary copy only if copies are in use and
+   ** the copy was made from the text file as it is now (see copyIsCurrent()).
+   ** The copy gives the same map, only faster.
+   */
+  
+  public static File fastestCopyOf(File infile, boolean useCopies) {
+    if (isBinary(infile) || !useCopies) {
+      return (infile);
+    }
+    File copy = binaryCopyOf(infile);
+    if (copy.isFile() && copy.canRead() && copyIsCurrent(copy, infile)) {
+      return (copy);
+    }
+    return (infile);
+  }
+  
+  /***************************************************************************
+   **
+   ** Answer if a binary copy was made from the text file as it is now: the
+   ** length and time it recorded must match, and the text must have had no
+   ** bad lines. File times survive copying and untarring, so a newer copy is
+   ** not enough.
+   */
+  
+  public static boolean copyIsCurrent(File copy, File textFile) {
+    DataInputStream in = null;
     try {
-    	BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
-      G1nameToNID = makeStringMap(bex.extractNodes(linksGraph1, loneNodesGraph1, null));
-      G2nameToNID = makeStringMap(bex.extractNodes(linksGraph2, loneNodesGraph2, null));
-    } catch (AsynchExitRequestException aere) {
-      throw new IllegalStateException();
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(copy)));
+      if ((in.readInt() != BINARY_MAGIC_) || (in.readInt() != BINARY_VERSION_)) {
+        return (false);
+      }
+      long length = in.readLong();
+      long modified = in.readLong();
+      int numBad = in.readInt();
+      return ((length == textFile.length()) && (modified == textFile.lastModified()) && (numBad == 0));
+    } catch (IOException ioex) {
+      return (false);
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException ioex) {
+          // Nothing to do
+        }
+      }
     }
+  }
+  
+  /***************************************************************************
+   **
+   ** Answer if the file is a gzipped alignment
+   */
+  
+  public static boolean isGzipped(File infile) {
+    return (infile.getName().toLowerCase().endsWith(GZIP_SUFFIX));
+  }
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  /***************************************************************************
+   **
+   ** Open a text alignment, inflating it on the fly if it is gzipped
+   */
+  
+  private static InputStream openAlignmentStream(File infile) throws IOException {
+    if (isGzipped(infile)) {
+      return (new PipelinedGzipInputStream(infile));
+    }
+    return (new FileInputStream(infile));
+  }
+  
+  /***************************************************************************
+   **
+   ** Line-by-line parse using String lookups
+   */
+  
+  private void readAlignmentLines(File infile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                                  Map<String, NetNode> G1nameToNID, Map<String, NetNode> G2nameToNID) 
+          throws IOException {
+  
     BufferedReader in = null;
     
     try {
-    	in = new BufferedReader(new InputStreamReader(new FileInputStream(infile), "UTF-8"));
+    	in = new BufferedReader(new InputStreamReader(openAlignmentStream(infile), "UTF-8"));
     
 	    String line = null;
 	    while ((line = in.readLine()) != null) {
@@ -150,66 +636,532 @@ public class AlignmentLoader {
     } finally {
     	if (in != null) in.close();
     }
-    return (null);
+    return;
   }
   
   /***************************************************************************
    **
-   ** Process an alignment (.align) file for determining graph1 and graph2
-   ** Nearly all error catching is done in other readAlignment method
+   ** Memory-mapped parse. Same semantics as readAlignmentLines(): lines end at
+   ** \n, \r or \r\n, tokens are split on space, tab and form feed, and the
+   ** same bad/duplicate/mapping errors are reported. Tokens are resolved
+   ** against the byte index directly out of the mapped buffer. If a pool is
+   ** provided, each window is parsed in parallel chunks.
    */
   
-  public Map<String, String> readAlignment(File infile, NetAlignFileStats stats) throws IOException {
-  	
-    Map<String, String> mapG1ToG2Str = new HashMap<String, String>();
-    BufferedReader in = null;
+  private void readAlignmentMapped(File infile, Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                                   NodeNameByteIndex g1Index, NodeNameByteIndex g2Index, 
+                                   ForkJoinPool pool) throws IOException {
     
+    FileInputStream fis = null;
     try {
-    	in = new BufferedReader(new InputStreamReader(new FileInputStream(infile), "UTF-8"));
-  
-	   
-	    String line = null;
-	    while ((line = in.readLine()) != null) {
-	    
-	      StringTokenizer st = new StringTokenizer(line);
-	      if (st.countTokens() != 2) {
-	        stats.badLines.add(line);
-	        continue;
-	      }
-	    
-	      String strNameG1 = st.nextToken(), strNameG2 = st.nextToken();
-	      
-	      if (mapG1ToG2Str.containsKey(strNameG1)) {
-	        if (! mapG1ToG2Str.get(strNameG1).equals(strNameG2)) {
-	          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), strNameG1);
-	          throw (new IOException(msg));
-	        } else {
-	          stats.dupLines.add(line);
-	        }
-	      } else {
-	        mapG1ToG2Str.put(strNameG1, strNameG2);
-	      }
-	    }
+      fis = new FileInputStream(infile);
+      FileChannel fc = fis.getChannel();
+      long size = fc.size();
+      long pos = 0L;
+      while (pos < size) {
+        int winLen = (int)Math.min(size - pos, MAX_MAP_WINDOW_);
+        MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, pos, winLen);
+        int end = winLen;
+        if ((pos + winLen) < size) {
+          end = lastLineEnd(buf, winLen);
+          if (end <= 0) {
+            throw (new IOException("Alignment line longer than " + MAX_MAP_WINDOW_ + " bytes"));
+          }
+        }
+        if ((pool != null) && (end >= (2 * MIN_PARSE_CHUNK_))) {
+          parseMappedParallel(buf, end, mapG1ToG2, stats, g1Index, g2Index, pool);
+        } else {
+          parseMappedLines(buf, 0, end, mapG1ToG2, stats, g1Index, g2Index);
+        }
+        pos += end;
+      }
     } finally {
-    	if (in != null) in.close();
+      if (fis != null) fis.close();
     }
-
-    return (mapG1ToG2Str);
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Find the offset just past the last complete line terminator in the window.
+   ** A trailing \r is not taken, since its \n may be in the next window.
+   */
+  
+  private static int lastLineEnd(ByteBuffer buf, int winLen) {
+    for (int i = winLen - 1; i >= 0; i--) {
+      byte b = buf.get(i);
+      if ((b == '\n') || ((b == '\r') && (i < (winLen - 1)))) {
+        return (i + 1);
+      }
+    }
+    return (-1);
   }
   
   /***************************************************************************
    **
-   ** Map node name to NetNode using node set
+   ** Parse buf[0, end) as chunks on the pool, then fold the per-chunk results
+   ** into the map in chunk order. Since the fold runs in file order, the
+   ** first error thrown and the order of the bad and duplicate lines are the
+   ** same as for a sequential parse, whatever order the chunks finish in.
    */
   
-  private static Map<String,NetNode> makeStringMap(Set<NetNode> nodes) {
+  private void parseMappedParallel(ByteBuffer buf, int end, Map<NetNode, NetNode> mapG1ToG2, 
+                                   NetAlignFileStats stats, NodeNameByteIndex g1Index, 
+                                   NodeNameByteIndex g2Index, ForkJoinPool pool) throws IOException {
+    
+    int pieces = Math.min(pool.getParallelism() * 4, end / MIN_PARSE_CHUNK_);
+    int[] bounds = chunkBounds(buf, end, Math.max(pieces, 1));
+    
+    List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+    for (int i = 0; i < bounds.length - 1; i++) {
+      ChunkTask task = new ChunkTask(buf, bounds[i], bounds[i + 1], g1Index, g2Index);
+      tasks.add(task);
+      pool.execute(task);
+    }
+    
+    for (ChunkTask task : tasks) {
+      mergeChunk(buf, task.join(), mapG1ToG2, stats);
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Cut buf[0, end) into roughly equal pieces, each ending on a line end
+   */
+  
+  private static int[] chunkBounds(ByteBuffer buf, int end, int pieces) {
+    ArrayList<Integer> cuts = new ArrayList<Integer>();
+    cuts.add(Integer.valueOf(0));
+    int step = end / pieces;
+    int last = 0;
+    for (int i = 1; i < pieces; i++) {
+      int p = Math.max(i * step, last);
+      while ((p < end) && (buf.get(p) != '\n') && (buf.get(p) != '\r')) {
+        p++;
+      }
+      if (p >= end) {
+        break;
+      }
+      if ((buf.get(p) == '\r') && ((p + 1) < end) && (buf.get(p + 1) == '\n')) {
+        p++;
+      }
+      last = p + 1;
+      if (last >= end) {
+        break;
+      }
+      cuts.add(Integer.valueOf(last));
+    }
+    cuts.add(Integer.valueOf(end));
+    
+    int[] retval = new int[cuts.size()];
+    for (int i = 0; i < retval.length; i++) {
+      retval[i] = cuts.get(i).intValue();
+    }
+    return (retval);
+  }
+  
+  /***************************************************************************
+   **
+   ** Fold one chunk into the global map. The chunk has already settled
+   ** everything local to itself; here we only have to check its first
+   ** occurrences against the earlier chunks, interleaving its own duplicate
+   ** lines so they are reported in file order.
+   */
   
-    Map<String,NetNode> retval = new HashMap<String, NetNode>();
+  private void mergeChunk(ByteBuffer buf, ChunkResult chunk, Map<NetNode, NetNode> mapG1ToG2, 
+                          NetAlignFileStats stats) throws IOException {
+    
+    stats.badLines.addAll(chunk.badLines);
+    
+    int nextDup = 0;
+    for (int i = 0; i < chunk.numFirst; i++) {
+      long line = chunk.firstLines[i];
+      if ((chunk.error != null) && (chunk.errorStart < lineStart(line))) {
+        break;
+      }
+      while ((nextDup < chunk.numDups) && (lineStart(chunk.dupLines[nextDup]) < lineStart(line))) {
+        stats.dupLines.add(decode(buf, lineStart(chunk.dupLines[nextDup]), lineEnd(chunk.dupLines[nextDup])));
+        nextDup++;
+      }
+      NetNode nodeG1 = chunk.firstG1.get(i);
+      NetNode nodeG2 = chunk.partial.get(nodeG1);
+      NetNode existing = mapG1ToG2.get(nodeG1);
+      if (existing != null) {
+        if (! existing.equals(nodeG2)) {
+          String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), nodeG1.getName());
+          throw (new IOException(msg));
+        } else {
+          stats.dupLines.add(decode(buf, lineStart(line), lineEnd(line)));
+        }
+      } else {
+        mapG1ToG2.put(nodeG1, nodeG2);
+      }
+    }
     
-    for (NetNode node : nodes) {
-      retval.put(node.getName(), node);
+    while (nextDup < chunk.numDups) {
+      stats.dupLines.add(decode(buf, lineStart(chunk.dupLines[nextDup]), lineEnd(chunk.dupLines[nextDup])));
+      nextDup++;
+    }
+    if (chunk.error != null) {
+      throw (chunk.error);
+    }
+    return;
+  }
+  
+  private static long packLine(int start, int end) {
+    return ((((long)start) << 32) | (end & 0xFFFFFFFFL));
+  }
+  
+  private static int lineStart(long line) {
+    return ((int)(line >>> 32));
+  }
+  
+  private static int lineEnd(long line) {
+    return ((int)line);
+  }
+  
+  /***************************************************************************
+   **
+   ** Walk the lines in buf[from, to)
+   */
+  
+  private void parseMappedLines(ByteBuffer buf, int from, int to,
+                                Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                                NodeNameByteIndex g1Index, NodeNameByteIndex g2Index) throws IOException {
+    int[] toks = new int[4];
+    int lineStart = from;
+    int i = from;
+    while (i < to) {
+      byte b = buf.get(i);
+      if ((b == '\n') || (b == '\r')) {
+        parseMappedLine(buf, lineStart, i, toks, mapG1ToG2, stats, g1Index, g2Index);
+        if ((b == '\r') && ((i + 1) < to) && (buf.get(i + 1) == '\n')) {
+          i++;
+        }
+        lineStart = i + 1;
+      }
+      i++;
+    }
+    if (lineStart < to) {
+      parseMappedLine(buf, lineStart, to, toks, mapG1ToG2, stats, g1Index, g2Index);
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Handle one line held in buf[start, end); toks is scratch space
+   */
+  
+  private void parseMappedLine(ByteBuffer buf, int start, int end, int[] toks,
+                               Map<NetNode, NetNode> mapG1ToG2, NetAlignFileStats stats,
+                               NodeNameByteIndex g1Index, NodeNameByteIndex g2Index) throws IOException {
+    
+    if (tokenize(buf, start, end, toks) != 2) {
+      stats.badLines.add(decode(buf, start, end));
+      return;
+    }
+    
+    NetNode nodeG1 = g1Index.get(buf, toks[0], toks[1]);
+    if (nodeG1 == null) {
+      String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG1"), decode(buf, toks[0], toks[1]));
+      throw (new IOException(msg));
+    }
+    NetNode nodeG2 = g2Index.get(buf, toks[2], toks[3]);
+    if (nodeG2 == null) {
+      String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG2"), decode(buf, toks[2], toks[3]));
+      throw (new IOException(msg));
+    }
+    
+    NetNode existing = mapG1ToG2.get(nodeG1);
+    if (existing != null) {
+      if (! existing.equals(nodeG2)) {
+        String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), decode(buf, toks[0], toks[1]));
+        throw (new IOException(msg));
+      } else {
+        stats.dupLines.add(decode(buf, start, end));
+      }
+    } else {
+      mapG1ToG2.put(nodeG1, nodeG2);
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Find up to the first two tokens in buf[start, end), using the StringTokenizer
+   ** default delimiters. Bounds go into toks as {s1, e1, s2, e2}. Returns the token
+   ** count, stopping early once it is known to be more than two.
+   */
+  
+  private static int tokenize(ByteBuffer buf, int start, int end, int[] toks) {
+    int count = 0;
+    int p = start;
+    while (p < end) {
+      while ((p < end) && isDelim(buf.get(p))) {
+        p++;
+      }
+      if (p >= end) {
+        break;
+      }
+      if (count == 2) {
+        return (3);
+      }
+      toks[count * 2] = p;
+      while ((p < end) && !isDelim(buf.get(p))) {
+        p++;
+      }
+      toks[(count * 2) + 1] = p;
+      count++;
+    }
+    return (count);
+  }
+  
+  private static boolean isDelim(byte b) {
+    return ((b == ' ') || (b == '\t') || (b == '\n') || (b == '\r') || (b == '\f'));
+  }
+  
+  /***************************************************************************
+   **
+   ** Build a String for buf[start, end); only needed for reporting
+   */
+  
+  private static String decode(ByteBuffer buf, int start, int end) throws IOException {
+    byte[] bytes = new byte[end - start];
+    ByteBuffer dup = buf.duplicate();
+    dup.position(start);
+    dup.get(bytes);
+    return (new String(bytes, "UTF-8"));
+  }
+  
+  /***************************************************************************
+   **
+   ** Bytes written by writeUTF() for all names
+   */
+  
+  private static long nameTableBytes(List<NetNode> sorted) throws IOException {
+    long retval = 0L;
+    for (NetNode node : sorted) {
+      String name = node.getName();
+      int len = name.length();
+      long utfLen = 0L;
+      for (int i = 0; i < len; i++) {
+        char ch = name.charAt(i);
+        if ((ch >= 0x0001) && (ch <= 0x007F)) {
+          utfLen++;
+        } else if (ch > 0x07FF) {
+          utfLen += 3;
+        } else {
+          utfLen += 2;
+        }
+      }
+      if (utfLen > 65535L) {
+        throw (new IOException("Node name too long for binary alignment: " + name.substring(0, 40)));
+      }
+      retval += (2L + utfLen);
+    }
+    return (retval);
+  }
+  
+  /***************************************************************************
+   **
+   ** Resolve a name table against a loaded graph. Names not in the graph come
+   ** back as null and are only reported if a pair uses them.
+   */
+  
+  private static NetNode[] resolveNames(String[] names, Map<String, NetNode> nameToNode) {
+    NetNode[] retval = new NetNode[names.length];
+    for (int i = 0; i < names.length; i++) {
+      retval[i] = nameToNode.get(names[i]);
+    }
+    return (retval);
+  }
+  
+  /***************************************************************************
+   **
+   ** Skip exactly count bytes
+   */
+  
+  private static void skipFully(DataInputStream in, long count) throws IOException {
+    long left = count;
+    while (left > 0L) {
+      long skipped = in.skip(left);
+      if (skipped <= 0L) {
+        if (in.read() < 0) {
+          throw (new EOFException());
+        }
+        skipped = 1L;
+      }
+      left -= skipped;
+    }
+    return;
+  }
+  
+  /***************************************************************************
+   **
+   ** Error for a corrupt or foreign .alignb file
+   */
+  
+  private IOException badBinaryFile(File infile) {
+    String msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.badBinaryAlignment"), infile.getName());
+    return (new IOException(msg));
+  }
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  /***************************************************************************
+   **
+   ** What one chunk found: its own partial map, the lines that first set each
+   ** entry, the lines that duplicated an entry within the chunk, its bad lines,
+   ** and the first error, if any, after which the chunk stopped.
+   */
+  
+  private static class ChunkResult {
+    HashMap<NetNode, NetNode> partial;
+    ArrayList<NetNode> firstG1;
+    long[] firstLines;
+    int numFirst;
+    long[] dupLines;
+    int numDups;
+    ArrayList<String> badLines;
+    IOException error;
+    int errorStart;
+    
+    ChunkResult() {
+      partial = new HashMap<NetNode, NetNode>();
+      firstG1 = new ArrayList<NetNode>();
+      firstLines = new long[64];
+      numFirst = 0;
+      dupLines = new long[16];
+      numDups = 0;
+      badLines = new ArrayList<String>();
+      error = null;
+      errorStart = -1;
+    }
+    
+    void addFirst(NetNode nodeG1, long line) {
+      if (numFirst == firstLines.length) {
+        long[] grow = new long[numFirst * 2];
+        System.arraycopy(firstLines, 0, grow, 0, numFirst);
+        firstLines = grow;
+      }
+      firstG1.add(nodeG1);
+      firstLines[numFirst++] = line;
+      return;
+    }
+    
+    void addDup(long line) {
+      if (numDups == dupLines.length) {
+        long[] grow = new long[numDups * 2];
+        System.arraycopy(dupLines, 0, grow, 0, numDups);
+        dupLines = grow;
+      }
+      dupLines[numDups++] = line;
+      return;
+    }
+  }
+  
+  /***************************************************************************
+   **
+   ** Parses buf[from, to) into a ChunkResult. Only absolute reads are done on
+   ** the shared buffer and the indices are read-only, so chunks can run at once.
+   */
+  
+  private class ChunkTask extends RecursiveTask<ChunkResult> {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private ByteBuffer buf_;
+    private int from_;
+    private int to_;
+    private NodeNameByteIndex g1Index_;
+    private NodeNameByteIndex g2Index_;
+    
+    ChunkTask(ByteBuffer buf, int from, int to, NodeNameByteIndex g1Index, NodeNameByteIndex g2Index) {
+      buf_ = buf;
+      from_ = from;
+      to_ = to;
+      g1Index_ = g1Index;
+      g2Index_ = g2Index;
+    }
+    
+    @Override
+    protected ChunkResult compute() {
+      ChunkResult result = new ChunkResult();
+      int[] toks = new int[4];
+      int lineStart = from_;
+      int i = from_;
+      try {
+        while (i < to_) {
+          byte b = buf_.get(i);
+          if ((b == '\n') || (b == '\r')) {
+            if (!parseLine(lineStart, i, toks, result)) {
+              return (result);
+            }
+            if ((b == '\r') && ((i + 1) < to_) && (buf_.get(i + 1) == '\n')) {
+              i++;
+            }
+            lineStart = i + 1;
+          }
+          i++;
+        }
+        if (lineStart < to_) {
+          parseLine(lineStart, to_, toks, result);
+        }
+      } catch (IOException ioex) {
+        result.error = ioex;
+        result.errorStart = lineStart;
+      }
+      return (result);
+    }
+    
+    /***************************************************************************
+     **
+     ** Same checks as parseMappedLine(), against the chunk's partial map.
+     ** Returns false once an error has been recorded.
+     */
+    
+    private boolean parseLine(int start, int end, int[] toks, ChunkResult result) throws IOException {
+      
+      if (tokenize(buf_, start, end, toks) != 2) {
+        result.badLines.add(decode(buf_, start, end));
+        return (true);
+      }
+      
+      String msg = null;
+      NetNode nodeG1 = g1Index_.get(buf_, toks[0], toks[1]);
+      NetNode nodeG2 = null;
+      if (nodeG1 == null) {
+        msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG1"), decode(buf_, toks[0], toks[1]));
+      } else {
+        nodeG2 = g2Index_.get(buf_, toks[2], toks[3]);
+        if (nodeG2 == null) {
+          msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.nodeNotFoundG2"), decode(buf_, toks[2], toks[3]));
+        }
+      }
+      
+      if (msg == null) {
+        NetNode existing = result.partial.get(nodeG1);
+        if (existing == null) {
+          result.partial.put(nodeG1, nodeG2);
+          result.addFirst(nodeG1, packLine(start, end));
+          return (true);
+        } else if (existing.equals(nodeG2)) {
+          result.addDup(packLine(start, end));
+          return (true);
+        }
+        msg = MessageFormat.format(rMan_.getPluginString("networkAlignment.mapError"), decode(buf_, toks[0], toks[1]));
+      }
+      
+      result.error = new IOException(msg);
+      result.errorStart = start;
+      return (false);
     }
-    return retval;
   }
   
   public static class NetAlignFileStats {
@@ -0,0 +1,327 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+
+/****************************************************************************
+ **
+ ** EC, S3 and ICS of an alignment that is being edited. It keeps the counts
+ ** of covered, induced G1 and aligned G2 edges. These are the same counts
+ ** TopologicalScoreKernel makes, and the same links the merge would classify.
+ ** Moving a G1 node to another G2 node, or swapping the G2 nodes of two G1
+ ** nodes, only recounts the edges at the nodes touched. The cost is the sum
+ ** of their degrees, with no full rescoring. G2 edges are tested with a hash
+ ** of packed index pairs, so each edge costs O(1). Not thread safe.
+ */
+
+public class IncrementalAlignmentScore {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final NodeNameIndex indexG1_;
+  private final NodeNameIndex indexG2_;
+  private final List<NetNode> nodesG2_;
+  private final IntGraph graphG1_;
+  private final IntGraph graphG2_;
+  private final LongHashSet keysG2_;
+  private final int[] g1ToG2_;
+  private final int[] g2ToG1_;
+
+  private long covered_;
+  private long inducedG1_;
+  private long alignedPairsG2_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor, taking the same graphs, index and map the scorer gets. The
+   ** indices must be those of the two link lists. The map is copied.
+   */
+
+  public IncrementalAlignmentScore(List<NetLink> linksG1, NodeNameIndex indexG1,
+                                   List<NetLink> linksG2, NodeNameIndex indexG2,
+                                   Map<NetNode, NetNode> mapG1toG2) {
+    indexG1_ = indexG1;
+    indexG2_ = indexG2;
+    nodesG2_ = indexG2.getSortedNodes();
+    graphG1_ = buildGraph(linksG1, indexG1, null);
+    keysG2_ = new LongHashSet(linksG2.size() / 2);
+    graphG2_ = buildGraph(linksG2, indexG2, keysG2_);
+
+    g1ToG2_ = new int[graphG1_.getNodeCount()];
+    g2ToG1_ = new int[graphG2_.getNodeCount()];
+    Arrays.fill(g1ToG2_, -1);
+    Arrays.fill(g2ToG1_, -1);
+    for (Map.Entry<NetNode, NetNode> entry : mapG1toG2.entrySet()) {
+      int g1 = indexG1.getSortedIndex(entry.getKey());
+      int g2 = indexG2.getSortedIndex(entry.getValue());
+      if ((g1 != -1) && (g2 != -1)) {
+        g1ToG2_[g1] = g2;
+        g2ToG1_[g2] = g1;
+      }
+    }
+    countAll();
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** The current counts and the measures they give
+   */
+
+  public TopologicalScoreKernel.Counts getCounts() {
+    return (new TopologicalScoreKernel.Counts(covered_, inducedG1_, alignedPairsG2_ - covered_));
+  }
+
+  /***************************************************************************
+   **
+   ** The G2 node a G1 node is aligned to, or null
+   */
+
+  public NetNode getMatch(NetNode nodeG1) {
+    int g2 = g1ToG2_[g1Index(nodeG1)];
+    return ((g2 == -1) ? null : nodesG2_.get(g2));
+  }
+
+  /***************************************************************************
+   **
+   ** Swap the G2 nodes of two G1 nodes. Either may be unaligned, in which case
+   ** the other ends up unaligned.
+   */
+
+  public TopologicalScoreKernel.Counts swap(NetNode nodeG1A, NetNode nodeG1B) {
+    swap(g1Index(nodeG1A), g1Index(nodeG1B));
+    return (getCounts());
+  }
+
+  /***************************************************************************
+   **
+   ** Align a G1 node to a G2 node that no other G1 node has, or unalign it if
+   ** the G2 node is null
+   */
+
+  public TopologicalScoreKernel.Counts reassign(NetNode nodeG1, NetNode nodeG2) {
+    int g2 = -1;
+    if (nodeG2 != null) {
+      g2 = indexG2_.getSortedIndex(nodeG2);
+      if (g2 == -1) {
+        throw (new IllegalArgumentException("Node not in G2: " + nodeG2.getName()));
+      }
+    }
+    reassign(g1Index(nodeG1), g2);
+    return (getCounts());
+  }
+
+  /***************************************************************************
+   **
+   ** Swap by name-order index (as in NodeNameIndex.getSortedIndex())
+   */
+
+  public void swap(int g1A, int g1B) {
+    if (g1A == g1B) {
+      return;
+    }
+    int g2A = g1ToG2_[g1A];
+    int g2B = g1ToG2_[g1B];
+    unalign(g1A);
+    unalign(g1B);
+    align(g1A, g2B);
+    align(g1B, g2A);
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Reassign by name-order index; g2 is -1 to unalign
+   */
+
+  public void reassign(int g1, int g2) {
+    if (g1ToG2_[g1] == g2) {
+      return;
+    }
+    if ((g2 != -1) && (g2ToG1_[g2] != -1)) {
+      throw (new IllegalArgumentException("G2 node already aligned; swap instead"));
+    }
+    unalign(g1);
+    align(g1, g2);
+    return;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Take an aligned G1 node out of the counts and the maps
+   */
+
+  private void unalign(int g1) {
+    int g2 = g1ToG2_[g1];
+    if (g2 == -1) {
+      return;
+    }
+    addEdgesAt(g1, g2, -1);
+    g1ToG2_[g1] = -1;
+    g2ToG1_[g2] = -1;
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Align an unaligned G1 node to a free G2 node (or to nothing, if -1)
+   */
+
+  private void align(int g1, int g2) {
+    if (g2 == -1) {
+      return;
+    }
+    g1ToG2_[g1] = g2;
+    g2ToG1_[g2] = g1;
+    addEdgesAt(g1, g2, 1);
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Add (sign 1) or take away (sign -1) the counts of the edges at the
+   ** aligned pair g1, g2. Edges to other aligned nodes are the only ones
+   ** counted; a feedback edge is in its node's row once, so it is counted once.
+   */
+
+  private void addEdgesAt(int g1, int g2, int sign) {
+    for (int pos = graphG1_.getRowStart(g1); pos < graphG1_.getRowEnd(g1); pos++) {
+      int imgNbr = g1ToG2_[graphG1_.getNeighbor(pos)];
+      if (imgNbr == -1) {
+        continue;
+      }
+      if (keysG2_.contains(LongHashSet.edgeKey(g2, imgNbr))) {
+        covered_ += sign;
+      } else {
+        inducedG1_ += sign;
+      }
+    }
+    for (int pos = graphG2_.getRowStart(g2); pos < graphG2_.getRowEnd(g2); pos++) {
+      if (g2ToG1_[graphG2_.getNeighbor(pos)] != -1) {
+        alignedPairsG2_ += sign;
+      }
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Count everything from scratch, taking each edge once from its lower end
+   */
+
+  private void countAll() {
+    covered_ = 0L;
+    inducedG1_ = 0L;
+    alignedPairsG2_ = 0L;
+    for (int g1 = 0; g1 < g1ToG2_.length; g1++) {
+      int img = g1ToG2_[g1];
+      if (img == -1) {
+        continue;
+      }
+      for (int pos = graphG1_.getRowStart(g1); pos < graphG1_.getRowEnd(g1); pos++) {
+        int nbr = graphG1_.getNeighbor(pos);
+        if ((nbr < g1) || (g1ToG2_[nbr] == -1)) {
+          continue;
+        }
+        if (keysG2_.contains(LongHashSet.edgeKey(img, g1ToG2_[nbr]))) {
+          covered_++;
+        } else {
+          inducedG1_++;
+        }
+      }
+    }
+    for (int g2 = 0; g2 < g2ToG1_.length; g2++) {
+      if (g2ToG1_[g2] == -1) {
+        continue;
+      }
+      for (int pos = graphG2_.getRowStart(g2); pos < graphG2_.getRowEnd(g2); pos++) {
+        int nbr = graphG2_.getNeighbor(pos);
+        if ((nbr >= g2) && (g2ToG1_[nbr] != -1)) {
+          alignedPairsG2_++;
+        }
+      }
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Name-order index of a G1 node
+   */
+
+  private int g1Index(NetNode nodeG1) {
+    int retval = indexG1_.getSortedIndex(nodeG1);
+    if (retval == -1) {
+      throw (new IllegalArgumentException("Node not in G1: " + nodeG1.getName()));
+    }
+    return (retval);
+  }
+
+  /***************************************************************************
+   **
+   ** Graph of the non-shadow links on name-order indices. The edge keys are
+   ** left in keys if it is given.
+   */
+
+  private static IntGraph buildGraph(List<NetLink> links, NodeNameIndex index, LongHashSet keys) {
+    int[] srcs = new int[links.size()];
+    int[] trgs = new int[links.size()];
+    int count = 0;
+    for (NetLink link : links) {
+      if (link.isShadow()) {
+        continue;
+      }
+      srcs[count] = index.getSortedIndex(link.getSrcNode());
+      trgs[count] = index.getSortedIndex(link.getTrgNode());
+      if (keys != null) {
+        keys.add(LongHashSet.edgeKey(srcs[count], trgs[count]));
+      }
+      count++;
+    }
+    return (new IntGraph(index.getNodes().size(), srcs, trgs, count));
+  }
+}
@@ -0,0 +1,200 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.Arrays;
+
+/****************************************************************************
+ **
+ ** Undirected graph on dense int node ids, stored in compressed sparse row
+ ** form: the neighbors of node n are neighbors_[offsets_[n]] up to (but not
+ ** including) neighbors_[offsets_[n + 1]]. Each row is sorted and free of
+ ** duplicates, and an edge A-B appears in the rows of both A and B (a
+ ** feedback edge A-A appears once). Not changed after construction.
+ */
+
+public class IntGraph {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final int numNodes_;
+  private final int numEdges_;
+  private final int[] offsets_;
+  private final int[] neighbors_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. The first numEdges entries of srcs and trgs are the edge
+   ** endpoints; direction is ignored and repeated edges are dropped.
+   */
+
+  public IntGraph(int numNodes, int[] srcs, int[] trgs, int numEdges) {
+
+    int[] offsets = new int[numNodes + 1];
+    for (int i = 0; i < numEdges; i++) {
+      offsets[srcs[i] + 1]++;
+      if (srcs[i] != trgs[i]) {
+        offsets[trgs[i] + 1]++;
+      }
+    }
+    for (int i = 0; i < numNodes; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+
+    int[] fill = Arrays.copyOf(offsets, numNodes);
+    int[] neighbors = new int[offsets[numNodes]];
+    for (int i = 0; i < numEdges; i++) {
+      int src = srcs[i], trg = trgs[i];
+      neighbors[fill[src]++] = trg;
+      if (src != trg) {
+        neighbors[fill[trg]++] = src;
+      }
+    }
+
+    //
+    // Sort each row and squeeze out repeats, compacting the rows as we go:
+    //
+
+    int write = 0;
+    int edges = 0;
+    int rowStart = 0;
+    for (int n = 0; n < numNodes; n++) {
+      int rowEnd = offsets[n + 1];
+      Arrays.sort(neighbors, rowStart, rowEnd);
+      offsets[n] = write;
+      int last = -1;
+      for (int i = rowStart; i < rowEnd; i++) {
+        int nbr = neighbors[i];
+        if (nbr != last) {
+          neighbors[write++] = nbr;
+          last = nbr;
+          if (nbr >= n) {
+            edges++;
+          }
+        }
+      }
+      rowStart = rowEnd;
+    }
+    offsets[numNodes] = write;
+
+    numNodes_ = numNodes;
+    numEdges_ = edges;
+    offsets_ = offsets;
+    neighbors_ = (write == neighbors.length) ? neighbors : Arrays.copyOf(neighbors, write);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Number of nodes
+   */
+
+  public int getNodeCount() {
+    return (numNodes_);
+  }
+
+  /***************************************************************************
+   **
+   ** Number of distinct undirected edges
+   */
+
+  public int getEdgeCount() {
+    return (numEdges_);
+  }
+
+  /***************************************************************************
+   **
+   ** Number of distinct neighbors
+   */
+
+  public int getDegree(int node) {
+    return (offsets_[node + 1] - offsets_[node]);
+  }
+
+  /***************************************************************************
+   **
+   ** Start of the node's row
+   */
+
+  public int getRowStart(int node) {
+    return (offsets_[node]);
+  }
+
+  /***************************************************************************
+   **
+   ** End (exclusive) of the node's row
+   */
+
+  public int getRowEnd(int node) {
+    return (offsets_[node + 1]);
+  }
+
+  /***************************************************************************
+   **
+   ** Neighbor at a row position
+   */
+
+  public int getNeighbor(int pos) {
+    return (neighbors_[pos]);
+  }
+
+  /***************************************************************************
+   **
+   ** Total length of the rows; each row position is in [0, this)
+   */
+
+  public int getPositionCount() {
+    return (neighbors_.length);
+  }
+
+  /***************************************************************************
+   **
+   ** Row position of nodeB in the row of nodeA, or -1 if they share no edge
+   */
+
+  public int findNeighbor(int nodeA, int nodeB) {
+    int pos = Arrays.binarySearch(neighbors_, offsets_[nodeA], offsets_[nodeA + 1], nodeB);
+    return ((pos >= 0) ? pos : -1);
+  }
+
+  /***************************************************************************
+   **
+   ** Answer if the two nodes share an edge
+   */
+
+  public boolean hasEdge(int nodeA, int nodeB) {
+    return (findNeighbor(nodeA, nodeB) != -1);
+  }
+}
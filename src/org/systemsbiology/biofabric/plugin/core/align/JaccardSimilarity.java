@@ -24,15 +24,15 @@ package org.systemsbiology.biofabric.plugin.core.align;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.systemsbiology.biofabric.api.io.BuildExtractor;
-import org.systemsbiology.biofabric.api.model.NetLink;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import org.systemsbiology.biofabric.api.model.NetNode;
 import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
 import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
-import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
+import org.systemsbiology.biofabric.api.worker.LoopReporter;
 
 /***************************************************************************
  **
@@ -41,6 +41,31 @@ import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
 public class JaccardSimilarity {
   
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // Number of MinHash functions meaning exact Jaccard, with no approximation
+  //
+  
+  public static final int EXACT = 0;
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // G1 nodes per parallel scoring task. This is fixed, not taken from the pool
+  // size, so the partial sums (and so the total) are the same on any machine.
+  //
+  
+  private static final int SCORE_CHUNK_ = 1 << 10;
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // PRIVATE INSTANCE MEMBERS
@@ -51,26 +76,35 @@ public class JaccardSimilarity {
   // These are from original untouched graphs and alignments
   //
   
-  private ArrayList<NetLink> linksSmall_, linksLarge_;
-  private HashSet<NetNode> lonersSmall_, lonersLarge_;
   private Map<NetNode, NetNode> mapG1toG2_, perfectG1toG2_;
   private Map<NetNode, NetNode> invMainG2toG1_, invPerfectG2toG1_;
   
-  private Map<NetNode, Set<NetNode>> nodeToNeighSmall_, nodeToNeighLarge_;
-  private Map<String, NetNode> nameToSmall_;
+  //
+  // Neighbors as sorted int rows, for Jaccard by merge walk:
+  //
+  
+  private IntGraph graphSmall_, graphLarge_;
+  private Map<NetNode, Integer> nodeToIntSmall_, nodeToIntLarge_;
+  
+  //
+  // MinHash signatures of the rows, if JS is approximated (else null):
+  //
+  
+  private MinHashSignatures sigsSmall_, sigsLarge_;
+  private NodeNameIndex nameToSmall_;
   
   //
-  // These are from the processed, merged alignment - None are used
+  // JS of each G1 node, in name order, filled in by the last scoring pass.
+  // JS node groups read their verdicts from it. Every merged node with a G1
+  // side is mapped to its G1 index at construction, and the map is only read
+  // after that, so the values can be read from several threads.
   //
   
-  private Set<NetLink> allLinksMain_, allLinksPerfect_;
-  private Set<NetNode> loneNodeIDsMain_, loneNodeIDsPerfect_;
-  private NetworkAlignment.NodeColorMap colorMapMain_, colorMapPerfect_;
-  private Map<NetNode, Set<NetNode>> nodeToNeighborsMain_, nodeToNeighborsPerfect_;
-  private Map<NetNode, Set<NetLink>> nodeToLinksMain_, nodeToLinksPerfect_;
+  private double[] nodeJS_;
+  private Map<NetNode, Integer> mergedToSmallIndex_;
   
+  private AlignmentGraphContext context_;
   private BTProgressMonitor monitor_;
-  private final Double jaccSimThreshold_;
   
   ////////////////////////////////////////////////////////////////////////////
   //
@@ -78,83 +112,96 @@ public class JaccardSimilarity {
   //
   ////////////////////////////////////////////////////////////////////////////
   
-  JaccardSimilarity(Set<NetLink> allLinksMain, Set<NetNode> loneNodeIDsMain,
-                    NetworkAlignment.NodeColorMap colorMapMain,
-                    Set<NetLink> allLinksPerfect, Set<NetNode> loneNodeIDsPerfect,
-                    NetworkAlignment.NodeColorMap colorMapPerfect,
-                    Map<NetNode, Set<NetNode>> nodeToNeighborsMain,
-                    Map<NetNode, Set<NetLink>> nodeToLinksMain,
-                    Map<NetNode, Set<NetNode>> nodeToNeighborsPerfect,
-                    Map<NetNode, Set<NetLink>> nodeToLinksPerfect,
-                    ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                    ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
+  JaccardSimilarity(AlignmentGraphContext context, NodeNameIndex indexSmall,
                     Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
-                    final Double jaccSimThreshold,
                     BTProgressMonitor monitor) throws AsynchExitRequestException {
+    this(context, indexSmall, mapG1toG2, perfectG1toG2, EXACT, monitor);
+  }
+  
+  /***************************************************************************
+   **
+   ** With numHashes above EXACT, each JS value is estimated from MinHash
+   ** signatures of that many hash functions, for networks too big for exact
+   ** set comparison. See MinHashSignatures for the error bound.
+   */
+  
+  JaccardSimilarity(AlignmentGraphContext context, NodeNameIndex indexSmall,
+                    Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
+                    int numHashes, BTProgressMonitor monitor) throws AsynchExitRequestException {
     
-    this.allLinksMain_ = allLinksMain;
-    this.loneNodeIDsMain_ = loneNodeIDsMain;
-    this.colorMapMain_ = colorMapMain;
-    this.nodeToNeighborsMain_ = nodeToNeighborsMain;
-    this.nodeToLinksMain_ = nodeToLinksMain;
-    this.allLinksPerfect_ = allLinksPerfect;
-    this.loneNodeIDsPerfect_ = loneNodeIDsPerfect;
-    this.colorMapPerfect_ = colorMapPerfect;
-    this.nodeToNeighborsPerfect_ = nodeToNeighborsPerfect;
-    this.nodeToLinksPerfect_ = nodeToLinksPerfect;
+    this.context_ = context;
     this.monitor_ = monitor;
-    this.jaccSimThreshold_ = jaccSimThreshold;
-  
-    this.linksSmall_ = linksSmall;
-    this.lonersSmall_ = lonersSmall;
-    this.linksLarge_ = linksLarge;
-    this.lonersLarge_ = lonersLarge;
+    this.nameToSmall_ = indexSmall;
     this.mapG1toG2_ = mapG1toG2;
     this.perfectG1toG2_ = perfectG1toG2;
     
     generateStructures();
+    if (numHashes != EXACT) {
+      sigsSmall_ = new MinHashSignatures(graphSmall_, numHashes);
+      sigsLarge_ = new MinHashSignatures(graphLarge_, numHashes);
+    }
     return;
   }
   
   private void generateStructures() throws AsynchExitRequestException {
-    nodeToNeighSmall_ = new HashMap<NetNode, Set<NetNode>>();
-    nodeToNeighLarge_ = new HashMap<NetNode, Set<NetNode>>();
-    BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
-    bex.createNeighborLinkMap(linksSmall_, lonersSmall_, nodeToNeighSmall_, new HashMap<NetNode, Set<NetLink>>(), monitor_);
-    bex.createNeighborLinkMap(linksLarge_, lonersLarge_, nodeToNeighLarge_, new HashMap<NetNode, Set<NetLink>>(), monitor_);
+    nodeToIntSmall_ = new HashMap<NetNode, Integer>();
+    graphSmall_ = buildIntGraph(context_.getNeighborsSmall(monitor_), nodeToIntSmall_);
+    nodeToIntLarge_ = new HashMap<NetNode, Integer>();
+    graphLarge_ = buildIntGraph(context_.getNeighborsLarge(monitor_), nodeToIntLarge_);
     
+    mergedToSmallIndex_ = indexMergedNodes(context_.getNeighborsMain(monitor_).keySet());
     invMainG2toG1_ = new HashMap<NetNode, NetNode>();
     invPerfectG2toG1_ = new HashMap<NetNode, NetNode>();
     makeInverseMap(mapG1toG2_, invMainG2toG1_);
     makeInverseMap(perfectG1toG2_, invPerfectG2toG1_);
-    
-    nameToSmall_ = new HashMap<String, NetNode>();
-    Set<NetNode> smallNodes = PluginSupportFactory.getBuildExtractor().extractNodes(linksSmall_, lonersSmall_, monitor_);
-    for (NetNode smallNode : smallNodes) {
-      nameToSmall_.put(smallNode.getName(), smallNode);
-    }
     return;
   }
   
   /***************************************************************************
    **
    ** @param nodeV12 must be an merged node, either A:: or A::B
-   ** Checks if the JS value of the node is above set threshold
+   ** Checks if the JS value of the node is at or above the threshold
    */
   
-  boolean isCorrectJS(NetNode nodeV12) {
-    String smallName = StringUtilities.separateNodeOne(nodeV12.getName());
-    
-    NetNode smallNode = nameToSmall_.get(smallName);
-    if (smallNode == null) {
+  boolean isCorrectJS(NetNode nodeV12, double jaccSimThreshold) {
+    double jsVal = getNodeValue(nodeV12);
+    boolean isCorrect = Double.compare(jsVal, jaccSimThreshold) >= 0;
+    return (isCorrect);
+  }
+  
+  /***************************************************************************
+   **
+   ** @param nodeV12 must be an merged node, either A:: or A::B
+   ** The JS value of the node, from the last scoring pass
+   */
+  
+  double getNodeValue(NetNode nodeV12) {
+    if (nodeJS_ == null) {
+      throw new IllegalStateException("JS values not computed");
+    }
+    Integer smallIndex = mergedToSmallIndex_.get(nodeV12);
+    if (smallIndex == null) {
       throw new IllegalStateException("Small node for " + nodeV12.getName() + " not found for Jaccard Similarity");
     }
-    double jsVal = jaccSimDecision(smallNode);
-    if (jaccSimThreshold_ == null) {
-      throw new IllegalStateException("JS Threshold is null"); // should never happen
+    return (nodeJS_[smallIndex.intValue()]);
+  }
+  
+  /***************************************************************************
+   **
+   ** Map each merged node that has a G1 side (A:: or A::B) to the G1 node's
+   ** index in name order
+   */
+  
+  private Map<NetNode, Integer> indexMergedNodes(Set<NetNode> mergedNodes) {
+    Map<NetNode, Integer> retval = new HashMap<NetNode, Integer>();
+    for (NetNode nodeV12 : mergedNodes) {
+      String smallName = StringUtilities.separateNodeOne(nodeV12.getName());
+      NetNode smallNode = (smallName.isEmpty()) ? null : nameToSmall_.getNode(smallName);
+      if (smallNode != null) {
+        retval.put(nodeV12, Integer.valueOf(nameToSmall_.getSortedIndex(smallNode)));
+      }
     }
-    boolean isCorrect = Double.compare(jsVal, jaccSimThreshold_) >= 0;
-    return (isCorrect);
+    return (retval);
   }
   
   /****************************************************************************
@@ -165,13 +212,71 @@ public class JaccardSimilarity {
    */
   
   double calcScore() throws AsynchExitRequestException {
+    return (calcScore(null));
+  }
+  
+  /****************************************************************************
+   **
+   ** Jaccard Similarity Measure, on a ForkJoin pool if one is given. The G1
+   ** nodes are taken in name order and cut into fixed chunks, each summed by
+   ** its own task. The partial sums are added in chunk order, so the result
+   ** is the same bits with or without a pool, and on any pool. Progress goes
+   ** to the monitor as each chunk is joined; a cancel drops the chunks not
+   ** yet run.
+   */
+  
+  double calcScore(ForkJoinPool pool) throws AsynchExitRequestException {
+    return (calcScore(pool, 0.0, 1.0));
+  }
+  
+  /****************************************************************************
+   **
+   ** As above, reporting over the given part of the progress bar
+   */
+  
+  double calcScore(ForkJoinPool pool, double startFrac, double endFrac) throws AsynchExitRequestException {
+    double totJ = sumChunks(pool, startFrac, endFrac);
+    double measure = totJ / nodeJS_.length;
+    return (measure);
+  }
+  
+  /****************************************************************************
+   **
+   ** Compute the JS of every G1 node into nodeJS_, returning the sum
+   */
+  
+  private double sumChunks(ForkJoinPool pool, double startFrac, double endFrac) throws AsynchExitRequestException {
+    List<NetNode> smallNodes = nameToSmall_.getSortedNodes();
+    double[] values = new double[smallNodes.size()];
+    List<ScoreTask> tasks = new ArrayList<ScoreTask>();
+    for (int start = 0; start < smallNodes.size(); start += SCORE_CHUNK_) {
+      tasks.add(new ScoreTask(smallNodes, values, start, Math.min(start + SCORE_CHUNK_, smallNodes.size())));
+    }
+    if (pool != null) {
+      for (ScoreTask task : tasks) {
+        pool.execute(task);
+      }
+    }
+    
     double totJ = 0.0;
-    Set<NetNode> smallNodes = PluginSupportFactory.getBuildExtractor().extractNodes(linksSmall_, lonersSmall_, monitor_);
-    for (NetNode node : smallNodes) {
-      totJ += jaccSimDecision(node);
+    LoopReporter lr = new LoopReporter(tasks.size(), 20, monitor_, startFrac, endFrac, "progress.jaccardSimilarity");
+    try {
+      for (ScoreTask task : tasks) {
+        if (Thread.currentThread().isInterrupted()) { // run as a task that has been cancelled
+          throw (new AsynchExitRequestException());
+        }
+        totJ += ((pool == null) ? task.invoke() : task.join()).doubleValue();
+        lr.report();
+      }
+      lr.finish();
+    } catch (AsynchExitRequestException aere) {
+      for (ScoreTask task : tasks) {
+        task.cancel(false);
+      }
+      throw (aere);
     }
-    double measure = totJ / smallNodes.size();
-    return (measure);
+    nodeJS_ = values;
+    return (totJ);
   }
   
   /***************************************************************************
@@ -208,35 +313,109 @@ public class JaccardSimilarity {
    */
   
   private double jaccSimValue(NetNode nodeA, NetNode nodeB, NetworkAlignment.GraphType type) {
-    int lenAdjust = 0;
-  
-    HashSet<NetNode> scratchA, scratchB;
     if (type == NetworkAlignment.GraphType.SMALL) {
-      scratchA = new HashSet<NetNode>(nodeToNeighSmall_.get(nodeA));
-      scratchB = new HashSet<NetNode>(nodeToNeighSmall_.get(nodeB));
+      int intA = nodeToIntSmall_.get(nodeA).intValue(), intB = nodeToIntSmall_.get(nodeB).intValue();
+      return ((sigsSmall_ == null) ? jaccSimValue(graphSmall_, intA, intB) : jaccSimEstimate(graphSmall_, sigsSmall_, intA, intB));
     } else if (type == NetworkAlignment.GraphType.LARGE) {
-      scratchA = new HashSet<NetNode>(nodeToNeighLarge_.get(nodeA));
-      scratchB = new HashSet<NetNode>(nodeToNeighLarge_.get(nodeB));
+      int intA = nodeToIntLarge_.get(nodeA).intValue(), intB = nodeToIntLarge_.get(nodeB).intValue();
+      return ((sigsLarge_ == null) ? jaccSimValue(graphLarge_, intA, intB) : jaccSimEstimate(graphLarge_, sigsLarge_, intA, intB));
     } else {
       throw (new IllegalArgumentException("Graph type not allowed"));
     }
-    
-    if (scratchA.contains(nodeB)) {
-      scratchA.remove(nodeB);
-      scratchB.remove(nodeA);
+  }
+  
+  /***************************************************************************
+   **
+   ** Jaccard of two rows with no allocation. The intersection is counted by a
+   ** merge walk of the sorted rows, and |A U B| = |A| + |B| - |A n B|. If the
+   ** nodes are adjacent, each is left out of the other's set and one is added
+   ** back to both sizes (the lenAdjust of the set version). 0/0, for two
+   ** singletons, is 1.0.
+   */
+  
+  static double jaccSimValue(IntGraph graph, int nodeA, int nodeB) {
+    if (nodeA == nodeB) { // same set, however adjusted
+      return (1.0);
+    }
+    int lenAdjust = 0;
+    int sizeA = graph.getDegree(nodeA);
+    int sizeB = graph.getDegree(nodeB);
+    int skipA = -1, skipB = -1;
+    if (graph.hasEdge(nodeA, nodeB)) {
+      sizeA--;
+      sizeB--;
+      skipA = nodeA;
+      skipB = nodeB;
       lenAdjust = 1;
     }
-    HashSet<NetNode> union = new HashSet<NetNode>(), intersect = new HashSet<NetNode>();
-    union(scratchA, scratchB, union);
-    intersection(scratchA, scratchB, intersect);
     
-    int iSize = intersect.size() + lenAdjust;
-    int uSize = union.size() + lenAdjust;
-    Double jaccard = (double) (iSize) / (double) uSize;
-    if (jaccard.isNaN()) {  // case of 0/0 for two singletons
-      jaccard = 1.0;
+    int common = 0;
+    int posA = graph.getRowStart(nodeA), endA = graph.getRowEnd(nodeA);
+    int posB = graph.getRowStart(nodeB), endB = graph.getRowEnd(nodeB);
+    while ((posA < endA) && (posB < endB)) {
+      int nbrA = graph.getNeighbor(posA);
+      int nbrB = graph.getNeighbor(posB);
+      if (nbrA < nbrB) {
+        posA++;
+      } else if (nbrA > nbrB) {
+        posB++;
+      } else {
+        if ((nbrA != skipA) && (nbrA != skipB)) {
+          common++;
+        }
+        posA++;
+        posB++;
+      }
+    }
+    
+    int iSize = common + lenAdjust;
+    int uSize = sizeA + sizeB - common + lenAdjust;
+    if (uSize == 0) {  // case of 0/0 for two singletons
+      return (1.0);
     }
-    return (jaccard);
+    return ((double) iSize / (double) uSize);
+  }
+  
+  /***************************************************************************
+   **
+   ** Jaccard of two rows from their MinHash signatures. The signatures give the
+   ** index of the full neighbor sets; with the exact set sizes, that gives an
+   ** intersection size, which is then adjusted for adjacent nodes just as in
+   ** jaccSimValue(). Empty sets are handled exactly.
+   */
+  
+  static double jaccSimEstimate(IntGraph graph, MinHashSignatures sigs, int nodeA, int nodeB) {
+    if (nodeA == nodeB) {
+      return (1.0);
+    }
+    int sizeA = graph.getDegree(nodeA);
+    int sizeB = graph.getDegree(nodeB);
+    if ((sizeA == 0) && (sizeB == 0)) {  // case of 0/0 for two singletons
+      return (1.0);
+    } else if ((sizeA == 0) || (sizeB == 0)) {
+      return (0.0);
+    }
+    double index = sigs.estimate(nodeA, nodeB);
+    if (!graph.hasEdge(nodeA, nodeB)) {
+      return (index);
+    }
+    
+    //
+    // Adjacent: each node leaves the other's set (taking itself out of the
+    // intersection, if it has a feedback edge), and one is added back:
+    //
+    
+    double common = index * (sizeA + sizeB) / (1.0 + index);
+    if (graph.hasEdge(nodeA, nodeA)) {
+      common -= 1.0;
+    }
+    if (graph.hasEdge(nodeB, nodeB)) {
+      common -= 1.0;
+    }
+    sizeA--;
+    sizeB--;
+    common = Math.max(0.0, Math.min(common, Math.min(sizeA, sizeB)));
+    return ((common + 1.0) / (sizeA + sizeB - common + 1.0));
   }
   
   /***************************************************************************
@@ -272,26 +451,74 @@ public class JaccardSimilarity {
   
   /***************************************************************************
    **
-   ** Set intersection helper
+   ** Neighbor map as an IntGraph, numbering the nodes into nodeToInt as they
+   ** are met. Rows come out sorted, which the merge walk needs.
    */
   
-  private <T> void intersection(Set<T> one, Set<T> two, Set<T> result) {
-    result.clear();
-    result.addAll(one);
-    result.retainAll(two);
-    return;
+  private static IntGraph buildIntGraph(Map<NetNode, Set<NetNode>> nodeToNeighbors, Map<NetNode, Integer> nodeToInt) {
+    int numPairs = 0;
+    for (Set<NetNode> neighbors : nodeToNeighbors.values()) {
+      numPairs += neighbors.size();
+    }
+    int[] srcs = new int[numPairs];
+    int[] trgs = new int[numPairs];
+    int count = 0;
+    for (Map.Entry<NetNode, Set<NetNode>> entry : nodeToNeighbors.entrySet()) {
+      int src = intFor(entry.getKey(), nodeToInt);
+      for (NetNode neighbor : entry.getValue()) {
+        srcs[count] = src;
+        trgs[count] = intFor(neighbor, nodeToInt);
+        count++;
+      }
+    }
+    return (new IntGraph(nodeToInt.size(), srcs, trgs, count));
   }
   
   /***************************************************************************
    **
-   ** Set union helper
+   ** Int for a node, given the next one if it has none yet
    */
   
-  private <T> void union(Set<T> one, Set<T> two, Set<T> result) {
-    result.clear();
-    result.addAll(one);
-    result.addAll(two);
-    return;
+  private static int intFor(NetNode node, Map<NetNode, Integer> nodeToInt) {
+    Integer retval = nodeToInt.get(node);
+    if (retval == null) {
+      retval = Integer.valueOf(nodeToInt.size());
+      nodeToInt.put(node, retval);
+    }
+    return (retval.intValue());
+  }
+  
+  /***************************************************************************
+   **
+   ** JS values of a range of G1 nodes, written into their slots and summed.
+   ** Only reads the maps and graphs, which are not changed after construction.
+   */
+  
+  private class ScoreTask extends RecursiveTask<Double> {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final List<NetNode> nodes_;
+    private final double[] values_;
+    private final int start_;
+    private final int end_;
+    
+    ScoreTask(List<NetNode> nodes, double[] values, int start, int end) {
+      nodes_ = nodes;
+      values_ = values;
+      start_ = start;
+      end_ = end;
+    }
+    
+    @Override
+    protected Double compute() {
+      double sum = 0.0;
+      for (int i = start_; i < end_; i++) {
+        values_[i] = jaccSimDecision(nodes_.get(i));
+        sum += values_[i];
+      }
+      return (Double.valueOf(sum));
+    }
   }
   
   /***************************************************************************
@@ -317,18 +544,21 @@ public class JaccardSimilarity {
      */
 
     static String separateNodeOne(String in) {
-      if (! in.contains("::")) {
+      int split = in.indexOf("::");
+      if (split < 0) {
         throw (new IllegalArgumentException("Node name needs ::"));
       }
-      String ret = (in.split("::"))[0];
+      String ret = in.substring(0, split);
       return (ret);
     }
 
     static String separateNodeTwo(String in) {
-      if (! in.contains("::")) {
+      int split = in.indexOf("::");
+      if (split < 0) {
         throw (new IllegalArgumentException("Node name needs ::"));
       }
-      String ret = (in.split("::"))[1];
+      int end = in.indexOf("::", split + 2);
+      String ret = in.substring(split + 2, (end < 0) ? in.length() : end);
       return (ret);
     }
 
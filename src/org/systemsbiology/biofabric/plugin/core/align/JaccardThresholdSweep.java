@@ -0,0 +1,236 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.systemsbiology.biofabric.api.model.NetNode;
+
+/****************************************************************************
+ **
+ ** The JACCARD_SIMILARITY node groups for every threshold at once. The JS of
+ ** each merged node is found once and sorted, both overall and within its
+ ** plain node group. A threshold then only needs a binary search per group:
+ ** the nodes at or above it are the 'correct' (/1) part of the group, the
+ ** rest (and nodes with no G1 match in the perfect alignment) the /0 part.
+ ** This gives the count of correct nodes in O(log n) and the node group
+ ** ratios, as NodeGroupMap would compute them, in O(groups * log n). The NGS
+ ** of those groups is scored against the perfect alignment's groups, where
+ ** every purple and blue node is correct.
+ */
+
+public class JaccardThresholdSweep {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final int numNodes_;
+  private final double[] allValues_;
+  private final String[] groupTags_;
+  private final double[][] groupValues_;
+  private final int[] groupNeverCorrect_;
+  private final Map<String, Double> perfectRatios_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. The group maps must be PerfectNGMode.NONE maps of the merged
+   ** nodes of the main and perfect alignments; the JS values must have been
+   ** computed.
+   */
+
+  JaccardThresholdSweep(NodeGroupMap plainGroups, NodeGroupMap plainGroupsPerfect, Collection<NetNode> mergedNodes,
+                        Map<NetNode, Boolean> mergedToCorrectNC, JaccardSimilarity funcJS) {
+
+    Map<String, List<NetNode>> byGroup = new HashMap<String, List<NetNode>>();
+    for (NetNode node : mergedNodes) {
+      String tag = plainGroups.getKey(Integer.valueOf(plainGroups.getIndex(node)));
+      List<NetNode> members = byGroup.get(tag);
+      if (members == null) {
+        members = new ArrayList<NetNode>();
+        byGroup.put(tag, members);
+      }
+      members.add(node);
+    }
+
+    numNodes_ = mergedNodes.size();
+    groupTags_ = new String[byGroup.size()];
+    groupValues_ = new double[byGroup.size()][];
+    groupNeverCorrect_ = new int[byGroup.size()];
+    double[] allValues = new double[numNodes_];
+    int numAll = 0;
+    int group = 0;
+    for (Map.Entry<String, List<NetNode>> entry : byGroup.entrySet()) {
+      double[] values = new double[entry.getValue().size()];
+      int numValues = 0;
+      for (NetNode node : entry.getValue()) {
+        if (mergedToCorrectNC.get(node) == null) { // always in the /0 group
+          groupNeverCorrect_[group]++;
+        } else {
+          values[numValues++] = funcJS.getNodeValue(node);
+        }
+      }
+      values = Arrays.copyOf(values, numValues);
+      Arrays.sort(values);
+      System.arraycopy(values, 0, allValues, numAll, numValues);
+      numAll += numValues;
+      groupTags_[group] = entry.getKey();
+      groupValues_[group] = values;
+      group++;
+    }
+    allValues_ = Arrays.copyOf(allValues, numAll);
+    Arrays.sort(allValues_);
+
+    perfectRatios_ = new HashMap<String, Double>();
+    for (Map.Entry<String, Double> entry : plainGroupsPerfect.getNodeGroupRatios().entrySet()) {
+      String tag = entry.getKey();
+      String open = tag.substring(0, tag.length() - 1); // drop the ")"
+      boolean red = tag.startsWith("(" + NetworkAlignment.NodeColor.RED.tag);
+      perfectRatios_.put(open + ((red) ? "/0)" : "/1)"), entry.getValue());
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Number of merged nodes
+   */
+
+  public int getNumNodes() {
+    return (numNodes_);
+  }
+
+  /***************************************************************************
+   **
+   ** Number of nodes JS calls correct at the threshold
+   */
+
+  public int countCorrect(double threshold) {
+    return (allValues_.length - firstAtOrAbove(allValues_, threshold));
+  }
+
+  /***************************************************************************
+   **
+   ** Number of nodes JS calls correct at each threshold
+   */
+
+  public int[] countCorrect(double[] thresholds) {
+    int[] retval = new int[thresholds.length];
+    for (int i = 0; i < thresholds.length; i++) {
+      retval[i] = countCorrect(thresholds[i]);
+    }
+    return (retval);
+  }
+
+  /***************************************************************************
+   **
+   ** Node group size to total #nodes for each of the perfect NG groups, as
+   ** NodeGroupMap.getNodeGroupRatios() gives for a JS-mode map built at the
+   ** threshold
+   */
+
+  public Map<String, Double> getNodeGroupRatios(double threshold) {
+    Map<String, Double> retval = new HashMap<String, Double>();
+    for (String tag : NodeGroupMap.nodeGroupOrderPerfectNG) {
+      retval.put(tag, Double.valueOf(0.0));
+    }
+    double size = numNodes_;
+    for (int i = 0; i < groupTags_.length; i++) {
+      double[] values = groupValues_[i];
+      int correct = values.length - firstAtOrAbove(values, threshold);
+      int incorrect = values.length - correct + groupNeverCorrect_[i];
+      String open = groupTags_[i].substring(0, groupTags_[i].length() - 1); // drop the ")"
+      putRatio(retval, open + "/1)", correct, size);
+      putRatio(retval, open + "/0)", incorrect, size);
+    }
+    return (retval);
+  }
+
+  /***************************************************************************
+   **
+   ** Node group similarity of the JS node groups at each threshold
+   */
+
+  public double[] getNGS(double[] thresholds) {
+    NetworkAlignmentScorer.GroupSimilarityMeasure gsm = new NetworkAlignmentScorer.GroupSimilarityMeasure();
+    double[] retval = new double[thresholds.length];
+    for (int i = 0; i < thresholds.length; i++) {
+      retval[i] = gsm.calcNGS(getNodeGroupRatios(thresholds[i]), perfectRatios_, NodeGroupMap.nodeGroupOrderPerfectNG);
+    }
+    return (retval);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Add a group ratio. Groups that can never be filled (e.g. red nodes
+   ** called correct) are not in the group order, and are left out when empty.
+   */
+
+  private static void putRatio(Map<String, Double> ratios, String tag, int count, double size) {
+    if ((count > 0) || ratios.containsKey(tag)) {
+      ratios.put(tag, Double.valueOf(count / size));
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Index of the first sorted value that passes the threshold (the same
+   ** Double.compare() >= 0 test isCorrectJS makes), or the length if none do
+   */
+
+  private static int firstAtOrAbove(double[] sorted, double threshold) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (Double.compare(sorted[mid], threshold) >= 0) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return (lo);
+  }
+}
@@ -0,0 +1,192 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+/****************************************************************************
+ **
+ ** Open-addressing hash set of primitive longs. Used for undirected edge keys
+ ** (two int node indices packed into a long), so edge membership tests need
+ ** no boxing and no per-edge objects.
+ */
+
+public class LongHashSet {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  //
+  // Marks an empty slot. The key itself is tracked separately.
+  //
+
+  private static final long FREE_ = 0L;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private long[] keys_;
+  private int mask_;
+  private int size_;
+  private boolean hasFree_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor; sized to hold the expected count without growing
+   */
+
+  public LongHashSet(int expected) {
+    int cap = 16;
+    while (cap < (expected * 2)) {
+      cap <<= 1;
+    }
+    keys_ = new long[cap];
+    mask_ = cap - 1;
+    size_ = 0;
+    hasFree_ = false;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Add a key. Returns true if it was not already present.
+   */
+
+  public boolean add(long key) {
+    if (key == FREE_) {
+      if (hasFree_) {
+        return (false);
+      }
+      hasFree_ = true;
+      size_++;
+      return (true);
+    }
+    int slot = mix(key) & mask_;
+    while (keys_[slot] != FREE_) {
+      if (keys_[slot] == key) {
+        return (false);
+      }
+      slot = (slot + 1) & mask_;
+    }
+    keys_[slot] = key;
+    size_++;
+    if ((size_ * 2) > keys_.length) {
+      grow();
+    }
+    return (true);
+  }
+
+  /***************************************************************************
+   **
+   ** Answer if the key is present
+   */
+
+  public boolean contains(long key) {
+    if (key == FREE_) {
+      return (hasFree_);
+    }
+    int slot = mix(key) & mask_;
+    while (keys_[slot] != FREE_) {
+      if (keys_[slot] == key) {
+        return (true);
+      }
+      slot = (slot + 1) & mask_;
+    }
+    return (false);
+  }
+
+  /***************************************************************************
+   **
+   ** Number of keys
+   */
+
+  public int size() {
+    return (size_);
+  }
+
+  /***************************************************************************
+   **
+   ** Canonical key for an undirected edge between two non-negative indices
+   */
+
+  public static long edgeKey(int nodeA, int nodeB) {
+    int lo = Math.min(nodeA, nodeB);
+    int hi = Math.max(nodeA, nodeB);
+    return ((((long)lo) << 32) | (hi & 0xFFFFFFFFL));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Double the table
+   */
+
+  private void grow() {
+    long[] old = keys_;
+    keys_ = new long[old.length * 2];
+    mask_ = keys_.length - 1;
+    for (int i = 0; i < old.length; i++) {
+      long key = old[i];
+      if (key != FREE_) {
+        int slot = mix(key) & mask_;
+        while (keys_[slot] != FREE_) {
+          slot = (slot + 1) & mask_;
+        }
+        keys_[slot] = key;
+      }
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Spread the key bits (MurmurHash3 finalizer)
+   */
+
+  private static int mix(long key) {
+    long h = key;
+    h ^= (h >>> 33);
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= (h >>> 33);
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= (h >>> 33);
+    return ((int)h);
+  }
+}
@@ -25,13 +25,16 @@ package org.systemsbiology.biofabric.plugin.core.align;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import org.systemsbiology.biofabric.api.model.NetLink;
 import org.systemsbiology.biofabric.api.model.NetNode;
 import org.systemsbiology.biofabric.api.util.NID;
@@ -39,7 +42,6 @@ import org.systemsbiology.biofabric.api.util.UniqueLabeller;
 import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
 import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
 import org.systemsbiology.biofabric.api.worker.LoopReporter;
-import org.systemsbiology.biofabric.io.BuildExtractorImpl;
 import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
 /***************************************************************************
@@ -85,6 +87,30 @@ public class NetworkAlignment {
       this.index = index;
     }
     
+    /**************************************************************************
+     **
+     ** Type for a link relation tag. The tags are told apart by their
+     ** characters, so this is a few char tests instead of a string search.
+     */
+    
+    public static EdgeType forTag(String tag) {
+      EdgeType type = null;
+      if (tag.length() == 1) {
+        type = COVERED;
+      } else if (tag.length() == 3) {
+        char end1 = tag.charAt(0), graph = tag.charAt(1), end2 = tag.charAt(2);
+        if (graph == 'B') {
+          type = (end1 == 'b') ? FULL_ORPHAN_GRAPH1 : ((end2 == 'p') ? INDUCED_GRAPH1 : HALF_ORPHAN_GRAPH1);
+        } else if (graph == 'R') {
+          type = (end1 == 'r') ? FULL_UNALIGNED_GRAPH2 : ((end2 == 'p') ? INDUCED_GRAPH2 : HALF_UNALIGNED_GRAPH2);
+        }
+      }
+      if ((type == null) || !type.tag.equals(tag)) {
+        throw (new IllegalArgumentException("Unknown link group " + tag));
+      }
+      return (type);
+    }
+    
   }
   
   public static final EdgeType[] LINK_GROUPS = {
@@ -106,6 +132,43 @@ public class NetworkAlignment {
   
   public enum GraphType {SMALL, LARGE}
   
+  //
+  // SERIAL does the whole merge on the calling thread. PARALLEL numbers the
+  // two graphs, builds their edge sets and classifies the edges on a ForkJoin
+  // pool, giving the same merged network.
+  //
+  
+  public enum MergeMode {SERIAL, PARALLEL}
+  
+  //
+  // MATERIALIZED adds a shadow copy of every non-feedback link to the merged list
+  // as it is merged. VIRTUAL leaves them out: the merged list holds only the primary
+  // links, and addShadowLinks() makes the shadows once the layout needs them.
+  //
+  
+  public enum ShadowMode {MATERIALIZED, VIRTUAL}
+  
+  //
+  // Hops of context around the induced G1 edges in the ORPHAN view. One hop
+  // keeps every link touching an endpoint of those edges.
+  //
+  
+  public static final int DEFAULT_ORPHAN_HOPS = 1;
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // Smallest number of links (or nodes) handed to one merge task, and the
+  // most tasks a phase is cut into when running serially (one per progress step)
+  //
+  
+  private static final int MIN_MERGE_CHUNK_ = 1 << 12;
+  private static final int SERIAL_MERGE_CHUNKS_ = 20;
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // PRIVATE INSTANCE MEMBERS
@@ -122,17 +185,53 @@ public class NetworkAlignment {
   private ArrayList<NetLink> linksG2_;
   private HashSet<NetNode> lonersG2_;
   private NetworkAlignmentBuildData.ViewType outType_;
+  private ShadowMode shadowMode_;
+  private int orphanHops_;
   private UniqueLabeller idGen_;
   private BTProgressMonitor monitor_;
-  private final String TEMPORARY = "TEMP";
   
   //
-  // largeToMergedID only contains aligned nodes
+  // The merge runs on dense int ids. Each input graph numbers its own nodes
+  // (idsG1_, idsG2_); the merged network numbers its nodes purple (aligned) first,
+  // then blue, then red, so a node's color follows from its id. g1ToMerged_ and
+  // g2ToMerged_ take an input id to a merged id. NetNodes for the merged network
+  // are only made once, in mergedNodes_.
+  //
+  
+  private Map<NetNode, Integer> idsG1_, idsG2_;
+  private int[] g1ToMerged_, g2ToMerged_;
+  private ArrayList<NetNode> mergedNodes_;
+  private int numAligned_;
+  
+  //
+  // G1 and G2 edges, both on merged ids
+  //
+  
+  private IntGraph mergedG1_, mergedG2_;
+  
+  //
+  // ORPHAN view only: the merged ids at the ends of induced G1 edges, marked as the
+  // edges are classified. Tasks only ever set entries to true, and the joins make
+  // the marks visible to the merging thread.
+  //
+  
+  private boolean[] orphanSeeds_;
+  
+  //
+  // Incremental re-merge state, set up by the first remerge(). Every G1 and G2 edge
+  // has a slot: its row position (taken from its lower end) in mergedG1_, or the
+  // number of mergedG1_ positions plus its row position in mergedG2_. Those graphs
+  // stay on the merged ids of the full merge, reached through the orig* arrays.
+  // g1ToG2_ and g2ToG1_ hold the current alignment on input ids, and slotLink_ and
+  // linkSlot_ tie each slot to its link in the merged list (-1 for none).
   //
   
-  private Map<NetNode, NetNode> smallToMergedID_, largeToMergedID_;
-  private Map<NetNode, NetNode> mergedIDToSmall_;
-  private Map<NetNode, NetNode> smallToUnmergedID_, largeToUnmergedID_;
+  private int[] origG1ToMerged_, origG2ToMerged_;
+  private int[] origMergedToG1_, origMergedToG2_;
+  private int[] g1ToG2_, g2ToG1_;
+  private int numG1Slots_;
+  private int[] slotLink_;
+  private int[] linkSlot_;
   
   //
   // mergedToCorrect only has aligned nodes
@@ -142,6 +241,8 @@ public class NetworkAlignment {
   private Set<NetNode> mergedLoners_;
   private Map<NetNode, Boolean> mergedToCorrectNC_;
   private NodeColorMap nodeColorMap_;
+  private EdgeClassColumn edgeClasses_;
+  private MergedNodeSources mergedSources_;
   
   ////////////////////////////////////////////////////////////////////////////
   //
@@ -154,6 +255,7 @@ public class NetworkAlignment {
                           ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
                           ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
                           Map<NetNode, Boolean> mergedToCorrectNC, NodeColorMap nodeColorMap,
+                          EdgeClassColumn edgeClasses, MergedNodeSources mergedSources,
                           NetworkAlignmentBuildData.ViewType outType, UniqueLabeller idGen, BTProgressMonitor monitor) {
     
     this.mapG1toG2_ = mapG1toG2;
@@ -165,14 +267,28 @@ public class NetworkAlignment {
     this.outType_ = outType;
     this.idGen_ = idGen;
     this.monitor_ = monitor;
+    this.shadowMode_ = ShadowMode.MATERIALIZED;
+    this.orphanHops_ = DEFAULT_ORPHAN_HOPS;
     
     this.mergedLinks_ = mergedLinks;
     this.mergedLoners_ = mergedLoneNodeIDs;
     this.mergedToCorrectNC_ = mergedToCorrectNC;
     this.nodeColorMap_ = nodeColorMap;
+    this.edgeClasses_ = edgeClasses;
+    this.mergedSources_ = mergedSources;
+  }
+  
+  /****************************************************************************
+   **
+   ** Set the context radius of the ORPHAN view, in hops (at least one)
+   */
   
-    this.smallToUnmergedID_ = new HashMap<NetNode, NetNode>();
-    this.largeToUnmergedID_ = new HashMap<NetNode, NetNode>();
+  public void setOrphanHops(int hops) {
+    if (hops < 1) {
+      throw (new IllegalArgumentException());
+    }
+    orphanHops_ = hops;
+    return;
   }
   
   /****************************************************************************
@@ -181,59 +297,437 @@ public class NetworkAlignment {
    */
   
   public void mergeNetworks() throws AsynchExitRequestException {
+    mergeNetworks(MergeMode.SERIAL);
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Merge the Network, serially or on a ForkJoin pool
+   */
+  
+  public void mergeNetworks(MergeMode mode) throws AsynchExitRequestException {
+    mergeNetworks(mode, ShadowMode.MATERIALIZED);
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Merge the Network, with shadow links made now or left for later
+   */
+  
+  public void mergeNetworks(MergeMode mode, ShadowMode shadowMode) throws AsynchExitRequestException {
+    shadowMode_ = shadowMode;
+    ForkJoinPool pool = (mode == MergeMode.PARALLEL) ? new ForkJoinPool() : null;
+    try {
+      mergeNetworks(pool);
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Append the shadow links for a merged link list built with ShadowMode.VIRTUAL
+   */
+  
+  public static void addShadowLinks(List<NetLink> mergedLinks) {
+    int numPrimary = mergedLinks.size();
+    for (int i = 0; i < numPrimary; i++) {
+      NetLink link = mergedLinks.get(i);
+      NetNode src = link.getSrcNode(), trg = link.getTrgNode();
+      // We never create shadow feedback links!
+      if (!src.equals(trg)) {
+        mergedLinks.add(PluginSupportFactory.buildLink(src, trg, link.getRelation(), true));
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** The duplicate culling the alignment load's handleDirectionsDupsAndShadows()
+   ** does, for scoring off the display: every relation is undirected, and a link
+   ** is dropped if one with the same relation, shadow flag and ends (either way
+   ** round) was kept before it. The batch scorer uses this so its NGS and LGS
+   ** are taken over the same links as a loaded alignment's.
+   */
+  
+  public static void reduceLinks(List<NetLink> links, Set<NetLink> reducedLinks) {
+    Set<UndirectedLinkKey> seen = new HashSet<UndirectedLinkKey>();
+    for (NetLink link : links) {
+      if (seen.add(new UndirectedLinkKey(link))) {
+        reducedLinks.add(link);
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Re-merge after editing the alignment. Each entry gives a G1 node its new G2
+   ** partner, or null to leave it unaligned; a G1 node whose partner is taken by
+   ** another is left unaligned as well. Only the merged nodes of the edited pairs,
+   ** and the links of the edges touching them, are rebuilt. The merged links, edge
+   ** classes, node colors, node sources, loners and correctness map are updated in
+   ** place (link order is not kept), as is the alignment map. The merge must have
+   ** been made with ShadowMode.VIRTUAL, and not for the ORPHAN view.
+   */
+  
+  public void remerge(Map<NetNode, NetNode> changes) {
+    if ((mergedG1_ == null) || (shadowMode_ != ShadowMode.VIRTUAL) ||
+        (outType_ == NetworkAlignmentBuildData.ViewType.ORPHAN)) {
+      throw (new IllegalStateException());
+    }
+    if (slotLink_ == null) {
+      prepareRemerge();
+    }
     
     //
-    // Create merged and unmerged nodes and Correctness
+    // Apply the edits to the alignment, collecting the input nodes that get a new merged node:
     //
     
-    createMergedNodes();
-    createUnmergedNodes(GraphType.SMALL);
-    createUnmergedNodes(GraphType.LARGE);
+    Set<Integer> touchedG1 = new TreeSet<Integer>();
+    Set<Integer> touchedG2 = new TreeSet<Integer>();
+    for (Map.Entry<NetNode, NetNode> change : changes.entrySet()) {
+      int g1ID = inputID(idsG1_, change.getKey());
+      int g2ID = (change.getValue() == null) ? -1 : inputID(idsG2_, change.getValue());
+      int oldG2ID = g1ToG2_[g1ID];
+      if (oldG2ID != -1) {
+        g2ToG1_[oldG2ID] = -1;
+        touchedG2.add(Integer.valueOf(oldG2ID));
+      }
+      if (g2ID != -1) {
+        int oldG1ID = g2ToG1_[g2ID];
+        if (oldG1ID != -1) {
+          g1ToG2_[oldG1ID] = -1;
+          mapG1toG2_.remove(smallNodeOf(oldG1ID));
+          touchedG1.add(Integer.valueOf(oldG1ID));
+        }
+        g2ToG1_[g2ID] = g1ID;
+        mapG1toG2_.put(change.getKey(), change.getValue());
+        touchedG2.add(Integer.valueOf(g2ID));
+      } else {
+        mapG1toG2_.remove(change.getKey());
+      }
+      g1ToG2_[g1ID] = g2ID;
+      touchedG1.add(Integer.valueOf(g1ID));
+    }
+    
+    //
+    // Swap out their merged nodes:
+    //
+    
+    for (Integer g1ID : touchedG1) {
+      retireMergedNode(g1ToMerged_[g1ID.intValue()]);
+    }
+    for (Integer g2ID : touchedG2) {
+      retireMergedNode(g2ToMerged_[g2ID.intValue()]);
+    }
+    for (Integer g1ID : touchedG1) {
+      int g2ID = g1ToG2_[g1ID.intValue()];
+      NetNode smallNode = smallNodeOf(g1ID.intValue());
+      if (g2ID != -1) {
+        NetNode largeNode = largeNodeOf(g2ID);
+        NetNode mergedNode = PluginSupportFactory.buildNode(idGen_.getNextOID(),
+                                                            mergedName(smallNode.getName(), largeNode.getName()));
+        int mergedID = addMergedNode(mergedNode, smallNode, largeNode, NodeColor.PURPLE);
+        g1ToMerged_[g1ID.intValue()] = mergedID;
+        g2ToMerged_[g2ID] = mergedID;
+      } else {
+        g1ToMerged_[g1ID.intValue()] = addMergedNode(modifyName(smallNode, GraphType.SMALL), smallNode, null, NodeColor.BLUE);
+      }
+    }
+    for (Integer g2ID : touchedG2) {
+      if (g2ToG1_[g2ID.intValue()] == -1) {
+        NetNode largeNode = largeNodeOf(g2ID.intValue());
+        g2ToMerged_[g2ID.intValue()] = addMergedNode(modifyName(largeNode, GraphType.LARGE), null, largeNode, NodeColor.RED);
+      }
+    }
     
     //
-    // Create individual link sets; "old" refers to pre-merged networks, "new" is merged network
+    // Rebuild the links of every edge touching those nodes, each edge once:
     //
     
-    List<NetLink> newLinksG1 = new ArrayList<NetLink>();
-    Set<NetNode> newLonersG1 = new HashSet<NetNode>();
+    LongHashSet doneSlots = new LongHashSet(64);
+    for (Integer g1ID : touchedG1) {
+      int node = origG1ToMerged_[g1ID.intValue()];
+      int end = mergedG1_.getRowEnd(node);
+      for (int pos = mergedG1_.getRowStart(node); pos < end; pos++) {
+        int nbr = mergedG1_.getNeighbor(pos);
+        int slot = (node <= nbr) ? pos : mergedG1_.findNeighbor(nbr, node);
+        if (doneSlots.add(slot)) {
+          updateG1Link(slot, node, nbr);
+        }
+      }
+    }
+    for (Integer g2ID : touchedG2) {
+      int node = origG2ToMerged_[g2ID.intValue()];
+      int end = mergedG2_.getRowEnd(node);
+      for (int pos = mergedG2_.getRowStart(node); pos < end; pos++) {
+        int nbr = mergedG2_.getNeighbor(pos);
+        int slot = numG1Slots_ + ((node <= nbr) ? pos : mergedG2_.findNeighbor(nbr, node));
+        if (doneSlots.add(slot)) {
+          updateG2Link(slot, node, nbr);
+        }
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Check the re-merged state against a full merge of the current alignment,
+   ** made serially into fresh maps. The two are compared by node name, as the
+   ** merged nodes themselves differ: true if they have the same links and edge
+   ** classes, loners, node colors and correctness.
+   */
+  
+  public boolean matchesFullMerge(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    ArrayList<NetLink> links = new ArrayList<NetLink>();
+    Set<NetNode> loners = new HashSet<NetNode>();
+    Map<NetNode, Boolean> correct = (mergedToCorrectNC_ != null) ? new HashMap<NetNode, Boolean>() : null;
+    NodeColorMap colors = new NodeColorMap();
+    EdgeClassColumn classes = new EdgeClassColumn();
+    NetworkAlignment full = new NetworkAlignment(links, loners, new HashMap<NetNode, NetNode>(mapG1toG2_), perfectG1toG2_,
+                                                 linksG1_, lonersG1_, linksG2_, lonersG2_, correct, colors, classes,
+                                                 new MergedNodeSources(), outType_, new UniqueLabeller(), monitor);
+    full.setOrphanHops(orphanHops_);
+    full.mergeNetworks(MergeMode.SERIAL, shadowMode_);
+    List<String> remerged = mergeSummary(mergedLinks_, edgeClasses_, mergedLoners_, nodeColorMap_, mergedToCorrectNC_);
+    return (remerged.equals(mergeSummary(links, classes, loners, colors, correct)));
+  }
+  
+  /****************************************************************************
+   **
+   ** The merged links. With ShadowMode.VIRTUAL these are the non-shadow links
+   ** only, in step with the edge classes, and remerge() keeps them that way.
+   */
+  
+  public ArrayList<NetLink> getMergedLinks() {
+    return (mergedLinks_);
+  }
+  
+  /****************************************************************************
+   **
+   ** The edge class of each merged link
+   */
+  
+  public EdgeClassColumn getEdgeClasses() {
+    return (edgeClasses_);
+  }
+  
+  /****************************************************************************
+   **
+   ** The merged lone nodes
+   */
+  
+  public Set<NetNode> getMergedLoners() {
+    return (mergedLoners_);
+  }
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  /****************************************************************************
+   **
+   ** Merge the Network. With no pool every task runs on the calling thread.
+   */
+  
+  private void mergeNetworks(ForkJoinPool pool) throws AsynchExitRequestException {
+    
+    slotLink_ = null; // any remerge() state is stale now
+    
+    //
+    // Number the nodes of both graphs
+    //
     
-    createNewLinkList(newLinksG1, newLonersG1, GraphType.SMALL);
+    List<IndexTask> indexTasks = new ArrayList<IndexTask>();
+    indexTasks.add(new IndexTask(linksG1_, lonersG1_));
+    indexTasks.add(new IndexTask(linksG2_, lonersG2_));
+    List<Map<NetNode, Integer>> ids = runTasks(indexTasks, pool, "progress.indexingNodes");
+    idsG1_ = ids.get(0);
+    idsG2_ = ids.get(1);
     
-    List<NetLink> newLinksG2 = new ArrayList<NetLink>();
-    Set<NetNode> newLonersG2 = new HashSet<NetNode>();
+    //
+    // Create merged and unmerged nodes and Correctness. This stays on one thread: the
+    // node IDs come from the one labeller, and the merged ids are handed out in order.
+    //
     
-    createNewLinkList(newLinksG2, newLonersG2, GraphType.LARGE);
+    createMergedNodes();
+    createUnmergedNodes(GraphType.SMALL);
+    createUnmergedNodes(GraphType.LARGE);
     
     //
-    // Give each link its respective link relation
+    // Create individual edge sets on merged ids; "old" refers to pre-merged networks, "new" is merged network.
+    // Both graphs' links are mapped at once, then both graphs are built at once.
     //
     
-    createMergedLinkList(newLinksG1, newLinksG2);
+    int[][] endsG1 = new int[2][linksG1_.size()];
+    int[][] endsG2 = new int[2][linksG2_.size()];
+    List<MapLinksTask> mapTasksG1 = createMapLinksTasks(GraphType.SMALL, endsG1, pool);
+    List<MapLinksTask> mapTasksG2 = createMapLinksTasks(GraphType.LARGE, endsG2, pool);
+    startTasks(mapTasksG1, pool);
+    startTasks(mapTasksG2, pool);
+    joinTasks(mapTasksG1, pool, "progress.mergingSmallLinks");
+    joinTasks(mapTasksG2, pool, "progress.mergingLargeLinks");
     
-    finalizeLoneNodeIDs(newLonersG1, newLonersG2);
+    List<GraphTask> graphTasks = new ArrayList<GraphTask>();
+    graphTasks.add(new GraphTask(endsG1));
+    graphTasks.add(new GraphTask(endsG2));
+    List<IntGraph> graphs = runTasks(graphTasks, pool, "progress.buildingGraphs");
+    mergedG1_ = graphs.get(0);
+    mergedG2_ = graphs.get(1);
     
     //
-    // POST processing
+    // Give each link its respective link relation, and its edge class in the column that
+    // runs alongside the merged links. Each task fills its own buffer; the buffers are
+    // appended in node order, so the result is the same as a serial run.
     //
     
-    createNodeColorMap(newLinksG1, newLonersG1, newLinksG2, newLonersG2);
+    boolean orphanView = (outType_ == NetworkAlignmentBuildData.ViewType.ORPHAN);
+    orphanSeeds_ = (orphanView) ? new boolean[mergedNodes_.size()] : null;
+    List<ClassifyTask> tasksG2 = createClassifyTasks(GraphType.LARGE, pool);
+    List<ClassifyTask> tasksG1 = createClassifyTasks(GraphType.SMALL, pool);
+    startTasks(tasksG2, pool);
+    startTasks(tasksG1, pool);
+    List<MergedLinkBuffer> buffers = new ArrayList<MergedLinkBuffer>();
+    buffers.addAll(joinTasks(tasksG2, pool, "progress.separatingLinksA"));
+    buffers.addAll(joinTasks(tasksG1, pool, "progress.separatingLinksB"));
     
     //
-    // Orphan Edges: All unaligned edges; plus all of their endpoint nodes' edges
+    // Orphan Edges: All unaligned edges; plus all of their endpoint nodes' edges, out
+    // to the chosen number of hops. The seeds were found during classification.
     //
     
-    if (outType_ == NetworkAlignmentBuildData.ViewType.ORPHAN) {
-      (new OrphanEdgeLayout()).process(mergedLinks_, mergedLoners_, monitor_);
+    boolean[] keepNodes = (orphanView) ? findOrphanContext() : null;
+    
+    edgeClasses_.clear();
+    for (MergedLinkBuffer buffer : buffers) {
+      if (keepNodes == null) {
+        mergedLinks_.addAll(buffer.links);
+        edgeClasses_.addAll(buffer.classes);
+      } else {
+        buffer.addKeptLinks(keepNodes, mergedLinks_, edgeClasses_);
+      }
+    }
+    buffers = null;
+    
+    if (orphanView) {
+      mergedLoners_.clear();
+    } else {
+      finalizeLoneNodeIDs(createNewLoners(GraphType.SMALL), createNewLoners(GraphType.LARGE));
     }
     
+    //
+    // POST processing
+    //
+    
+    createNodeColorMap();
+    mergedSources_.trim();
+    orphanSeeds_ = null;
     return;
   }
   
-  ////////////////////////////////////////////////////////////////////////////
-  //
-  // PRIVATE METHODS
-  //
-  ////////////////////////////////////////////////////////////////////////////
+  /****************************************************************************
+   **
+   ** Cut [0, size) into task ranges
+   */
+  
+  private int[] chunkBounds(int size, ForkJoinPool pool) {
+    int maxPieces = (pool == null) ? SERIAL_MERGE_CHUNKS_ : pool.getParallelism() * 4;
+    int pieces = Math.max(1, Math.min(maxPieces, size / MIN_MERGE_CHUNK_));
+    int[] bounds = new int[pieces + 1];
+    for (int i = 0; i <= pieces; i++) {
+      bounds[i] = (int)(((long)size * i) / pieces);
+    }
+    return (bounds);
+  }
+  
+  /****************************************************************************
+   **
+   ** Hand the tasks to the pool. With no pool, they are run when joined.
+   */
+  
+  private void startTasks(List<? extends ForkJoinTask<?>> tasks, ForkJoinPool pool) {
+    if (pool != null) {
+      for (ForkJoinTask<?> task : tasks) {
+        pool.execute(task);
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Collect task results in task order, reporting progress as each one comes
+   ** in. If the user cancels, the tasks not yet run are dropped.
+   */
+  
+  private <T> List<T> joinTasks(List<? extends ForkJoinTask<T>> tasks, ForkJoinPool pool, String msg)
+          throws AsynchExitRequestException {
+    List<T> retval = new ArrayList<T>();
+    LoopReporter lr = new LoopReporter(tasks.size(), 20, monitor_, 0.0, 1.0, msg);
+    try {
+      for (ForkJoinTask<T> task : tasks) {
+        retval.add((pool == null) ? task.invoke() : task.join());
+        lr.report();
+      }
+      lr.finish();
+    } catch (AsynchExitRequestException aere) {
+      for (ForkJoinTask<T> task : tasks) {
+        task.cancel(false);
+      }
+      throw (aere);
+    }
+    return (retval);
+  }
+  
+  /****************************************************************************
+   **
+   ** Start and join
+   */
+  
+  private <T> List<T> runTasks(List<? extends ForkJoinTask<T>> tasks, ForkJoinPool pool, String msg)
+          throws AsynchExitRequestException {
+    startTasks(tasks, pool);
+    return (joinTasks(tasks, pool, msg));
+  }
+  
+  /****************************************************************************
+   **
+   ** Give every node of a graph a dense id
+   */
+  
+  private Map<NetNode, Integer> indexNodes(List<NetLink> links, Set<NetNode> loners) {
+    Map<NetNode, Integer> retval = new HashMap<NetNode, Integer>();
+    for (NetLink link : links) {
+      addNodeID(retval, link.getSrcNode());
+      addNodeID(retval, link.getTrgNode());
+    }
+    for (NetNode loner : loners) {
+      addNodeID(retval, loner);
+    }
+    return (retval);
+  }
+  
+  /****************************************************************************
+   **
+   ** Give the node the next id if it does not have one
+   */
+  
+  private void addNodeID(Map<NetNode, Integer> ids, NetNode node) {
+    if (!ids.containsKey(node)) {
+      ids.put(node, Integer.valueOf(ids.size()));
+    }
+    return;
+  }
   
   /****************************************************************************
    **
@@ -242,9 +736,12 @@ public class NetworkAlignment {
   
   private void createMergedNodes() {
     
-    smallToMergedID_ = new HashMap<NetNode, NetNode>();
-    largeToMergedID_ = new HashMap<NetNode, NetNode>();
-    mergedIDToSmall_ = new HashMap<NetNode, NetNode>();
+    mergedNodes_ = new ArrayList<NetNode>();
+    mergedSources_.clear(idsG1_.size() + idsG2_.size());
+    g1ToMerged_ = new int[idsG1_.size()];
+    g2ToMerged_ = new int[idsG2_.size()];
+    Arrays.fill(g1ToMerged_, -1);
+    Arrays.fill(g2ToMerged_, -1);
     
     boolean doingPerfectGroup = (outType_ == NetworkAlignmentBuildData.ViewType.GROUP) &&
                                 (perfectG1toG2_ != null);
@@ -252,20 +749,27 @@ public class NetworkAlignment {
     for (Map.Entry<NetNode, NetNode> entry : mapG1toG2_.entrySet()) {
       
       NetNode smallNode = entry.getKey(), largeNode = entry.getValue();
-      String smallName = smallNode.getName(), largeName = largeNode.getName();
       
       //
       // Aligned nodes merge name in the form small::large
       //
       
-      String mergedName = String.format("%s::%s", smallName, largeName);
+      String mergedName = mergedName(smallNode.getName(), largeNode.getName());
       
       NID nid = idGen_.getNextOID();
       NetNode merged_node = PluginSupportFactory.buildNode(nid, mergedName);
       
-      smallToMergedID_.put(smallNode, merged_node);
-      largeToMergedID_.put(largeNode, merged_node);
-      mergedIDToSmall_.put(merged_node, smallNode);
+      int mergedID = mergedNodes_.size();
+      mergedNodes_.add(merged_node);
+      mergedSources_.add(merged_node, smallNode, largeNode);
+      Integer smallID = idsG1_.get(smallNode);
+      if (smallID != null) {
+        g1ToMerged_[smallID.intValue()] = mergedID;
+      }
+      Integer largeID = idsG2_.get(largeNode);
+      if (largeID != null) {
+        g2ToMerged_[largeID.intValue()] = mergedID;
+      }
       
       //
       // Nodes are correctly aligned map
@@ -277,6 +781,7 @@ public class NetworkAlignment {
         mergedToCorrectNC_.put(merged_node, alignedCorrect);
       }
     }
+    numAligned_ = mergedNodes_.size();
     return;
   }
   
@@ -285,33 +790,36 @@ public class NetworkAlignment {
    ** Create unmerged nodes (Blue or Red), install into maps; Correctness for Blue nodes
    */
   
-  private void createUnmergedNodes(GraphType type) throws AsynchExitRequestException {
+  private void createUnmergedNodes(GraphType type) {
   
     boolean doingPerfectGroup = (outType_ == NetworkAlignmentBuildData.ViewType.GROUP) &&
             (perfectG1toG2_ != null);
-    Map<NetNode, NetNode> oldToUnmerged, oldToMerged;
-    Set<NetNode> nodes;
+    Map<NetNode, Integer> ids;
+    int[] oldToMerged;
     switch (type) {
       case SMALL:
-        nodes = PluginSupportFactory.getBuildExtractor().extractNodes(linksG1_, lonersG1_, monitor_);
-        oldToMerged = smallToMergedID_;
-        oldToUnmerged = smallToUnmergedID_;
+        ids = idsG1_;
+        oldToMerged = g1ToMerged_;
         break;
       case LARGE:
-        nodes = PluginSupportFactory.getBuildExtractor().extractNodes(linksG2_, lonersG2_, monitor_);
-        oldToMerged = largeToMergedID_;
-        oldToUnmerged = largeToUnmergedID_;
+        ids = idsG2_;
+        oldToMerged = g2ToMerged_;
         break;
       default:
         throw (new IllegalArgumentException("Incorrect graph type"));
     }
   
-    for (NetNode node : nodes) {
-      if (oldToMerged.get(node) != null) {
+    for (Map.Entry<NetNode, Integer> entry : ids.entrySet()) {
+      int oldID = entry.getValue().intValue();
+      if (oldToMerged[oldID] != -1) {
         continue;
       }
+      NetNode node = entry.getKey();
       NetNode unalignedNewNode = modifyName(node, type);
-      oldToUnmerged.put(node, unalignedNewNode);
+      oldToMerged[oldID] = mergedNodes_.size();
+      mergedNodes_.add(unalignedNewNode);
+      mergedSources_.add(unalignedNewNode, (type == GraphType.SMALL) ? node : null,
+                         (type == GraphType.LARGE) ? node : null);
       
       // We are dealing with Blue nodes, so if perfect alignment is not aligning
       // the node either, it is correct
@@ -335,9 +843,9 @@ public class NetworkAlignment {
     NID newID = idGen_.getNextOID();
     String newName;
     if (type == NetworkAlignment.GraphType.SMALL) {
-      newName = String.format("%s::", node.getName());  // A:: for blue nodes
+      newName = mergedName(node.getName(), "");  // A:: for blue nodes
     } else if (type == NetworkAlignment.GraphType.LARGE) {
-      newName = String.format("::%s", node.getName());  // ::B for red nodes
+      newName = mergedName("", node.getName());  // ::B for red nodes
     } else {
       throw (new IllegalArgumentException("Incorrect graph type"));
     }
@@ -346,146 +854,246 @@ public class NetworkAlignment {
   
   /****************************************************************************
    **
-   ** Create new link lists based on merged nodes for both networks
+   ** Merged node name small::large, built directly rather than through a Formatter
    */
   
-  private void createNewLinkList(List<NetLink> newLinks, Set<NetNode> newLoners, GraphType type)
-          throws AsynchExitRequestException {
+  private static String mergedName(String smallName, String largeName) {
+    StringBuilder buf = new StringBuilder(smallName.length() + largeName.length() + 2);
+    buf.append(smallName).append("::").append(largeName);
+    return (buf.toString());
+  }
+  
+  /****************************************************************************
+   **
+   ** Tasks that write one graph's link endpoints, as merged ids, into ends[0]
+   ** (sources) and ends[1] (targets)
+   */
+  
+  private List<MapLinksTask> createMapLinksTasks(GraphType type, int[][] ends, ForkJoinPool pool) {
     
     List<NetLink> oldLinks;
-    Set<NetNode> oldLoners;
-    Map<NetNode, NetNode> oldToNewMergedID, oldToNewUnmergedID;
-    String msg;
+    Map<NetNode, Integer> ids;
+    int[] oldToMerged;
     
     switch (type) {
       case SMALL:
         oldLinks = linksG1_;
-        oldLoners = lonersG1_;
-        oldToNewMergedID = smallToMergedID_;
-        oldToNewUnmergedID = smallToUnmergedID_;
-        msg = "progress.mergingSmallLinks";
+        ids = idsG1_;
+        oldToMerged = g1ToMerged_;
         break;
       case LARGE:
         oldLinks = linksG2_;
-        oldLoners = lonersG2_;
-        oldToNewMergedID = largeToMergedID_;
-        oldToNewUnmergedID = largeToUnmergedID_;
-        msg = "progress.mergingLargeLinks";
+        ids = idsG2_;
+        oldToMerged = g2ToMerged_;
         break;
       default:
         throw new IllegalArgumentException();
     }
     
-    LoopReporter lr = new LoopReporter(oldLinks.size(), 20, monitor_, 0.0, 1.0, msg);
-    Set<NetLink> newLinkSet = new HashSet<NetLink>();
-    
-    for (NetLink oldLink : oldLinks) {
-      
-      NetNode oldA = oldLink.getSrcNode();
-      NetNode oldB = oldLink.getTrgNode();
-      
-      //
-      // Not all nodes are mapped in the small or large graph
-      //
-      
-      NetNode newA = (oldToNewMergedID.containsKey(oldA)) ? oldToNewMergedID.get(oldA) : oldToNewUnmergedID.get(oldA);
-      NetNode newB = (oldToNewMergedID.containsKey(oldB)) ? oldToNewMergedID.get(oldB) : oldToNewUnmergedID.get(oldB);
-      
-      NetLink newLink = PluginSupportFactory.buildLink(newA, newB, TEMPORARY, false, Boolean.valueOf(false));
-      // 'directed' must be false
-      newLinkSet.add(newLink);
-      lr.report();
+    int[] bounds = chunkBounds(oldLinks.size(), pool);
+    List<MapLinksTask> retval = new ArrayList<MapLinksTask>();
+    for (int i = 0; i < bounds.length - 1; i++) {
+      retval.add(new MapLinksTask(oldLinks, ids, oldToMerged, bounds[i], bounds[i + 1], ends));
     }
-    newLinks.addAll(newLinkSet);
-    lr.finish();
+    return (retval);
+  }
+  
+  /****************************************************************************
+   **
+   ** Lone nodes of one graph, as merged network nodes
+   */
+  
+  private Set<NetNode> createNewLoners(GraphType type) {
     
+    Set<NetNode> oldLoners = (type == GraphType.SMALL) ? lonersG1_ : lonersG2_;
+    Map<NetNode, Integer> ids = (type == GraphType.SMALL) ? idsG1_ : idsG2_;
+    int[] oldToMerged = (type == GraphType.SMALL) ? g1ToMerged_ : g2ToMerged_;
+    
+    Set<NetNode> newLoners = new HashSet<NetNode>();
     for (NetNode oldLoner : oldLoners) {
-      
-      NetNode newLoner = (oldToNewMergedID.containsKey(oldLoner)) ? oldToNewMergedID.get(oldLoner) : oldToNewUnmergedID.get(oldLoner);
-      
-      newLoners.add(newLoner);
+      newLoners.add(mergedNodes_.get(oldToMerged[ids.get(oldLoner).intValue()]));
     }
-    return;
+    return (newLoners);
   }
   
   /****************************************************************************
    **
-   ** Combine the two link lists into one, with G2,CC,G1 tags accordingly
+   ** Tasks that tag the G2 (LARGE) or G1 (SMALL) edges, by merged node range
    */
   
-  private void createMergedLinkList(List<NetLink> newLinksG1, List<NetLink> newLinksG2)
-          throws AsynchExitRequestException {
-    
-    LoopReporter lr = new LoopReporter(newLinksG2.size(), 20, monitor_, 0.0, 1.0, "progress.separatingLinksA");
-
-    NetAlignFabricLinkLocator comp = new NetAlignFabricLinkLocator();
-    sortLinks(newLinksG1);
+  private List<ClassifyTask> createClassifyTasks(GraphType type, ForkJoinPool pool) {
+    int[] bounds = chunkBounds(mergedNodes_.size(), pool);
+    List<ClassifyTask> retval = new ArrayList<ClassifyTask>();
+    for (int i = 0; i < bounds.length - 1; i++) {
+      retval.add(new ClassifyTask(type, bounds[i], bounds[i + 1]));
+    }
+    return (retval);
+  }
   
-    Set<NetNode> alignedNodesG1 = new HashSet<NetNode>(smallToMergedID_.values());
-    Set<NetNode> alignedNodesG2 = new HashSet<NetNode>(largeToMergedID_.values());
-    // contains all aligned nodes; contains() works in O(1)
+  /****************************************************************************
+   **
+   ** Tag the G2 edges of a node, with G2 or CC tags accordingly. Both graphs
+   ** have sorted rows on the same ids, so the node's G1 and G2 rows are walked
+   ** side by side to find the covered edges. An edge is handled from its lower
+   ** endpoint only.
+   */
   
-    for (NetLink linkG2 : newLinksG2) {
-      
-      int index = Collections.binarySearch(newLinksG1, linkG2, comp);
-      
-      NetNode src = linkG2.getSrcNode(), trg = linkG2.getTrgNode();
-      
-      if (index >= 0) {
-        addMergedLink(src, trg, EdgeType.COVERED.tag);
+  private void classifyG2Edges(int node, MergedLinkBuffer out) {
+    int pos1 = mergedG1_.getRowStart(node), end1 = mergedG1_.getRowEnd(node);
+    int end2 = mergedG2_.getRowEnd(node);
+    for (int pos2 = mergedG2_.getRowStart(node); pos2 < end2; pos2++) {
+      int nbr = mergedG2_.getNeighbor(pos2);
+      if (nbr < node) {
+        continue;
+      }
+      while ((pos1 < end1) && (mergedG1_.getNeighbor(pos1) < nbr)) {
+        pos1++;
+      }
+      if ((pos1 < end1) && (mergedG1_.getNeighbor(pos1) == nbr)) {
+        addMergedLink(out, node, nbr, EdgeType.COVERED);
       } else {
-        boolean containsSRC = alignedNodesG2.contains(src), containsTRG = alignedNodesG2.contains(trg);
-        if (containsSRC && containsTRG) {
-          addMergedLink(src, trg, EdgeType.INDUCED_GRAPH2.tag);
-        } else if (containsSRC || containsTRG) {
-          addMergedLink(src, trg, EdgeType.HALF_UNALIGNED_GRAPH2.tag);
-        } else {
-          addMergedLink(src, trg, EdgeType.FULL_UNALIGNED_GRAPH2.tag);
-        }
+        addMergedLink(out, node, nbr, g2EdgeType(node < numAligned_, nbr < numAligned_));
       }
-      lr.report();
     }
-    lr = new LoopReporter(newLinksG1.size(), 20, monitor_, 0.0, 1.0, "progress.separatingLinksB");
-    sortLinks(newLinksG2);
-    
-    for (NetLink linkG1 : newLinksG1) {
-      
-      int index = Collections.binarySearch(newLinksG2, linkG1, comp);
+    return;
+  }
   
-      NetNode src = linkG1.getSrcNode(), trg = linkG1.getTrgNode();
+  /****************************************************************************
+   **
+   ** Tag the G1 edges of a node that are not covered, with G1 tags accordingly
+   */
   
-      if (index < 0) {
-        boolean containsSRC = alignedNodesG1.contains(src), containsTRG = alignedNodesG1.contains(trg);
-        if (containsSRC && containsTRG) {
-          addMergedLink(src, trg, EdgeType.INDUCED_GRAPH1.tag);
-        } else if (containsSRC || containsTRG) {
-          addMergedLink(src, trg, EdgeType.HALF_ORPHAN_GRAPH1.tag);
-        } else {
-          addMergedLink(src, trg, EdgeType.FULL_ORPHAN_GRAPH1.tag);
-        }
+  private void classifyG1Edges(int node, MergedLinkBuffer out) {
+    int pos2 = mergedG2_.getRowStart(node), end2 = mergedG2_.getRowEnd(node);
+    int end1 = mergedG1_.getRowEnd(node);
+    for (int pos1 = mergedG1_.getRowStart(node); pos1 < end1; pos1++) {
+      int nbr = mergedG1_.getNeighbor(pos1);
+      if (nbr < node) {
+        continue;
       }
-      lr.report();
+      while ((pos2 < end2) && (mergedG2_.getNeighbor(pos2) < nbr)) {
+        pos2++;
+      }
+      if ((pos2 < end2) && (mergedG2_.getNeighbor(pos2) == nbr)) {
+        continue;
+      }
+      EdgeType type = g1EdgeType(node < numAligned_, nbr < numAligned_);
+      addMergedLink(out, node, nbr, type);
+      if ((type == EdgeType.INDUCED_GRAPH1) && (orphanSeeds_ != null)) {
+        orphanSeeds_[node] = true;
+        orphanSeeds_[nbr] = true;
+      }
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Type of an uncovered G1 edge, by which ends are aligned
+   */
+  
+  private static EdgeType g1EdgeType(boolean alignedSRC, boolean alignedTRG) {
+    if (alignedSRC && alignedTRG) {
+      return (EdgeType.INDUCED_GRAPH1);
+    } else if (alignedSRC || alignedTRG) {
+      return (EdgeType.HALF_ORPHAN_GRAPH1);
+    } else {
+      return (EdgeType.FULL_ORPHAN_GRAPH1);
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** Type of an uncovered G2 edge, by which ends are aligned
+   */
+  
+  private static EdgeType g2EdgeType(boolean alignedSRC, boolean alignedTRG) {
+    if (alignedSRC && alignedTRG) {
+      return (EdgeType.INDUCED_GRAPH2);
+    } else if (alignedSRC || alignedTRG) {
+      return (EdgeType.HALF_UNALIGNED_GRAPH2);
+    } else {
+      return (EdgeType.FULL_UNALIGNED_GRAPH2);
     }
-    return; // This method is not ideal. . . but shall stay (6/19/18)
   }
   
   /****************************************************************************
    **
-   ** Add both non-shadow and shadow links to merged link-list
+   ** Add both non-shadow and shadow links to merged link-list; just the
+   ** non-shadow link if shadows are VIRTUAL
    */
   
-  private void addMergedLink(NetNode src, NetNode trg, String tag) {
+  private void addMergedLink(MergedLinkBuffer out, int srcID, int trgID, EdgeType type) {
+    NetNode src = mergedNodes_.get(srcID), trg = mergedNodes_.get(trgID);
+    String tag = type.tag;
     NetLink newMergedLink = PluginSupportFactory.buildLink(src, trg, tag, false);
-    mergedLinks_.add(newMergedLink);
+    out.add(newMergedLink, type, srcID, trgID);
     
     // We never create shadow feedback links!
-    if (!src.equals(trg)) {
+    if ((shadowMode_ == ShadowMode.MATERIALIZED) && !src.equals(trg)) {
       NetLink newMergedLinkShadow = PluginSupportFactory.buildLink(src, trg, tag, true);
-      mergedLinks_.add(newMergedLinkShadow);
+      out.add(newMergedLinkShadow, type, srcID, trgID);
     }
     return;
   }
   
+  /****************************************************************************
+   **
+   ** ORPHAN view: mark the merged nodes fewer than orphanHops_ hops from an
+   ** induced G1 edge, by a breadth-first search out from the edge endpoints over
+   ** the G1 and G2 rows. A link is kept if either end is marked, so one hop
+   ** keeps just the links touching the endpoints.
+   */
+  
+  private boolean[] findOrphanContext() throws AsynchExitRequestException {
+    int numNodes = orphanSeeds_.length;
+    int[] hops = new int[numNodes];
+    Arrays.fill(hops, -1);
+    int[] queue = new int[numNodes];
+    int tail = 0;
+    for (int node = 0; node < numNodes; node++) {
+      if (orphanSeeds_[node]) {
+        hops[node] = 0;
+        queue[tail++] = node;
+      }
+    }
+    
+    LoopReporter lr = new LoopReporter(numNodes, 20, monitor_, 0.0, 1.0, "progress.orphanEdgesContext");
+    for (int head = 0; head < tail; head++) {
+      int node = queue[head];
+      int nextHop = hops[node] + 1;
+      if (nextHop < orphanHops_) {
+        tail = visitNeighbors(mergedG1_, node, nextHop, hops, queue, tail);
+        tail = visitNeighbors(mergedG2_, node, nextHop, hops, queue, tail);
+      }
+      lr.report();
+    }
+    lr.finish();
+    
+    boolean[] retval = new boolean[numNodes];
+    for (int node = 0; node < numNodes; node++) {
+      retval[node] = (hops[node] != -1);
+    }
+    return (retval);
+  }
+  
+  /****************************************************************************
+   **
+   ** Queue the unvisited neighbors of a node in one graph. Returns the new tail.
+   */
+  
+  private int visitNeighbors(IntGraph graph, int node, int nextHop, int[] hops, int[] queue, int tail) {
+    int end = graph.getRowEnd(node);
+    for (int pos = graph.getRowStart(node); pos < end; pos++) {
+      int nbr = graph.getNeighbor(pos);
+      if (hops[nbr] == -1) {
+        hops[nbr] = nextHop;
+        queue[tail++] = nbr;
+      }
+    }
+    return (tail);
+  }
+  
   /****************************************************************************
    **
    ** Combine loneNodeIDs lists into one
@@ -499,32 +1107,20 @@ public class NetworkAlignment {
   
   /****************************************************************************
    **
-   ** POST processing: Create NodeColorMap map
+   ** POST processing: Create NodeColorMap map. Colors follow from the merged ids.
    */
   
-  private void createNodeColorMap(List<NetLink> newLinksG1, Set<NetNode> newLonersG1,
-                                  List<NetLink> newLinksG2, Set<NetNode> newLonersG2) throws AsynchExitRequestException {
+  private void createNodeColorMap() {
     
-    Set<NetNode> nodesG1 = (new BuildExtractorImpl()).extractNodes(newLinksG1, newLonersG1, monitor_);
-    Set<NetNode> nodesG2 = (new BuildExtractorImpl()).extractNodes(newLinksG2, newLonersG2, monitor_);
-  
-    Set<NetNode> alignedNodes = mergedIDToSmall_.keySet();
     Map<NetNode, NodeColor> map = new HashMap<NetNode, NodeColor>();
     
-    for (NetNode node : nodesG1) {
-      if (alignedNodes.contains(node)) {
-        map.put(node, NodeColor.PURPLE);
-      } else {
-        map.put(node, NodeColor.BLUE);
-      }
+    for (int i = 0; i < g1ToMerged_.length; i++) {
+      int mergedID = g1ToMerged_[i];
+      map.put(mergedNodes_.get(mergedID), (mergedID < numAligned_) ? NodeColor.PURPLE : NodeColor.BLUE);
     }
-    for (NetNode node : nodesG2) {
-      if (alignedNodes.contains(node)) {
-        // essentially re-assigns purple nodes for no reason
-        map.put(node, NodeColor.PURPLE);
-      } else {
-        map.put(node, NodeColor.RED);
-      }
+    for (int i = 0; i < g2ToMerged_.length; i++) {
+      int mergedID = g2ToMerged_[i];
+      map.put(mergedNodes_.get(mergedID), (mergedID < numAligned_) ? NodeColor.PURPLE : NodeColor.RED);
     }
     nodeColorMap_.setMap(map);
     return;
@@ -532,23 +1128,254 @@ public class NetworkAlignment {
   
   /****************************************************************************
    **
-   ** Sort list of FabricLinks
+   ** Set up for remerge(): freeze the full merge's ids, and find the slot of
+   ** every merged link
    */
   
-  private void sortLinks(List<NetLink> newLinks) throws AsynchExitRequestException {
-    NetAlignFabricLinkLocator comp = new NetAlignFabricLinkLocator();
-    Set<NetLink> sorted = new TreeSet<NetLink>(comp);
-    LoopReporter lr = new LoopReporter(newLinks.size(), 20, monitor_, 0.0, 1.0, "progress.sortingLinks");
+  private void prepareRemerge() {
+    int numLinks = mergedLinks_.size();
+    if (edgeClasses_.size() != numLinks) { // shadow links have been added
+      throw (new IllegalStateException());
+    }
+    int numMerged = mergedNodes_.size();
+    origG1ToMerged_ = g1ToMerged_.clone();
+    origG2ToMerged_ = g2ToMerged_.clone();
+    origMergedToG1_ = new int[numMerged];
+    origMergedToG2_ = new int[numMerged];
+    Arrays.fill(origMergedToG1_, -1);
+    Arrays.fill(origMergedToG2_, -1);
+    for (int i = 0; i < g1ToMerged_.length; i++) {
+      origMergedToG1_[g1ToMerged_[i]] = i;
+    }
+    for (int i = 0; i < g2ToMerged_.length; i++) {
+      origMergedToG2_[g2ToMerged_[i]] = i;
+    }
+    g1ToG2_ = new int[g1ToMerged_.length];
+    for (int i = 0; i < g1ToG2_.length; i++) {
+      g1ToG2_[i] = origMergedToG2_[g1ToMerged_[i]];
+    }
+    g2ToG1_ = new int[g2ToMerged_.length];
+    for (int i = 0; i < g2ToG1_.length; i++) {
+      g2ToG1_[i] = origMergedToG1_[g2ToMerged_[i]];
+    }
+    
+    Map<NetNode, Integer> mergedIDs = new HashMap<NetNode, Integer>();
+    for (int i = 0; i < numMerged; i++) {
+      mergedIDs.put(mergedNodes_.get(i), Integer.valueOf(i));
+    }
+    numG1Slots_ = mergedG1_.getPositionCount();
+    slotLink_ = new int[numG1Slots_ + mergedG2_.getPositionCount()];
+    Arrays.fill(slotLink_, -1);
+    linkSlot_ = new int[Math.max(16, numLinks)];
+    for (int i = 0; i < numLinks; i++) {
+      NetLink link = mergedLinks_.get(i);
+      int srcID = mergedIDs.get(link.getSrcNode()).intValue();
+      int trgID = mergedIDs.get(link.getTrgNode()).intValue();
+      int lo = Math.min(srcID, trgID), hi = Math.max(srcID, trgID);
+      int typeIndex = edgeClasses_.getClassIndex(i);
+      boolean fromG1 = (typeIndex >= EdgeType.INDUCED_GRAPH1.index) && (typeIndex <= EdgeType.FULL_ORPHAN_GRAPH1.index);
+      int slot = (fromG1) ? mergedG1_.findNeighbor(lo, hi) : numG1Slots_ + mergedG2_.findNeighbor(lo, hi);
+      slotLink_[slot] = i;
+      linkSlot_[i] = slot;
+    }
+    return;
+  }
   
-    for (NetLink link : newLinks) {
-      sorted.add(link);
-      lr.report();
+  /****************************************************************************
+   **
+   ** Input id of a node, which must be in the graph
+   */
+  
+  private int inputID(Map<NetNode, Integer> ids, NetNode node) {
+    Integer id = ids.get(node);
+    if (id == null) {
+      throw (new IllegalArgumentException("Node not in graph: " + node.getName()));
+    }
+    return (id.intValue());
+  }
+  
+  /****************************************************************************
+   **
+   ** G1 node for a G1 input id
+   */
+  
+  private NetNode smallNodeOf(int g1ID) {
+    return (mergedSources_.getSmallNode(origG1ToMerged_[g1ID]));
+  }
+  
+  /****************************************************************************
+   **
+   ** G2 node for a G2 input id
+   */
+  
+  private NetNode largeNodeOf(int g2ID) {
+    return (mergedSources_.getLargeNode(origG2ToMerged_[g2ID]));
+  }
+  
+  /****************************************************************************
+   **
+   ** Drop a merged node from the color map, sources, loners and correctness map.
+   ** Its id is not reused.
+   */
+  
+  private void retireMergedNode(int mergedID) {
+    NetNode node = mergedNodes_.get(mergedID);
+    nodeColorMap_.removeColor(node);
+    mergedSources_.retire(mergedID);
+    mergedLoners_.remove(node);
+    if (mergedToCorrectNC_ != null) {
+      mergedToCorrectNC_.remove(node);
     }
-    newLinks.clear();
-    newLinks.addAll(sorted);  // assume to have no loop reporter here
     return;
   }
   
+  /****************************************************************************
+   **
+   ** Give a new merged node the next merged id, and install it into the maps
+   ** as the full merge would
+   */
+  
+  private int addMergedNode(NetNode mergedNode, NetNode smallNode, NetNode largeNode, NodeColor color) {
+    int mergedID = mergedNodes_.size();
+    mergedNodes_.add(mergedNode);
+    mergedSources_.add(mergedNode, smallNode, largeNode);
+    nodeColorMap_.setColor(mergedNode, color);
+    if (((smallNode != null) && lonersG1_.contains(smallNode)) ||
+        ((largeNode != null) && lonersG2_.contains(largeNode))) {
+      mergedLoners_.add(mergedNode);
+    }
+    
+    boolean doingPerfectGroup = (outType_ == NetworkAlignmentBuildData.ViewType.GROUP) &&
+                                (perfectG1toG2_ != null);
+    if (doingPerfectGroup && (smallNode != null)) {
+      NetNode perfectLarge = perfectG1toG2_.get(smallNode);
+      boolean correct = (largeNode == null) ? (perfectLarge == null)
+                                            : ((perfectLarge != null) && perfectLarge.equals(largeNode));
+      mergedToCorrectNC_.put(mergedNode, correct);
+    }
+    return (mergedID);
+  }
+  
+  /****************************************************************************
+   **
+   ** Redo the link for a G1 edge, given by its ends' original merged ids
+   */
+  
+  private void updateG1Link(int slot, int origA, int origB) {
+    int g1A = origMergedToG1_[origA], g1B = origMergedToG1_[origB];
+    int g2A = g1ToG2_[g1A], g2B = g1ToG2_[g1B];
+    EdgeType type;
+    if ((g2A != -1) && (g2B != -1) && mergedG2_.hasEdge(origG2ToMerged_[g2A], origG2ToMerged_[g2B])) {
+      type = null; // covered, so the G2 edge holds the link
+    } else {
+      type = g1EdgeType(g2A != -1, g2B != -1);
+    }
+    setSlotLink(slot, g1ToMerged_[g1A], g1ToMerged_[g1B], type);
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Redo the link for a G2 edge, given by its ends' original merged ids
+   */
+  
+  private void updateG2Link(int slot, int origA, int origB) {
+    int g2A = origMergedToG2_[origA], g2B = origMergedToG2_[origB];
+    int g1A = g2ToG1_[g2A], g1B = g2ToG1_[g2B];
+    EdgeType type;
+    if ((g1A != -1) && (g1B != -1) && mergedG1_.hasEdge(origG1ToMerged_[g1A], origG1ToMerged_[g1B])) {
+      type = EdgeType.COVERED;
+    } else {
+      type = g2EdgeType(g1A != -1, g1B != -1);
+    }
+    setSlotLink(slot, g2ToMerged_[g2A], g2ToMerged_[g2B], type);
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Make the slot's link run between two merged nodes with the given type, or
+   ** take it out if the type is null
+   */
+  
+  private void setSlotLink(int slot, int mergedA, int mergedB, EdgeType type) {
+    int linkIndex = slotLink_[slot];
+    if (type == null) {
+      if (linkIndex != -1) {
+        removeLink(linkIndex);
+      }
+      return;
+    }
+    NetNode src = mergedNodes_.get(Math.min(mergedA, mergedB));
+    NetNode trg = mergedNodes_.get(Math.max(mergedA, mergedB));
+    NetLink link = PluginSupportFactory.buildLink(src, trg, type.tag, false);
+    if (linkIndex == -1) {
+      linkIndex = mergedLinks_.size();
+      mergedLinks_.add(link);
+      edgeClasses_.add(type);
+      if (linkIndex == linkSlot_.length) {
+        linkSlot_ = Arrays.copyOf(linkSlot_, linkIndex * 2);
+      }
+      linkSlot_[linkIndex] = slot;
+      slotLink_[slot] = linkIndex;
+    } else {
+      mergedLinks_.set(linkIndex, link);
+      edgeClasses_.set(linkIndex, type);
+    }
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Remove a merged link by moving the last link into its place
+   */
+  
+  private void removeLink(int linkIndex) {
+    int last = mergedLinks_.size() - 1;
+    slotLink_[linkSlot_[linkIndex]] = -1;
+    if (linkIndex != last) {
+      mergedLinks_.set(linkIndex, mergedLinks_.get(last));
+      edgeClasses_.set(linkIndex, edgeClasses_.getType(last));
+      linkSlot_[linkIndex] = linkSlot_[last];
+      slotLink_[linkSlot_[linkIndex]] = linkIndex;
+    }
+    mergedLinks_.remove(last);
+    edgeClasses_.removeLast();
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** A merge as sorted lines of node names, for matchesFullMerge()
+   */
+  
+  private static List<String> mergeSummary(List<NetLink> links, EdgeClassColumn classes, Set<NetNode> loners,
+                                           NodeColorMap colors, Map<NetNode, Boolean> correct) {
+    List<String> retval = new ArrayList<String>();
+    int numLinks = links.size();
+    for (int i = 0; i < numLinks; i++) {
+      NetLink link = links.get(i);
+      String src = link.getSrcNode().getName() + " " + colors.getColor(link.getSrcNode());
+      String trg = link.getTrgNode().getName() + " " + colors.getColor(link.getTrgNode());
+      if (src.compareTo(trg) > 0) {
+        String hold = src;
+        src = trg;
+        trg = hold;
+      }
+      retval.add("L " + src + " " + trg + " " + link.getRelation() + " " + classes.getType(i));
+    }
+    for (NetNode loner : loners) {
+      retval.add("N " + loner.getName() + " " + colors.getColor(loner));
+    }
+    if (correct != null) {
+      for (Map.Entry<NetNode, Boolean> entry : correct.entrySet()) {
+        retval.add("C " + entry.getKey().getName() + " " + entry.getValue());
+      }
+    }
+    Collections.sort(retval);
+    return (retval);
+  }
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // INNER CLASSES
@@ -574,93 +1401,363 @@ public class NetworkAlignment {
       return (map.get(node));
     }
     
+    public void setColor(NetNode node, NodeColor color) {
+      map.put(node, color);
+      return;
+    }
+    
+    public void removeColor(NetNode node) {
+      map.remove(node);
+      return;
+    }
+    
   }
   
   /****************************************************************************
    **
-   ** All unaligned edges plus all of their endpoint nodes' edges
+   ** Edge class (EdgeType.index) of each merged link, as one byte per link in
+   ** the same order as the merged link list
    */
   
-  private static class OrphanEdgeLayout {
+  public static class EdgeClassColumn {
+    
+    private byte[] classes_;
+    private int size_;
     
-    public OrphanEdgeLayout() {
+    public EdgeClassColumn() {
+      classes_ = new byte[16];
+      size_ = 0;
     }
     
-    private void process(List<NetLink> mergedLinks, Set<NetNode> mergedLoneNodeIDs,
-                         BTProgressMonitor monitor)
-            throws AsynchExitRequestException {
-      
-      LoopReporter reporter = new LoopReporter(mergedLinks.size(), 20, monitor, 0.0, 1.0,
-              "progress.findingOrphanEdges");
-      
-      Set<NetNode> blueNodesG1 = new TreeSet<NetNode>();
-      for (NetLink link : mergedLinks) { // find the nodes of interest
-        if (link.getRelation().equals(EdgeType.INDUCED_GRAPH1.tag)) {
-          blueNodesG1.add(link.getSrcNode()); // it's a set - so with shadows no duplicates
-          blueNodesG1.add(link.getTrgNode());
+    public void add(EdgeType type) {
+      if (size_ == classes_.length) {
+        classes_ = Arrays.copyOf(classes_, size_ * 2);
+      }
+      classes_[size_++] = (byte)type.index;
+      return;
+    }
+    
+    public void addAll(EdgeClassColumn other) {
+      if (size_ + other.size_ > classes_.length) {
+        classes_ = Arrays.copyOf(classes_, Math.max(size_ + other.size_, size_ * 2));
+      }
+      System.arraycopy(other.classes_, 0, classes_, size_, other.size_);
+      size_ += other.size_;
+      return;
+    }
+    
+    public void set(int linkIndex, EdgeType type) {
+      classes_[linkIndex] = (byte)type.index;
+      return;
+    }
+    
+    public void removeLast() {
+      size_--;
+      return;
+    }
+    
+    public void clear() {
+      size_ = 0;
+      return;
+    }
+    
+    public int size() {
+      return (size_);
+    }
+    
+    public int getClassIndex(int linkIndex) {
+      return (classes_[linkIndex]);
+    }
+    
+    public EdgeType getType(int linkIndex) {
+      return (LINK_GROUPS[classes_[linkIndex]]);
+    }
+    
+    /**************************************************************************
+     **
+     ** Number of links in each class, indexed by EdgeType.index
+     */
+    
+    public int[] countByClass() {
+      int[] retval = new int[LINK_GROUPS.length];
+      for (int i = 0; i < size_; i++) {
+        retval[classes_[i]]++;
+      }
+      return (retval);
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** The G1 and G2 nodes behind each merged node, so the parts of a name like
+   ** A::B never have to be parsed back out of it. Purple nodes have both,
+   ** blue nodes only a small node, red nodes only a large node. Kept in plain
+   ** arrays indexed by merged id, as the merge numbers its nodes; a node
+   ** dropped by a re-merge leaves a null merged node at its id.
+   */
+  
+  public static class MergedNodeSources {
+    
+    private NetNode[] merged_;
+    private NetNode[] small_;
+    private NetNode[] large_;
+    private int size_;
+    
+    public MergedNodeSources() {
+      clear(0);
+    }
+    
+    public void clear(int capacity) {
+      merged_ = new NetNode[capacity];
+      small_ = new NetNode[capacity];
+      large_ = new NetNode[capacity];
+      size_ = 0;
+      return;
+    }
+    
+    public int add(NetNode mergedNode, NetNode smallNode, NetNode largeNode) {
+      if (size_ == merged_.length) {
+        int capacity = Math.max(16, size_ * 2);
+        merged_ = Arrays.copyOf(merged_, capacity);
+        small_ = Arrays.copyOf(small_, capacity);
+        large_ = Arrays.copyOf(large_, capacity);
+      }
+      merged_[size_] = mergedNode;
+      small_[size_] = smallNode;
+      large_[size_] = largeNode;
+      return (size_++);
+    }
+    
+    public void retire(int mergedID) {
+      merged_[mergedID] = null;
+      return;
+    }
+    
+    public void trim() {
+      merged_ = Arrays.copyOf(merged_, size_);
+      small_ = Arrays.copyOf(small_, size_);
+      large_ = Arrays.copyOf(large_, size_);
+      return;
+    }
+    
+    public int size() {
+      return (size_);
+    }
+    
+    public NetNode getMergedNode(int mergedID) {
+      return (merged_[mergedID]);
+    }
+    
+    public NetNode getSmallNode(int mergedID) {
+      return (small_[mergedID]);
+    }
+    
+    public NetNode getLargeNode(int mergedID) {
+      return (large_[mergedID]);
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** Merged links, with their edge classes, made by one classification task
+   */
+  
+  private static class MergedLinkBuffer {
+    
+    final ArrayList<NetLink> links;
+    final EdgeClassColumn classes;
+    private int[] ends_;
+    
+    //
+    // The merged ids of each link's ends are only kept when the links will be
+    // filtered by node afterwards (ORPHAN view)
+    //
+    
+    MergedLinkBuffer(boolean keepEnds) {
+      links = new ArrayList<NetLink>();
+      classes = new EdgeClassColumn();
+      ends_ = (keepEnds) ? new int[32] : null;
+    }
+    
+    void add(NetLink link, EdgeType type, int srcID, int trgID) {
+      if (ends_ != null) {
+        int pos = classes.size() * 2;
+        if (pos == ends_.length) {
+          ends_ = Arrays.copyOf(ends_, pos * 2);
         }
-        reporter.report();
+        ends_[pos] = srcID;
+        ends_[pos + 1] = trgID;
       }
-      
-      reporter = new LoopReporter(mergedLinks.size(), 20, monitor, 0.0, 1.0,
-              "progress.orphanEdgesContext");
-      
-      List<NetLink> blueEdgesPlusContext = new ArrayList<NetLink>();
-      for (NetLink link : mergedLinks) { // add the edges connecting to the nodes of interest (one hop away)
-        
-        NetNode src = link.getSrcNode(), trg = link.getTrgNode();
-        
-        if (blueNodesG1.contains(src) || blueNodesG1.contains(trg)) {
-          blueEdgesPlusContext.add(link);
+      links.add(link);
+      classes.add(type);
+      return;
+    }
+    
+    void addKeptLinks(boolean[] keepNodes, List<NetLink> keptLinks, EdgeClassColumn keptClasses) {
+      int numLinks = links.size();
+      for (int i = 0; i < numLinks; i++) {
+        if (keepNodes[ends_[i * 2]] || keepNodes[ends_[(i * 2) + 1]]) {
+          keptLinks.add(links.get(i));
+          keptClasses.add(classes.getType(i));
         }
-        reporter.report();
       }
+      return;
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** A link's relation, shadow flag and ends, equal to its own reverse
+   */
+  
+  private static class UndirectedLinkKey {
+    
+    private final NetNode src_;
+    private final NetNode trg_;
+    private final String relation_;
+    private final boolean isShadow_;
+    
+    UndirectedLinkKey(NetLink link) {
+      src_ = link.getSrcNode();
+      trg_ = link.getTrgNode();
+      relation_ = link.getRelation();
+      isShadow_ = link.isShadow();
+    }
+    
+    @Override
+    public int hashCode() {
+      return ((src_.hashCode() + trg_.hashCode()) * 31 + relation_.hashCode() + ((isShadow_) ? 1 : 0));
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return (true);
+      }
+      if (!(other instanceof UndirectedLinkKey)) {
+        return (false);
+      }
+      UndirectedLinkKey otherKey = (UndirectedLinkKey)other;
+      if ((isShadow_ != otherKey.isShadow_) || !relation_.equals(otherKey.relation_)) {
+        return (false);
+      }
+      return ((src_.equals(otherKey.src_) && trg_.equals(otherKey.trg_)) ||
+              (src_.equals(otherKey.trg_) && trg_.equals(otherKey.src_)));
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** Numbers the nodes of one input graph
+   */
+  
+  private class IndexTask extends RecursiveTask<Map<NetNode, Integer>> {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final List<NetLink> links_;
+    private final Set<NetNode> loners_;
+    
+    IndexTask(List<NetLink> links, Set<NetNode> loners) {
+      links_ = links;
+      loners_ = loners;
+    }
+    
+    @Override
+    protected Map<NetNode, Integer> compute() {
+      return (indexNodes(links_, loners_));
+    }
+  }
   
-      mergedLinks.clear();
-      mergedLoneNodeIDs.clear();
-      mergedLinks.addAll(blueEdgesPlusContext);
+  /****************************************************************************
+   **
+   ** Maps a range of one input graph's links onto merged ids
+   */
+  
+  private class MapLinksTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final List<NetLink> oldLinks_;
+    private final Map<NetNode, Integer> ids_;
+    private final int[] oldToMerged_;
+    private final int start_;
+    private final int end_;
+    private final int[][] ends_;
+    
+    MapLinksTask(List<NetLink> oldLinks, Map<NetNode, Integer> ids, int[] oldToMerged,
+                 int start, int end, int[][] ends) {
+      oldLinks_ = oldLinks;
+      ids_ = ids;
+      oldToMerged_ = oldToMerged;
+      start_ = start;
+      end_ = end;
+      ends_ = ends;
+    }
+    
+    @Override
+    protected void compute() {
+      for (int i = start_; i < end_; i++) {
+        NetLink oldLink = oldLinks_.get(i);
+        ends_[0][i] = oldToMerged_[ids_.get(oldLink.getSrcNode()).intValue()];
+        ends_[1][i] = oldToMerged_[ids_.get(oldLink.getTrgNode()).intValue()];
+      }
       return;
     }
+  }
+  
+  /****************************************************************************
+   **
+   ** Builds one graph's edge set on merged ids. Repeated edges (including
+   ** A-B against B-A) collapse into one.
+   */
+  
+  private class GraphTask extends RecursiveTask<IntGraph> {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final int[][] ends_;
+    
+    GraphTask(int[][] ends) {
+      ends_ = ends;
+    }
     
+    @Override
+    protected IntGraph compute() {
+      return (new IntGraph(mergedNodes_.size(), ends_[0], ends_[1], ends_[0].length));
+    }
   }
   
-  /***************************************************************************
+  /****************************************************************************
    **
-   ** Used ONLY to order links for creating the merged link set in Network Alignments
+   ** Tags the G1 or G2 edges of a range of merged nodes into its own list
    */
   
-  private static class NetAlignFabricLinkLocator implements Comparator<NetLink> {
+  private class ClassifyTask extends RecursiveTask<MergedLinkBuffer> {
     
-    /***************************************************************************
-     **
-     ** For any different links in the two separate network link sets, this
-     ** says which comes first
-     */
+    private static final long serialVersionUID = 1L;
     
-    public int compare(NetLink link1, NetLink link2) {
-      
-      if (link1.synonymous(link2)) {
-        return (0);
+    private final GraphType type_;
+    private final int start_;
+    private final int end_;
+    
+    ClassifyTask(GraphType type, int start, int end) {
+      type_ = type;
+      start_ = start;
+      end_ = end;
+    }
+    
+    @Override
+    protected MergedLinkBuffer compute() {
+      MergedLinkBuffer retval = new MergedLinkBuffer(orphanSeeds_ != null);
+      for (int node = start_; node < end_; node++) {
+        if (type_ == GraphType.LARGE) {
+          classifyG2Edges(node, retval);
+        } else {
+          classifyG1Edges(node, retval);
+        }
       }
-      
-      //
-      // Must sort the node names because A-B must be equivalent to B-A
-      //
-      
-      String[] arr1 = {link1.getSrcNode().getName(), link1.getTrgNode().getName()};
-      Arrays.sort(arr1);
-      
-      String[] arr2 = {link2.getSrcNode().getName(), link2.getTrgNode().getName()};
-      Arrays.sort(arr2);
-      
-      String concat1 = String.format("%s___%s", arr1[0], arr1[1]);
-      String concat2 = String.format("%s___%s", arr2[0], arr2[1]);
-      
-      //
-      // This cuts the merge-lists algorithm to O(eloge) because binary search
-      //
-      
-      return concat1.compareTo(concat2);
+      return (retval);
     }
   }
   
@@ -0,0 +1,521 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.SwingConstants;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
+
+import org.systemsbiology.biofabric.api.dialog.BTStashResultsDialog;
+import org.systemsbiology.biofabric.api.dialog.DialogObj;
+import org.systemsbiology.biofabric.api.io.FileLoadFlows;
+import org.systemsbiology.biofabric.api.util.ExceptionHandler;
+import org.systemsbiology.biofabric.api.util.FixedJButton;
+import org.systemsbiology.biofabric.api.util.MatchingJLabel;
+import org.systemsbiology.biofabric.api.util.PluginResourceManager;
+import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
+
+/****************************************************************************
+**
+** Dialog box for scoring a batch of alignments of the same two graphs: the
+** graphs, an optional perfect alignment, the alignment files, and where the
+** CSV or JSON results go
+*/
+
+public class NetworkAlignmentBatchDialog extends BTStashResultsDialog {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int CSV_IDX = 0, JSON_IDX = 1; // indices on combo box
+
+  //
+  // By default, one thread per processor, and half the heap for scoring: the
+  // rest is for the shared graphs and whatever is on display
+  //
+
+  private static final long BYTES_PER_MB_ = 1024L * 1024L;
+  private static final int MAX_DEFAULT_MEMORY_MB_ = 1 << 20;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private JTextField graph1Field_, graph2Field_, perfectField_, outputField_;
+  private JTextField threadsField_, memoryField_;
+  private DefaultListModel alignModel_;
+  private JList alignList_;
+  private JComboBox formatCombo_;
+  private JCheckBox undirectedConfirm_;
+  private FixedJButton buttonOK_;
+  private BatchInfo result_;
+  private FileLoadFlows flf_;
+  private PluginResourceManager rMan_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+  **
+  ** Constructor
+  */
+
+  public NetworkAlignmentBatchDialog(JFrame parent, FileLoadFlows flf, PluginResourceManager rMan) {
+    super(parent, rMan.getPluginString("networkAlignmentBatch.title"), new Dimension(700, 500), 3);
+    flf_ = flf;
+    rMan_ = rMan;
+
+    JPanel cp = (JPanel)getContentPane();
+    cp.setBorder(new EmptyBorder(20, 20, 20, 20));
+    cp.setLayout(new GridBagLayout());
+
+    JLabel sizeMatch = new JLabel(rMan_.getPluginString("networkAlignmentBatch.perfect")); // only to use as a reference, not in dialog
+    graph1Field_ = new JTextField(30);
+    graph2Field_ = new JTextField(30);
+    perfectField_ = new JTextField(30);
+    outputField_ = new JTextField(30);
+    for (JTextField field : new JTextField[] {graph1Field_, graph2Field_, perfectField_, outputField_}) {
+      field.getDocument().addDocumentListener(new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) {
+          try {
+            manageOKButton();
+          } catch (Exception ex) {
+            ExceptionHandler.getHandler().displayException(ex);
+          }
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+          try {
+            manageOKButton();
+          } catch (Exception ex) {
+            ExceptionHandler.getHandler().displayException(ex);
+          }
+        }
+
+        public void changedUpdate(DocumentEvent e) {}
+      });
+    }
+
+    undirectedConfirm_ = new JCheckBox(rMan_.getPluginString("networkAlignment.confirmUndirected"));
+    undirectedConfirm_.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          manageOKButton();
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+
+    JPanel panMessage = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    panMessage.add(new JLabel(rMan_.getPluginString("networkAlignmentBatch.message")));
+    addWidgetFullRow(panMessage, true);
+    JPanel panConfirm = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    panConfirm.add(undirectedConfirm_);
+    addWidgetFullRow(panConfirm, true);
+
+    addLabeledFileBrowse(centered("networkAlignment.graph1", sizeMatch), graph1Field_, graphBrowse(graph1Field_));
+    addWidgetFullRow(new JLabel(rMan_.getPluginString("networkAlignment.hasBeen"), SwingConstants.CENTER), true);
+    addLabeledFileBrowse(centered("networkAlignment.graph2", sizeMatch), graph2Field_, graphBrowse(graph2Field_));
+    addLabeledFileBrowse(centered("networkAlignmentBatch.perfect", sizeMatch), perfectField_, perfectBrowse());
+
+    //
+    // The alignments to score, added a few at a time from the chooser:
+    //
+
+    alignModel_ = new DefaultListModel();
+    alignList_ = new JList(alignModel_);
+    JScrollPane alignScroll = new JScrollPane(alignList_);
+    alignScroll.setPreferredSize(new Dimension(400, 120));
+    JButton alignAdd = new JButton(rMan_.getPluginString("networkAlignmentBatch.add"));
+    alignAdd.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          addAlignments();
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+    JButton alignRemove = new JButton(rMan_.getPluginString("networkAlignmentBatch.remove"));
+    alignRemove.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          int[] sel = alignList_.getSelectedIndices();
+          for (int i = sel.length - 1; i >= 0; i--) {
+            alignModel_.remove(sel[i]);
+          }
+          manageOKButton();
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+    JPanel alignButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    alignButtons.add(alignAdd);
+    alignButtons.add(alignRemove);
+    JPanel alignPanel = new JPanel(new BorderLayout());
+    alignPanel.add(alignScroll, BorderLayout.CENTER);
+    alignPanel.add(alignButtons, BorderLayout.SOUTH);
+    addLabeledWidget(centered("networkAlignmentBatch.alignments", sizeMatch), alignPanel, true, true);
+
+    JButton outputBrowse = new JButton(rMan_.getPluginString("networkAlignment.browse"));
+    outputBrowse.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          File file = getOutputFile();
+          if (file != null) {
+            outputField_.setText(file.getAbsolutePath());
+          }
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+    addLabeledFileBrowse(centered("networkAlignmentBatch.output", sizeMatch), outputField_, outputBrowse);
+
+    String[] formats = new String[2];
+    formats[CSV_IDX] = rMan_.getPluginString("networkAlignmentBatch.formatCSV");
+    formats[JSON_IDX] = rMan_.getPluginString("networkAlignmentBatch.formatJSON");
+    formatCombo_ = new JComboBox(formats);
+    addLabeledWidget(centered("networkAlignmentBatch.format", sizeMatch), formatCombo_, true, true);
+
+    //
+    // How many alignments are scored at once is capped by both of these:
+    //
+
+    int defaultMemoryMB = (int)Math.min(MAX_DEFAULT_MEMORY_MB_, Runtime.getRuntime().maxMemory() / BYTES_PER_MB_ / 2L);
+    threadsField_ = new JTextField(Integer.toString(Runtime.getRuntime().availableProcessors()));
+    memoryField_ = new JTextField(Integer.toString(Math.max(1, defaultMemoryMB)));
+    addLabeledWidget(centered("networkAlignmentBatch.threads", sizeMatch), threadsField_, true, true);
+    addLabeledWidget(centered("networkAlignmentBatch.memory", sizeMatch), memoryField_, true, true);
+
+    DialogObj.Buttons buttons = finishConstruction();
+    buttonOK_ = buttons.okButton;
+    buttonOK_.setEnabled(false);
+
+    setLocationRelativeTo(parent);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+  **
+  ** Get results
+  */
+
+  public BatchInfo getBatchInfo() {
+    return (result_);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PROTECTED METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+  **
+  ** Stash our results for later interrogation.
+  */
+
+  protected boolean stashForOK() {
+    if (!hasMinRequirements()) {
+      return (false);
+    }
+    Integer maxThreads = getPositive(threadsField_);
+    Integer maxMemoryMB = getPositive(memoryField_);
+    if ((maxThreads == null) || (maxMemoryMB == null)) {
+      JOptionPane.showMessageDialog(this, rMan_.getPluginString("networkAlignmentBatch.limitsMsg"),
+                                    rMan_.getPluginString("networkAlignmentBatch.limitsMsgTitle"),
+                                    JOptionPane.ERROR_MESSAGE);
+      return (false);
+    }
+    List<File> aligns = new ArrayList<File>();
+    for (int i = 0; i < alignModel_.size(); i++) {
+      aligns.add((File)alignModel_.get(i));
+    }
+    String perfect = perfectField_.getText().trim();
+    NetworkAlignmentBatchScorer.OutputFormat format = (formatCombo_.getSelectedIndex() == JSON_IDX)
+                                                        ? NetworkAlignmentBatchScorer.OutputFormat.JSON
+                                                        : NetworkAlignmentBatchScorer.OutputFormat.CSV;
+    result_ = new BatchInfo(new File(graph1Field_.getText().trim()), new File(graph2Field_.getText().trim()),
+                            (perfect.isEmpty()) ? null : new File(perfect), aligns,
+                            new File(outputField_.getText().trim()), format,
+                            maxThreads.intValue(), maxMemoryMB.intValue());
+    return (true);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+  **
+  ** Field label sized like the others
+  */
+
+  private JLabel centered(String key, JLabel sizeMatch) {
+    JLabel retval = new MatchingJLabel(rMan_.getPluginString(key), sizeMatch);
+    retval.setHorizontalAlignment(SwingConstants.CENTER);
+    return (retval);
+  }
+
+  /***************************************************************************
+  **
+  ** Value in a text-field, or null if it is not a whole number of at least one
+  */
+
+  private Integer getPositive(JTextField field) {
+    try {
+      int val = Integer.parseInt(field.getText().trim());
+      return ((val >= 1) ? Integer.valueOf(val) : null);
+    } catch (NumberFormatException nfe) {
+      return (null);
+    }
+  }
+
+  /***************************************************************************
+  **
+  ** Browse button for a graph file
+  */
+
+  private JButton graphBrowse(final JTextField field) {
+    JButton retval = new JButton(rMan_.getPluginString("networkAlignment.browse"));
+    retval.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          File file = flf_.getTheFile(".gw", ".sif", "LoadDirectory", "filterName.graph", NetworkAlignmentBatchDialog.this);
+          if (file != null) {
+            PluginSupportFactory.getPreferenceStorage().setPreference("LoadDirectory", file.getAbsoluteFile().getParent());
+            field.setText(file.getAbsolutePath());
+          }
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+    return (retval);
+  }
+
+  /***************************************************************************
+  **
+  ** Browse button for the perfect alignment
+  */
+
+  private JButton perfectBrowse() {
+    JButton retval = new JButton(rMan_.getPluginString("networkAlignment.browse"));
+    retval.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        try {
+          File[] files = getAlignmentFiles(false);
+          if (files != null) {
+            perfectField_.setText(files[0].getAbsolutePath());
+          }
+        } catch (Exception ex) {
+          ExceptionHandler.getHandler().displayException(ex);
+        }
+      }
+    });
+    return (retval);
+  }
+
+  /***************************************************************************
+  **
+  ** Add the alignments picked in the chooser, skipping ones already listed
+  */
+
+  private void addAlignments() {
+    File[] files = getAlignmentFiles(true);
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!alignModel_.contains(file)) {
+        alignModel_.addElement(file);
+      }
+    }
+    manageOKButton();
+    return;
+  }
+
+  /***************************************************************************
+  **
+  ** Chooser for alignment files, starting in the LoadDirectory like the
+  ** alignment dialog's. Each pick must pass the standard file checks.
+  */
+
+  private File[] getAlignmentFiles(boolean multiple) {
+    JFileChooser chooser = new JFileChooser();
+    String loadDir = PluginSupportFactory.getPreferenceStorage().getPreference("LoadDirectory");
+    if (loadDir != null) {
+      File dir = new File(loadDir);
+      if (dir.isDirectory()) {
+        chooser.setCurrentDirectory(dir);
+      }
+    }
+    FileFilter filter = new NetworkAlignmentDialog.AlignmentFileFilter(rMan_.getPluginString("networkAlignment.alignFileFilter"));
+    chooser.addChoosableFileFilter(filter);
+    chooser.setFileFilter(filter);
+    chooser.setMultiSelectionEnabled(multiple);
+    if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return (null);
+    }
+    File[] files = (multiple) ? chooser.getSelectedFiles() : new File[] {chooser.getSelectedFile()};
+    if (files.length == 0) {
+      return (null);
+    }
+    for (File file : files) {
+      if (!flf_.standardFileChecks(file, FileLoadFlows.FILE_MUST_EXIST, FileLoadFlows.FILE_CAN_CREATE_DONT_CARE,
+                                   FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                   FileLoadFlows.FILE_CAN_WRITE_DONT_CARE, FileLoadFlows.FILE_CAN_READ)) {
+        return (null);
+      }
+    }
+    PluginSupportFactory.getPreferenceStorage().setPreference("LoadDirectory", files[0].getAbsoluteFile().getParent());
+    return (files);
+  }
+
+  /***************************************************************************
+  **
+  ** Chooser for the results file. Replacing an existing file is confirmed
+  ** once, by the command, whether the name was picked here or typed.
+  */
+
+  private File getOutputFile() {
+    JFileChooser chooser = new JFileChooser();
+    String loadDir = PluginSupportFactory.getPreferenceStorage().getPreference("LoadDirectory");
+    if (loadDir != null) {
+      File dir = new File(loadDir);
+      if (dir.isDirectory()) {
+        chooser.setCurrentDirectory(dir);
+      }
+    }
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return (null);
+    }
+    File file = chooser.getSelectedFile();
+    if (!flf_.standardFileChecks(file, FileLoadFlows.FILE_MUST_EXIST_DONT_CARE, FileLoadFlows.FILE_CAN_CREATE,
+                                 FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                 FileLoadFlows.FILE_CAN_WRITE, FileLoadFlows.FILE_CAN_READ_DONT_CARE)) {
+      return (null);
+    }
+    return (file);
+  }
+
+  /***************************************************************************
+  **
+  ** OK needs both graphs, an alignment, somewhere to write, and the
+  ** undirected confirmation
+  */
+
+  private boolean hasMinRequirements() {
+    return (undirectedConfirm_.isSelected() &&
+            !graph1Field_.getText().trim().isEmpty() && !graph2Field_.getText().trim().isEmpty() &&
+            !outputField_.getText().trim().isEmpty() && !alignModel_.isEmpty());
+  }
+
+  /***************************************************************************
+  **
+  ** Check whether OK button should be activated or deactivated
+  */
+
+  private void manageOKButton() {
+    if (buttonOK_ != null) {
+      buttonOK_.setEnabled(hasMinRequirements());
+    }
+    return;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+  **
+  ** What to score and where the results go. Perfect is null if not given.
+  ** The thread count and memory budget (MB) cap how many files are scored
+  ** at once.
+  */
+
+  public static class BatchInfo {
+
+    public final File graph1, graph2, perfect; // G1 is aligned to G2, as with the alignment dialog
+    public final List<File> aligns;
+    public final File output;
+    public final NetworkAlignmentBatchScorer.OutputFormat format;
+    public final int maxThreads;
+    public final int maxMemoryMB;
+
+    public BatchInfo(File graph1, File graph2, File perfect, List<File> aligns, File output,
+                     NetworkAlignmentBatchScorer.OutputFormat format, int maxThreads, int maxMemoryMB) {
+      this.graph1 = graph1;
+      this.graph2 = graph2;
+      this.perfect = perfect;
+      this.aligns = aligns;
+      this.output = output;
+      this.format = format;
+      this.maxThreads = maxThreads;
+      this.maxMemoryMB = maxMemoryMB;
+    }
+  }
+}
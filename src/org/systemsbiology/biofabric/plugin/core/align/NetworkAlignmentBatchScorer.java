@@ -0,0 +1,485 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+import org.systemsbiology.biofabric.api.util.PluginResourceManager;
+import org.systemsbiology.biofabric.api.util.UniqueLabeller;
+import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
+import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
+import org.systemsbiology.biofabric.api.worker.LoopReporter;
+
+/****************************************************************************
+ **
+ ** Scores many alignments of the same G1 and G2 without building a network
+ ** for display, writing one row of measures per alignment file as CSV or
+ ** JSON. The plugin's batch scoring command drives it. The graphs, and the
+ ** perfect alignment if there is one, are loaded and merged once and then
+ ** shared read-only by all the workers. Without a perfect alignment only EC,
+ ** S3 and ICS exist, and they come from a TopologicalScoreKernel with no
+ ** merge at all. With one, each alignment is merged (serially; the files are
+ ** what run in parallel), its links culled as a loaded alignment's are, and
+ ** handed to a NetworkAlignmentScorer. The number of files scored at once is
+ ** capped both by a thread count and by a memory budget.
+ */
+
+public class NetworkAlignmentBatchScorer {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC STATIC MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  public enum OutputFormat {CSV, JSON}
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  //
+  // Output columns for the measures, in NetworkAlignmentScorer order:
+  //
+
+  private static final NetworkAlignmentScorer.Measure[] COLUMNS_ = NetworkAlignmentScorer.Measure.values();
+
+  //
+  // Rough heap used while fully scoring one alignment, per link of G1 and G2:
+  // the merged link and its shadow, the link sets and edge classes, and the
+  // main adjacency maps. Scoring without a perfect alignment needs only a
+  // few ints per G1 node.
+  //
+
+  private static final long BYTES_PER_INPUT_LINK_ = 1024L;
+  private static final long BYTES_PER_G1_NODE_ = 64L;
+  private static final long BYTES_PER_MB_ = 1024L * 1024L;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private PluginResourceManager rMan_;
+  private ArrayList<NetLink> linksG1_;
+  private HashSet<NetNode> lonersG1_;
+  private ArrayList<NetLink> linksG2_;
+  private HashSet<NetNode> lonersG2_;
+  private AlignmentBatchLoader loader_;
+  private TopologicalScoreKernel kernel_;
+  private AlignmentGraphContext context_;
+
+  //
+  // The perfect alignment and its merge; null if there is none:
+  //
+
+  private Map<NetNode, NetNode> perfectG1toG2_;
+  private Set<NetLink> reducedLinksPerfect_;
+  private NetworkAlignment.NodeColorMap nodeColorMapPerfect_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. G1 must be the smaller graph, as with the alignment dialog.
+   ** If a perfect alignment file is given, it is loaded and merged now.
+   */
+
+  public NetworkAlignmentBatchScorer(ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
+                                     ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
+                                     File perfect, PluginResourceManager rMan,
+                                     BTProgressMonitor monitor) throws IOException, AsynchExitRequestException {
+    rMan_ = rMan;
+    linksG1_ = linksG1;
+    lonersG1_ = lonersG1;
+    linksG2_ = linksG2;
+    lonersG2_ = lonersG2;
+    loader_ = new AlignmentBatchLoader(linksG1, lonersG1, linksG2, lonersG2, rMan);
+
+    if (perfect == null) {
+      kernel_ = new TopologicalScoreKernel(linksG1, loader_.getIndexG1(), linksG2, loader_.getIndexG2());
+      return;
+    }
+
+    AlignmentBatchLoader.CompactAlignment perfectAlign = loader_.loadOne(perfect);
+    if (!perfectAlign.isLoaded()) {
+      throw (perfectAlign.error);
+    }
+    perfectG1toG2_ = perfectAlign.toNodeMap();
+
+    ArrayList<NetLink> mergedLinksPerfect = new ArrayList<NetLink>();
+    Set<NetNode> loneNodeIDsPerfect = new HashSet<NetNode>();
+    nodeColorMapPerfect_ = new NetworkAlignment.NodeColorMap();
+    NetworkAlignment netAlign = new NetworkAlignment(mergedLinksPerfect, loneNodeIDsPerfect, perfectG1toG2_, null,
+                                                     linksG1, lonersG1, linksG2, lonersG2, null, nodeColorMapPerfect_,
+                                                     new NetworkAlignment.EdgeClassColumn(),
+                                                     new NetworkAlignment.MergedNodeSources(),
+                                                     NetworkAlignmentBuildData.ViewType.GROUP, new UniqueLabeller(), monitor);
+    netAlign.mergeNetworks(NetworkAlignment.MergeMode.PARALLEL, NetworkAlignment.ShadowMode.VIRTUAL);
+    NetworkAlignment.addShadowLinks(mergedLinksPerfect);
+    reducedLinksPerfect_ = new HashSet<NetLink>();
+    NetworkAlignment.reduceLinks(mergedLinksPerfect, reducedLinksPerfect_);
+    
+    //
+    // G1, G2 and perfect adjacency is built by the first alignment to need it,
+    // then shared by all of them:
+    //
+    
+    context_ = new AlignmentGraphContext(linksG1, lonersG1, linksG2, lonersG2, reducedLinksPerfect_, loneNodeIDsPerfect);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** How many files can be scored at once with at most the given threads, and
+   ** with the per-file working memory kept within the given megabytes. At
+   ** least one file is always scored.
+   */
+
+  public int getWorkerCount(int maxThreads, int maxMemoryMB) {
+    long perFile = (kernel_ != null) ? BYTES_PER_G1_NODE_ * loader_.getIndexG1().getNodes().size()
+                                     : BYTES_PER_INPUT_LINK_ * (linksG1_.size() + linksG2_.size());
+    long byMemory = (maxMemoryMB * BYTES_PER_MB_) / Math.max(1L, perFile);
+    return ((int)Math.max(1L, Math.min((long)maxThreads, byMemory)));
+  }
+
+  /***************************************************************************
+   **
+   ** Score the files on at most getWorkerCount() threads, writing a header and
+   ** then one row per file in the order of the files. Each row is written as
+   ** soon as it and all those before it are done. A file that fails to load or
+   ** score gets a row carrying the error, and the batch goes on.
+   */
+
+  public void scoreAll(List<File> files, int maxThreads, int maxMemoryMB, Writer out, OutputFormat format,
+                       BTProgressMonitor monitor) throws IOException, AsynchExitRequestException {
+
+    int workers = Math.min(getWorkerCount(maxThreads, maxMemoryMB), Math.max(1, files.size()));
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Row>> pending = new ArrayList<Future<Row>>();
+      for (final File file : files) {
+        pending.add(pool.submit(new Callable<Row>() {
+          public Row call() {
+            return (scoreOne(file));
+          }
+        }));
+      }
+
+      writeHeader(out, format);
+      LoopReporter lr = new LoopReporter(files.size(), 20, monitor, 0.0, 1.0, "progress.scoringAlignments");
+      boolean first = true;
+      for (Future<Row> future : pending) {
+        Row row;
+        try {
+          row = future.get();
+        } catch (InterruptedException iex) {
+          throw (new AsynchExitRequestException());
+        } catch (ExecutionException eex) {
+          throw (new IllegalStateException(eex.getCause()));
+        }
+        writeRow(out, format, row, first);
+        first = false;
+        lr.report();
+      }
+      writeFooter(out, format);
+      out.flush();
+      lr.finish();
+    } finally {
+      pool.shutdownNow();
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Score a single file. The measures are indexed as the output columns, and
+   ** a measure that does not exist for the alignment is null.
+   */
+
+  public Row scoreOne(File file) {
+    AlignmentBatchLoader.CompactAlignment align = loader_.loadOne(file);
+    if (!align.isLoaded()) {
+      return (new Row(file, null, align.error.toString()));
+    }
+    try {
+      Double[] vals = (kernel_ != null) ? scoreTopology(align) : scoreFull(align.toNodeMap());
+      return (new Row(file, vals, null));
+    } catch (AsynchExitRequestException aerex) {
+      return (new Row(file, null, aerex.toString()));
+    } catch (RuntimeException rex) {
+      return (new Row(file, null, rex.toString()));
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** EC, S3 and ICS straight from the kernel
+   */
+
+  private Double[] scoreTopology(AlignmentBatchLoader.CompactAlignment align) {
+    int[] g1ToG2 = new int[loader_.getIndexG1().getNodes().size()];
+    for (int i = 0; i < g1ToG2.length; i++) {
+      g1ToG2[i] = align.getMatch(i);
+    }
+    TopologicalScoreKernel.Counts counts = kernel_.score(g1ToG2);
+    Double[] retval = new Double[COLUMNS_.length];
+    retval[NetworkAlignmentScorer.Measure.EC.ordinal()] = counts.getEC();
+    retval[NetworkAlignmentScorer.Measure.S3.ordinal()] = counts.getS3();
+    retval[NetworkAlignmentScorer.Measure.ICS.ordinal()] = counts.getICS();
+    return (retval);
+  }
+
+  /***************************************************************************
+   **
+   ** Merge the alignment against the shared perfect merge, cull its links as
+   ** the load does, and run the scorer
+   */
+
+  private Double[] scoreFull(Map<NetNode, NetNode> mapG1toG2) throws AsynchExitRequestException {
+    ArrayList<NetLink> mergedLinks = new ArrayList<NetLink>();
+    Set<NetNode> mergedLoneNodeIDs = new HashSet<NetNode>();
+    Map<NetNode, Boolean> mergedToCorrectNC = new HashMap<NetNode, Boolean>();
+    NetworkAlignment.NodeColorMap nodeColorMap = new NetworkAlignment.NodeColorMap();
+    NetworkAlignment.EdgeClassColumn edgeClasses = new NetworkAlignment.EdgeClassColumn();
+    NetworkAlignment netAlign = new NetworkAlignment(mergedLinks, mergedLoneNodeIDs, mapG1toG2, perfectG1toG2_,
+                                                     linksG1_, lonersG1_, linksG2_, lonersG2_, mergedToCorrectNC,
+                                                     nodeColorMap, edgeClasses, new NetworkAlignment.MergedNodeSources(),
+                                                     NetworkAlignmentBuildData.ViewType.GROUP, new UniqueLabeller(), null);
+    netAlign.mergeNetworks(NetworkAlignment.MergeMode.SERIAL, NetworkAlignment.ShadowMode.VIRTUAL);
+    Set<NetLink> primaryLinks = new HashSet<NetLink>(mergedLinks);
+    NetworkAlignment.addShadowLinks(mergedLinks);
+    Set<NetLink> reducedLinks = new HashSet<NetLink>();
+    NetworkAlignment.reduceLinks(mergedLinks, reducedLinks);
+    mergedLinks = null;
+
+    NetworkAlignmentScorer scorer = new NetworkAlignmentScorer(reducedLinks, primaryLinks, edgeClasses,
+                                                               mergedToCorrectNC, nodeColorMap, nodeColorMapPerfect_,
+                                                               reducedLinksPerfect_, context_.forMain(primaryLinks, mergedLoneNodeIDs),
+                                                               loader_.getIndexG1(), mapG1toG2, perfectG1toG2_,
+                                                               JaccardSimilarity.EXACT, null, rMan_);
+    Double[] retval = new Double[COLUMNS_.length];
+    for (int i = 0; i < COLUMNS_.length; i++) {
+      retval[i] = scorer.getScore(COLUMNS_[i]);
+    }
+    return (retval);
+  }
+
+  /***************************************************************************
+   **
+   ** Write the header (CSV) or open the array (JSON)
+   */
+
+  private void writeHeader(Writer out, OutputFormat format) throws IOException {
+    if (format == OutputFormat.JSON) {
+      out.write("[");
+      return;
+    }
+    out.write("file,error");
+    for (NetworkAlignmentScorer.Measure column : COLUMNS_) {
+      out.write(',');
+      out.write(column.name());
+    }
+    out.write('\n');
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Write one row. Missing measures are empty (CSV) or null (JSON).
+   */
+
+  private void writeRow(Writer out, OutputFormat format, Row row, boolean first) throws IOException {
+    if (format == OutputFormat.JSON) {
+      out.write(first ? "\n" : ",\n");
+      out.write("  {\"file\": ");
+      out.write(jsonString(row.file.getPath()));
+      out.write(", \"error\": ");
+      out.write((row.error == null) ? "null" : jsonString(row.error));
+      for (int i = 0; i < COLUMNS_.length; i++) {
+        out.write(", \"");
+        out.write(COLUMNS_[i].name());
+        out.write("\": ");
+        Double val = row.getMeasure(i);
+        out.write(((val == null) || val.isNaN() || val.isInfinite()) ? "null" : val.toString());
+      }
+      out.write("}");
+    } else {
+      out.write(csvField(row.file.getPath()));
+      out.write(',');
+      if (row.error != null) {
+        out.write(csvField(row.error));
+      }
+      for (int i = 0; i < COLUMNS_.length; i++) {
+        out.write(',');
+        Double val = row.getMeasure(i);
+        if (val != null) {
+          out.write(val.toString());
+        }
+      }
+      out.write('\n');
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Close the array (JSON)
+   */
+
+  private void writeFooter(Writer out, OutputFormat format) throws IOException {
+    if (format == OutputFormat.JSON) {
+      out.write("\n]\n");
+    }
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Quote a CSV field if it needs it
+   */
+
+  private static String csvField(String field) {
+    if ((field.indexOf(',') == -1) && (field.indexOf('"') == -1) &&
+        (field.indexOf('\n') == -1) && (field.indexOf('\r') == -1)) {
+      return (field);
+    }
+    return ("\"" + field.replace("\"", "\"\"") + "\"");
+  }
+
+  /***************************************************************************
+   **
+   ** Quote and escape a JSON string
+   */
+
+  private static String jsonString(String str) {
+    StringBuilder buf = new StringBuilder(str.length() + 2);
+    buf.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      switch (ch) {
+        case '"':
+          buf.append("\\\"");
+          break;
+        case '\\':
+          buf.append("\\\\");
+          break;
+        case '\n':
+          buf.append("\\n");
+          break;
+        case '\r':
+          buf.append("\\r");
+          break;
+        case '\t':
+          buf.append("\\t");
+          break;
+        default:
+          if (ch < 0x20) {
+            buf.append(String.format("\\u%04x", Integer.valueOf(ch)));
+          } else {
+            buf.append(ch);
+          }
+          break;
+      }
+    }
+    buf.append('"');
+    return (buf.toString());
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** The result for one alignment file: the measures in output column order,
+   ** or the error that stopped it
+   */
+
+  public static class Row {
+
+    public final File file;
+    public final String error;
+    private final Double[] vals_;
+
+    Row(File file, Double[] vals, String error) {
+      this.file = file;
+      this.vals_ = vals;
+      this.error = error;
+    }
+
+    /***************************************************************************
+     **
+     ** Output column names for the measures
+     */
+
+    public static String[] getMeasureColumns() {
+      String[] retval = new String[COLUMNS_.length];
+      for (int i = 0; i < COLUMNS_.length; i++) {
+        retval[i] = COLUMNS_[i].name();
+      }
+      return (retval);
+    }
+
+    /***************************************************************************
+     **
+     ** Measure for a column, or null
+     */
+
+    public Double getMeasure(int column) {
+      return ((vals_ == null) ? null : vals_[column]);
+    }
+  }
+}
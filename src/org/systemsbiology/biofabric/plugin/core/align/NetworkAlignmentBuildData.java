@@ -51,6 +51,8 @@ public class NetworkAlignmentBuildData implements PluginBuildData {
   //
   
   public NetworkAlignment.NodeColorMap colorMapMain;
+  public NetworkAlignment.MergedNodeSources mergedSourcesMain;
+  public NetworkAlignment mergeMain; // kept for re-merging alignment edits; null for ORPHAN views
   
   public Set<NetLink> allLinksPerfect;
   public Set<NetNode> loneNodeIDsPerfect;
@@ -59,10 +61,12 @@ public class NetworkAlignmentBuildData implements PluginBuildData {
   public Map<NetNode, Boolean> mergedToCorrectNC;
   public NodeGroupMap.PerfectNGMode mode;
   public final Double jaccSimThreshold;
+  public JaccardSimilarity jaccSimMain; // the scorer's JS values, for JS node groups
   
   public ArrayList<NetLink> linksSmall, linksLarge;
   public HashSet<NetNode> lonersSmall, lonersLarge;
-  public Set<NetNode> allLargerNodes, allSmallerNodes;
+  public NodeNameIndex smallNameIndex, largeNameIndex;
+  public AlignmentGraphContext graphContext;
   public Map<NetNode, NetNode> mapG1toG2, perfectG1toG2;
   
   public ViewType view;
@@ -72,27 +76,31 @@ public class NetworkAlignmentBuildData implements PluginBuildData {
   public boolean turnShadowsOn;
 
   public NetworkAlignmentBuildData(NetworkAlignment.NodeColorMap colorMapMain,
+                                   NetworkAlignment.MergedNodeSources mergedSourcesMain,
                                    Set<NetLink> allLinksPerfect, Set<NetNode> loneNodeIDsPerfect,
                                    NetworkAlignment.NodeColorMap colorMapPerfect,
                                    Map<NetNode, Boolean> mergedToCorrectNC,
-                                   Set<NetNode> allSmallerNodes, ArrayList<NetLink> linksSmall, HashSet<NetNode> loneNodeIDsSmall,
-                                   Set<NetNode> allLargerNodes, ArrayList<NetLink> linksLarge, HashSet<NetNode> loneNodeIDsLarge,
+                                   NodeNameIndex smallNameIndex, ArrayList<NetLink> linksSmall, HashSet<NetNode> loneNodeIDsSmall,
+                                   NodeNameIndex largeNameIndex, ArrayList<NetLink> linksLarge, HashSet<NetNode> loneNodeIDsLarge,
+                                   AlignmentGraphContext graphContext,
                                    Map<NetNode, NetNode> mapG1toG2,
                                    Map<NetNode, NetNode> perfectG1toG2,
                                    NetworkAlignmentPlugIn.NetAlignStats netAlignStats, ViewType view,
                                    NodeGroupMap.PerfectNGMode mode, final Double jaccSimThreshold,
                                    boolean useNodeGroups, boolean turnShadowsOn) {
     this.colorMapMain = colorMapMain;
+    this.mergedSourcesMain = mergedSourcesMain;
     this.allLinksPerfect = allLinksPerfect;
     this.loneNodeIDsPerfect = loneNodeIDsPerfect;
     this.colorMapPerfect = colorMapPerfect;
     this.mergedToCorrectNC = mergedToCorrectNC;
-    this.allLargerNodes = allLargerNodes;
+    this.largeNameIndex = largeNameIndex;
     this.linksLarge = linksLarge;
     this.lonersLarge = loneNodeIDsLarge;
-    this.allSmallerNodes = allSmallerNodes;
+    this.smallNameIndex = smallNameIndex;
     this.linksSmall = linksSmall;
     this.lonersSmall = loneNodeIDsSmall;
+    this.graphContext = graphContext;
     this.mapG1toG2 = mapG1toG2;
     this.perfectG1toG2 = perfectG1toG2;
     
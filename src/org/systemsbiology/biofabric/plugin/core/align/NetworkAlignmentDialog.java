@@ -21,14 +21,17 @@
 
 package org.systemsbiology.biofabric.plugin.core.align;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.Graphics;
 import java.awt.GridBagLayout;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -37,6 +40,7 @@ import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
 
 import org.systemsbiology.biofabric.api.dialog.BTStashResultsDialog;
 import org.systemsbiology.biofabric.api.dialog.DialogObj;
@@ -51,6 +55,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.text.MessageFormat;
 
 public class NetworkAlignmentDialog extends BTStashResultsDialog {
   
@@ -73,9 +78,16 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
   private File graph1File_, graph2File_, alignmentFile_, perfectAlignFile_; // perfect Alignment is optional
   private FixedJButton buttonOK_;
   private JCheckBox undirectedConfirm_;
+  private JCheckBox saveBinaryCopy_;
   private JComboBox perfectNGsCombo_;
   private JLabel jaccSimLabel_;
   private JTextField jaccSimField_;
+  private JLabel jaccSimHashesLabel_;
+  private JTextField jaccSimHashesField_;
+  private JaccSimPreview jaccSimPreview_;
+  private JaccardThresholdSweep jaccSweep_;
+  private NetworkAlignmentDialogInfo jaccSweepInfo_;
+  private JTextField orphanHopsField_;
   private FileLoadFlows flf_;
   private PluginResourceManager rMan_;
   
@@ -166,6 +178,15 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     addWidgetFullRow(new JLabel(rMan_.getPluginString("networkAlignment.hasBeen"), SwingConstants.CENTER), true);
     addLabeledFileBrowse(graph2FileMatch, graph2Field_, graph2Browse);
     addLabeledFileBrowse(alignFileMatch, alignField_, alignmentBrowse);
+    
+    //
+    // Binary copies of text alignments, read instead of the text on later loads
+    //
+    
+    saveBinaryCopy_ = new JCheckBox(rMan_.getPluginString("networkAlignment.saveBinaryCopy"));
+    JPanel panBinaryCopy = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    panBinaryCopy.add(saveBinaryCopy_);
+    addWidgetFullRow(panBinaryCopy, true);
   
     JLabel perfectNGLabel = new MatchingJLabel(rMan_.getPluginString("networkAlignment.perfectNodeGroups"), jaccSimLabelMatch);
     perfectNGLabel.setHorizontalAlignment(SwingConstants.CENTER);
@@ -207,6 +228,14 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     jaccSimLabel_.setHorizontalAlignment(SwingConstants.CENTER);
     jaccSimField_ = new JTextField(Double.toString(JACCARD_SIMILARITY_DEFAULT));
     
+    //
+    // MinHash functions for approximate Jaccard Similarity (0 for exact)
+    //
+    
+    jaccSimHashesLabel_ = new MatchingJLabel(rMan_.getPluginString("networkAlignment.jaccardSimilarityHashesLabel"), jaccSimLabelMatch);
+    jaccSimHashesLabel_.setHorizontalAlignment(SwingConstants.CENTER);
+    jaccSimHashesField_ = new JTextField(Integer.toString(JaccardSimilarity.EXACT));
+    
     //
     // No Perfect Alignment for Orphan Layout
     // 'Correct' node groups enabling
@@ -219,6 +248,33 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     
     if (analysisType_ == NetworkAlignmentBuildData.ViewType.GROUP) {
       addLabeledWidget(jaccSimLabel_, jaccSimField_, true, true);
+      addLabeledWidget(jaccSimHashesLabel_, jaccSimHashesField_, true, true);
+      JLabel jaccSimPreviewLabel = new MatchingJLabel(rMan_.getPluginString("networkAlignment.jaccardSimilarityPreviewLabel"), jaccSimLabelMatch);
+      jaccSimPreviewLabel.setHorizontalAlignment(SwingConstants.CENTER);
+      jaccSimPreview_ = new JaccSimPreview();
+      addLabeledWidget(jaccSimPreviewLabel, jaccSimPreview_, true, true);
+      jaccSimField_.getDocument().addDocumentListener(new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) {
+          manageJaccSimPreview();
+        }
+        
+        public void removeUpdate(DocumentEvent e) {
+          manageJaccSimPreview();
+        }
+        
+        public void changedUpdate(DocumentEvent e) {}
+      });
+    }
+    
+    //
+    // Context radius for Orphan Layout
+    //
+    
+    orphanHopsField_ = new JTextField(Integer.toString(NetworkAlignment.DEFAULT_ORPHAN_HOPS));
+    if (analysisType_ == NetworkAlignmentBuildData.ViewType.ORPHAN) {
+      JLabel orphanHopsLabel = new MatchingJLabel(rMan_.getPluginString("networkAlignment.orphanHopsLabel"), jaccSimLabelMatch);
+      orphanHopsLabel.setHorizontalAlignment(SwingConstants.CENTER);
+      addLabeledWidget(orphanHopsLabel, orphanHopsField_, true, true);
     }
     
     managePerfectButtons();
@@ -373,6 +429,7 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     } else {
       buttonOK_.setEnabled(false);
     }
+    manageJaccSimPreview();
     return;
   }
   
@@ -393,13 +450,52 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     if (perfectNGsCombo_.getSelectedIndex() == JS_IDX) {
       jaccSimLabel_.setEnabled(true);
       jaccSimField_.setEnabled(true);
+      jaccSimHashesLabel_.setEnabled(true);
+      jaccSimHashesField_.setEnabled(true);
     } else {
       jaccSimLabel_.setEnabled(false);
       jaccSimField_.setEnabled(false);
+      jaccSimHashesLabel_.setEnabled(false);
+      jaccSimHashesField_.setEnabled(false);
     }
+    manageJaccSimPreview();
     return;
   }
   
+  /**
+   * Redraw the JS threshold preview, if there is one
+   */
+  
+  private void manageJaccSimPreview() {
+    if (jaccSimPreview_ != null) {
+      jaccSimPreview_.setEnabled(perfectNGsCombo_.getSelectedIndex() == JS_IDX);
+      jaccSimPreview_.repaint();
+    }
+    return;
+  }
+  
+  /**
+   * The sweep, if it was made from the files now entered
+   */
+  
+  private JaccardThresholdSweep getMatchingSweep() {
+    if ((jaccSweep_ == null) || (jaccSweepInfo_.perfect == null)) {
+      return (null);
+    }
+    boolean same = sameFile(graph1Field_, jaccSweepInfo_.graph1) && sameFile(graph2Field_, jaccSweepInfo_.graph2) &&
+                   sameFile(alignField_, jaccSweepInfo_.align) && sameFile(perfectField_, jaccSweepInfo_.perfect);
+    return ((same) ? jaccSweep_ : null);
+  }
+  
+  /**
+   * Whether a text-field names the given file
+   */
+  
+  private boolean sameFile(JTextField field, File file) {
+    String text = field.getText().trim();
+    return (!text.isEmpty() && new File(text).getAbsolutePath().equals(file.getAbsolutePath()));
+  }
+  
   /**
    * Check whether any text entered in field should be made into a File
    */
@@ -458,7 +554,7 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
         break;
       case ALIGNMENT_FILE:
       case PERFECT_FILE:
-        file = flf_.getTheFile(".align", null, "LoadDirectory", "filterName.align", this);
+        file = getAlignmentFile();
         break;
       default:
         throw new IllegalArgumentException();
@@ -494,6 +590,37 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     return;
   }
   
+  /**
+   ** Chooser for alignment files. The shared FileLoadFlows chooser only takes two
+   ** suffixes, and alignments now come as .align, .alignb or .align.gz. Like that
+   ** chooser, it starts in the LoadDirectory (set again by loadFromFile()), and
+   ** the pick must pass the standard file checks.
+   */
+  
+  private File getAlignmentFile() {
+    JFileChooser chooser = new JFileChooser();
+    String loadDir = PluginSupportFactory.getPreferenceStorage().getPreference("LoadDirectory");
+    if (loadDir != null) {
+      File dir = new File(loadDir);
+      if (dir.isDirectory()) {
+        chooser.setCurrentDirectory(dir);
+      }
+    }
+    FileFilter filter = new AlignmentFileFilter(rMan_.getPluginString("networkAlignment.alignFileFilter"));
+    chooser.addChoosableFileFilter(filter);
+    chooser.setFileFilter(filter);
+    if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return (null);
+    }
+    File file = chooser.getSelectedFile();
+    if (!flf_.standardFileChecks(file, FileLoadFlows.FILE_MUST_EXIST, FileLoadFlows.FILE_CAN_CREATE_DONT_CARE,
+                                 FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                 FileLoadFlows.FILE_CAN_WRITE_DONT_CARE, FileLoadFlows.FILE_CAN_READ)) {
+      return (null);
+    }
+    return (file);
+  }
+  
   /**
    ** Checks value in JS text-field
    */
@@ -517,6 +644,33 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     return (jaccSimThresholdOK()) ? (Double.parseDouble(jaccSimField_.getText())) : null;
   }
   
+  /**
+   ** Returns value in JS hashes text-field, or null if it is neither 0 (exact) nor 1 to MAX_HASHES
+   */
+  
+  private Integer getJaccSimHashes() {
+    try {
+      int val = Integer.parseInt(jaccSimHashesField_.getText().trim());
+      boolean ok = (val == JaccardSimilarity.EXACT) || ((val >= 1) && (val <= MinHashSignatures.MAX_HASHES));
+      return ((ok) ? Integer.valueOf(val) : null);
+    } catch (NumberFormatException nfe) {
+      return (null);
+    }
+  }
+  
+  /**
+   ** Returns value in orphan hops text-field, or null if it is not a whole number of at least one
+   */
+  
+  private Integer getOrphanHops() {
+    try {
+      int val = Integer.parseInt(orphanHopsField_.getText().trim());
+      return ((val >= 1) ? Integer.valueOf(val) : null);
+    } catch (NumberFormatException nfe) {
+      return (null);
+    }
+  }
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // PUBLIC METHODS AND CLASSES
@@ -532,6 +686,20 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
                 JOptionPane.ERROR_MESSAGE);
         return;
       }
+      if (getJaccSimHashes() == null) {
+        String hashesMsg = MessageFormat.format(rMan_.getPluginString("networkAlignment.jaccardSimilarityHashesMsg"),
+                                                new Object[] {Integer.valueOf(MinHashSignatures.MAX_HASHES)});
+        JOptionPane.showMessageDialog(parent_, hashesMsg,
+                rMan_.getPluginString("networkAlignment.jaccardSimilarityHashesMsgTitle"),
+                JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
+    if ((analysisType_ == NetworkAlignmentBuildData.ViewType.ORPHAN) && (getOrphanHops() == null)) {
+      JOptionPane.showMessageDialog(parent_, rMan_.getPluginString("networkAlignment.orphanHopsMsg"),
+              rMan_.getPluginString("networkAlignment.orphanHopsMsgTitle"),
+              JOptionPane.ERROR_MESSAGE);
+      return;
     }
     try {
       manageFieldToFile();
@@ -557,6 +725,19 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     return (hasMinRequirements());
   }
   
+  /**
+   * Give the JS threshold sweep of an earlier JS node group load, and the files
+   * it was made from. While the same files are entered, the preview shows it
+   * for the threshold being typed.
+   */
+  
+  public void setJaccardSweep(JaccardThresholdSweep sweep, NetworkAlignmentDialogInfo sweepInfo) {
+    jaccSweep_ = sweep;
+    jaccSweepInfo_ = sweepInfo;
+    manageJaccSimPreview();
+    return;
+  }
+  
   public NetworkAlignmentDialogInfo getNAInfo() {
     if (! hasMinRequirements()) {
       // should never happen
@@ -564,6 +745,7 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     }
     
     Double jaccSimThreshold = null;
+    int jaccSimHashes = JaccardSimilarity.EXACT;
     NodeGroupMap.PerfectNGMode mode;
     switch (perfectNGsCombo_.getSelectedIndex()) {
       case NO_PERFECT_IDX:
@@ -579,12 +761,124 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
       case JS_IDX:
         mode = NodeGroupMap.PerfectNGMode.JACCARD_SIMILARITY;
         jaccSimThreshold = getJaccSimThreshold();
+        jaccSimHashes = getJaccSimHashes().intValue();
         break;
       default:
         // should never happen
         throw (new IllegalStateException("Illegal perfect NG mode"));
     }
-    return (new NetworkAlignmentDialogInfo(graph1File_, graph2File_, alignmentFile_, perfectAlignFile_, analysisType_, mode, jaccSimThreshold));
+    NetworkAlignmentDialogInfo retval = new NetworkAlignmentDialogInfo(graph1File_, graph2File_, alignmentFile_,
+                                                                       perfectAlignFile_, analysisType_, mode, jaccSimThreshold);
+    retval.jaccSimHashes = jaccSimHashes;
+    retval.saveBinaryCopy = saveBinaryCopy_.isSelected();
+    if (analysisType_ == NetworkAlignmentBuildData.ViewType.ORPHAN) {
+      retval.orphanHops = getOrphanHops().intValue();
+    }
+    return (retval);
+  }
+  
+  /**
+   * Accepts text, binary and gzipped alignment files
+   */
+  
+  static class AlignmentFileFilter extends FileFilter {
+    
+    private static final String[] SUFFIXES_ = {".align", AlignmentLoader.BINARY_SUFFIX, 
+                                               ".align" + AlignmentLoader.GZIP_SUFFIX};
+    private String desc_;
+    
+    AlignmentFileFilter(String desc) {
+      desc_ = desc;
+    }
+    
+    public boolean accept(File file) {
+      if (file.isDirectory()) {
+        return (true);
+      }
+      String name = file.getName().toLowerCase();
+      for (String suffix : SUFFIXES_) {
+        if (name.endsWith(suffix)) {
+          return (true);
+        }
+      }
+      return (false);
+    }
+    
+    public String getDescription() {
+      return (desc_);
+    }
+  }
+  
+  /**
+   * Fraction of nodes JS calls correct against the threshold, and the NGS of
+   * the JS node groups, with the entered threshold marked
+   */
+  
+  private class JaccSimPreview extends JPanel {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final int STEPS_ = 100;
+    private static final int TEXT_HEIGHT_ = 16;
+    
+    JaccSimPreview() {
+      setPreferredSize(new Dimension(300, 90));
+      setBackground(Color.WHITE);
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+      super.paintComponent(g);
+      int width = getWidth() - 1;
+      int height = getHeight() - 1 - TEXT_HEIGHT_;
+      JaccardThresholdSweep sweep = getMatchingSweep();
+      if ((sweep == null) || (sweep.getNumNodes() == 0)) {
+        g.setColor(Color.GRAY);
+        g.drawString(rMan_.getPluginString("networkAlignment.jaccardSimilarityPreviewNone"), 2, TEXT_HEIGHT_ - 4);
+        return;
+      }
+      Color curve = (isEnabled()) ? Color.BLUE : Color.LIGHT_GRAY;
+      Color ngsCurve = (isEnabled()) ? Color.GREEN.darker() : Color.LIGHT_GRAY;
+      Color marker = (isEnabled()) ? Color.RED : Color.LIGHT_GRAY;
+      
+      double[] thresholds = new double[STEPS_ + 1];
+      for (int i = 0; i <= STEPS_; i++) {
+        thresholds[i] = (double)i / STEPS_;
+      }
+      int[] correct = sweep.countCorrect(thresholds);
+      double[] ngs = sweep.getNGS(thresholds);
+      double numNodes = sweep.getNumNodes();
+      g.setColor(Color.LIGHT_GRAY);
+      g.drawRect(0, TEXT_HEIGHT_, width, height);
+      g.setColor(curve);
+      for (int i = 1; i <= STEPS_; i++) {
+        int x0 = (int)(thresholds[i - 1] * width), x1 = (int)(thresholds[i] * width);
+        int y0 = TEXT_HEIGHT_ + height - (int)(correct[i - 1] / numNodes * height);
+        int y1 = TEXT_HEIGHT_ + height - (int)(correct[i] / numNodes * height);
+        g.drawLine(x0, y0, x1, y1);
+      }
+      g.setColor(ngsCurve);
+      for (int i = 1; i <= STEPS_; i++) {
+        int x0 = (int)(thresholds[i - 1] * width), x1 = (int)(thresholds[i] * width);
+        int y0 = TEXT_HEIGHT_ + height - (int)(ngs[i - 1] * height);
+        int y1 = TEXT_HEIGHT_ + height - (int)(ngs[i] * height);
+        g.drawLine(x0, y0, x1, y1);
+      }
+      
+      Double threshold = getJaccSimThreshold();
+      if (threshold != null) {
+        int count = sweep.countCorrect(threshold.doubleValue());
+        int x = (int)(threshold.doubleValue() * width);
+        g.setColor(marker);
+        g.drawLine(x, TEXT_HEIGHT_, x, TEXT_HEIGHT_ + height);
+        String pct = String.format("%.1f", 100.0 * count / numNodes);
+        String ngsAt = String.format("%.4f", sweep.getNGS(new double[] {threshold.doubleValue()})[0]);
+        g.setColor(Color.BLACK);
+        g.drawString(MessageFormat.format(rMan_.getPluginString("networkAlignment.jaccardSimilarityPreviewCount"),
+                                          Integer.toString(count), Integer.toString(sweep.getNumNodes()), pct, ngsAt), 2, TEXT_HEIGHT_ - 4);
+      }
+      return;
+    }
   }
   
   /**
@@ -598,9 +892,13 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
     public final NetworkAlignmentBuildData.ViewType analysisType;
     public final NodeGroupMap.PerfectNGMode mode;
     public final Double jaccSimThreshold;
+    public int jaccSimHashes; // MinHash functions for approximate JS; JaccardSimilarity.EXACT for none
+    public boolean saveBinaryCopy; // read current .alignb copies of text alignments, or write them once read
     // Extra settings used for AlignCycleLayout:
     public boolean turnOnShadows;
     public boolean useNodeGroups;    
+    // Extra setting used for the orphan layout:
+    public int orphanHops;
     
     public NetworkAlignmentDialogInfo(File graph1, File graph2, File align, File perfect,
                                       NetworkAlignmentBuildData.ViewType analysisType, NodeGroupMap.PerfectNGMode mode,
@@ -612,6 +910,8 @@ public class NetworkAlignmentDialog extends BTStashResultsDialog {
       this.analysisType = analysisType;
       this.mode = mode;
       this.jaccSimThreshold = jaccSimThreshold;
+      this.jaccSimHashes = JaccardSimilarity.EXACT;
+      this.orphanHops = NetworkAlignment.DEFAULT_ORPHAN_HOPS;
     }
     
   }
@@ -19,9 +19,13 @@
 
 package org.systemsbiology.biofabric.plugin.core.align;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -31,6 +35,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -78,6 +84,12 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
   private String myTag_;
   private NetAlignStats publishedNetAlignStats_;
   private NetAlignStats pendingNetAlignStats_;
+  private JaccardThresholdSweep jaccSweep_;
+  private JaccardThresholdSweep pendingJaccSweep_;
+  private JaccardSimilarity pendingJaccSim_;
+  private NetworkAlignmentDialog.NetworkAlignmentDialogInfo jaccSweepInfo_;
+  private AlignmentEditState publishedEdit_;
+  private AlignmentEditState pendingEdit_;
   private FileLoadFlows flf_;
   private JFrame topWindow_;
   private BackgroundWorkerControlManager bwcm_;
@@ -103,6 +115,8 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     myCmds_.add(new LoadNetAlignOrphanCmd());
     myCmds_.add(new LoadNetAlignCaseIICmd());
     myCmds_.add(new NetAlignMeasuresCmd());
+    myCmds_.add(new EditNetAlignCmd());
+    myCmds_.add(new ScoreNetAlignBatchCmd());
     publishedNetAlignStats_ = new NetAlignStats();
     pendingNetAlignStats_ = new NetAlignStats();
     
@@ -148,6 +162,9 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
   	} else {
       publishedNetAlignStats_ = new NetAlignStats();
     }
+    // Only an alignment we have just loaded can be edited
+    publishedEdit_ = pendingEdit_;
+    pendingEdit_ = null;
     for (BioFabricToolPlugInCmd cmd : myCmds_) {
       ((Enabler)cmd).setEnabled(true);
     }
@@ -287,14 +304,39 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     		                            nadi.jaccSimThreshold, idGen, outType, cacheFile));
   }
   
+  /***************************************************************************
+   **
+   ** Load the two graphs, as for a layout, and score a batch of alignments
+   ** of them into the results file
+   */
+  
+  private boolean scoreAlignmentBatch(NetworkAlignmentBatchDialog.BatchInfo info) {
+    
+    UniqueLabeller idGen = new UniqueLabeller();
+    
+    ArrayList<NetLink> linksSmall = new ArrayList<NetLink>();
+    HashSet<NetNode> lonersSmall = new HashSet<NetNode>();
+    FileLoadFlows.FileLoadType type1 = flf_.getFileLoadType(info.graph1);
+    flf_.loadFromASource(info.graph1, linksSmall, lonersSmall, null, idGen, true, type1, false);
+    
+    ArrayList<NetLink> linksLarge = new ArrayList<NetLink>();
+    HashSet<NetNode> lonersLarge = new HashSet<NetNode>();
+    FileLoadFlows.FileLoadType type2 = flf_.getFileLoadType(info.graph2);
+    flf_.loadFromASource(info.graph2, linksLarge, lonersLarge, null, idGen, true, type2, false);
+    
+    NetAlignBatchBuilder nabb = new NetAlignBatchBuilder();
+    return (nabb.processBatch(linksSmall, lonersSmall, linksLarge, lonersLarge, info));
+  }
+  
   /**************************************************************************
    **
-   ** Load the alignment file
+   ** Load the alignment file. If binary copies are asked for, a text file
+   ** with a current binary copy beside it is read from the copy; otherwise
+   ** the copy is written after the text is read, unless it had bad lines.
    */
   
-  private Map<NetNode, NetNode> loadTheAlignmentFile(File file,
-                                                              ArrayList<NetLink> linksGraph1, HashSet<NetNode> loneNodesGraph1,
-                                                              ArrayList<NetLink> linksGraph2, HashSet<NetNode> loneNodesGraph2) {
+  private Map<NetNode, NetNode> loadTheAlignmentFile(File file, NodeNameIndex indexGraph1, NodeNameIndex indexGraph2,
+                                                     boolean saveBinaryCopy) {
     
     Map<NetNode, NetNode> mapG1toG2 = new HashMap<NetNode, NetNode>();
     try {
@@ -302,7 +344,23 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       AlignmentLoader.NetAlignFileStats stats = new AlignmentLoader.NetAlignFileStats();
       AlignmentLoader alod = new AlignmentLoader(className_, rMan_);
       
-      alod.readAlignment(file, mapG1toG2, stats, linksGraph1, loneNodesGraph1, linksGraph2, loneNodesGraph2);
+      File readFile = AlignmentLoader.fastestCopyOf(file, saveBinaryCopy);
+      if (AlignmentLoader.isBinary(readFile)) {
+        alod.readBinaryAlignment(readFile, mapG1toG2, stats, indexGraph1, indexGraph2);
+      } else {
+        alod.readAlignment(file, mapG1toG2, stats, indexGraph1, indexGraph2, AlignmentLoader.ParseMode.PARALLEL);
+        if (saveBinaryCopy) {
+          try {
+            alod.writeBinaryCopy(file, mapG1toG2, stats, indexGraph1, indexGraph2);
+          } catch (IOException ioex) { // Just slower next time
+            String copyMsg = MessageFormat.format(rMan_.getPluginString("netAlignRead.binaryCopyFailed"), 
+                                                  new Object[] {AlignmentLoader.binaryCopyOf(file).getName()});
+            JOptionPane.showMessageDialog(topWindow_, copyMsg,
+                    rMan_.getPluginString("netAlignRead.binaryCopyFailedTitle"),
+                    JOptionPane.WARNING_MESSAGE);
+          }
+        }
+      }
   
       if (!stats.badLines.isEmpty()) {
         String badLineFormat = rMan_.getPluginString("netAlignRead.badLineFormat");
@@ -336,16 +394,23 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
                                           ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
                                           Double jaccSimThreshold, UniqueLabeller idGen,
                                           NetworkAlignmentBuildData.ViewType outType, File cacheFile) {
+    
+    //
+    // Index the node names of each graph once; everything downstream shares these:
+    //
+    
+    NodeNameIndex indexSmall = new NodeNameIndex(linksSmall, lonersSmall);
+    NodeNameIndex indexLarge = new NodeNameIndex(linksLarge, lonersLarge);
+    
     // Alignment processing
-    Map<NetNode, NetNode> mapG1toG2 =
-            loadTheAlignmentFile(nadi.align, linksSmall, lonersSmall, linksLarge, lonersLarge);
+    Map<NetNode, NetNode> mapG1toG2 = loadTheAlignmentFile(nadi.align, indexSmall, indexLarge, nadi.saveBinaryCopy);
     if (mapG1toG2 == null) {
       return (true);
     }
     
     Map<NetNode, NetNode> perfectG1toG2;
     if (nadi.perfect != null) {
-      perfectG1toG2 = loadTheAlignmentFile(nadi.perfect, linksSmall, lonersSmall, linksLarge, lonersLarge);
+      perfectG1toG2 = loadTheAlignmentFile(nadi.perfect, indexSmall, indexLarge, nadi.saveBinaryCopy);
       if (perfectG1toG2 == null) {
         return (true);
       }
@@ -358,7 +423,7 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     //
     
     if (outType == NetworkAlignmentBuildData.ViewType.CYCLE && perfectG1toG2 == null) {
-      boolean isSubset = isG1subsetG2(linksSmall, lonersSmall, linksLarge, lonersLarge);
+      boolean isSubset = isG1subsetG2(indexSmall, indexLarge);
       if (!isSubset) {
         JOptionPane.showMessageDialog(topWindow_, rMan_.getPluginString("networkAlignment.cycleSubsetErrorMessage"),
                 rMan_.getPluginString("networkAlignment.cycleSubsetErrorMessageTitle"),
@@ -384,16 +449,18 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     ArrayList<NetLink> mergedLinks = new ArrayList<NetLink>();
     Set<NetNode> mergedLoneNodeIDs = new HashSet<NetNode>();
     SortedMap<AugRelation, Boolean> relMap = new TreeMap<AugRelation, Boolean>();
-    Set<NetLink> reducedLinks = new HashSet<NetLink>();
     Map<NetNode, Boolean> mergedToCorrectNC = null;
     NetworkAlignment.NodeColorMap nodeColorMap = new NetworkAlignment.NodeColorMap();
+    NetworkAlignment.EdgeClassColumn edgeClasses = new NetworkAlignment.EdgeClassColumn();
+    NetworkAlignment.MergedNodeSources mergedSources = new NetworkAlignment.MergedNodeSources();
     if (doingPerfectGroup) {
       mergedToCorrectNC = new HashMap<NetNode, Boolean>();
     }
     
     boolean finished = nab.processNetAlign(mergedLinks, mergedLoneNodeIDs, mapG1toG2, perfectG1toG2, mergedToCorrectNC,
-                                           nodeColorMap, linksSmall, lonersSmall, linksLarge, lonersLarge,
-                                           relMap, outType, idGen, cacheFile);
+                                           nodeColorMap, edgeClasses, mergedSources, linksSmall, lonersSmall,
+                                           linksLarge, lonersLarge, relMap, outType, nadi.orphanHops, idGen, cacheFile);
+    NetworkAlignment mergeMain = nab.getAlignment();
   
     //
     // Second process the perfect alignment (if given)
@@ -420,76 +487,165 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       nodeColorMapPerfect = new NetworkAlignment.NodeColorMap();
       
       finished = nab.processNetAlign(mergedLinksPerfect, mergedLoneNodeIDsPerfect, perfectG1toG2, null, null,
-              nodeColorMapPerfect, linksSmall, lonersSmall, linksLarge, lonersLarge, relMapPerfect,
-              NetworkAlignmentBuildData.ViewType.GROUP, idGen, cacheFile);
+              nodeColorMapPerfect, new NetworkAlignment.EdgeClassColumn(),
+              new NetworkAlignment.MergedNodeSources(), linksSmall, lonersSmall,
+              linksLarge, lonersLarge, relMapPerfect,
+              NetworkAlignmentBuildData.ViewType.GROUP, NetworkAlignment.DEFAULT_ORPHAN_HOPS,
+              idGen, cacheFile);
     }
   
+    if (finished && doingPerfectGroup) { // for perfect alignment
+      NetworkAlignment.addShadowLinks(mergedLinksPerfect);
+      // The main alignment's pass asks about turning on shadow links, so this one stays quiet
+      finished = flf_.handleDirectionsDupsAndShadows(mergedLinksPerfect, mergedLoneNodeIDsPerfect, false, relMapPerfect, 
+      																							 reducedLinksPerfect, cacheFile, true, true);
+    }
+    
+    if (finished) { // Reduce, score and load the main alignment
+      
+      //
+      // One set of G1, G2 and perfect adjacency maps for the scorer, the node group maps
+      // and the layout. If we are doing a CaseII Cycle layout, we want to have a full list
+      // of the nodes in both networks. The name indices carry them. Apart from ORPHAN views,
+      // the main merge is kept, so that alignment edits can be re-merged.
+      //
+      
+      AlignmentGraphContext graphContext = new AlignmentGraphContext(linksSmall, lonersSmall, linksLarge, lonersLarge,
+                                                                     reducedLinksPerfect, mergedLoneNodeIDsPerfect);
+      NetworkAlignmentBuildData nabd = new NetworkAlignmentBuildData(nodeColorMap, mergedSources, reducedLinksPerfect, mergedLoneNodeIDsPerfect, nodeColorMapPerfect,
+              mergedToCorrectNC, indexSmall, linksSmall, lonersSmall, indexLarge, linksLarge, lonersLarge, graphContext, mapG1toG2, perfectG1toG2,
+              pendingNetAlignStats_, outType, nadi.mode, jaccSimThreshold, nadi.useNodeGroups, nadi.turnOnShadows);
+      if (outType != NetworkAlignmentBuildData.ViewType.ORPHAN) {
+        nabd.mergeMain = mergeMain;
+      }
+      networkAlignmentStepThree(nadi, nabd, mergedLinks, edgeClasses, mergedLoneNodeIDs, relMap, idGen, cacheFile);
+    }
+    pendingNetAlignStats_ = new NetAlignStats();
+    return (true);
+  }
+  
+  /***************************************************************************
+   **
+   ** Reduce a main merge, score it and load it. The merged links are the non-shadow
+   ** links, in step with the edge classes. If the build data keeps the merge for
+   ** edits they are left as they are; else they are used up.
+   */
+  
+  private boolean networkAlignmentStepThree(NetworkAlignmentDialog.NetworkAlignmentDialogInfo nadi,
+                                            NetworkAlignmentBuildData nabd, ArrayList<NetLink> mergedLinks,
+                                            NetworkAlignment.EdgeClassColumn edgeClasses, Set<NetNode> mergedLoneNodeIDs,
+                                            SortedMap<AugRelation, Boolean> relMap, UniqueLabeller idGen, File cacheFile) {
+    
     // Warn user of alignment with only singletons
-    if (finished && mergedLinks.isEmpty()) {
+    if (mergedLinks.isEmpty()) {
       JOptionPane.showMessageDialog(topWindow_, rMan_.getPluginString("networkAlignment.emptyNetwork"),
               rMan_.getPluginString("networkAlignment.emptyNetworkTitle"),
               JOptionPane.WARNING_MESSAGE);
     }
     
-    if (finished) { // for main alignment
-    	// If we have just singletons, we can skip the shadow question (though with no links it will not
-    	// be asked anyway. More importantly, if user forced it on previously, don't ask again.
-    	boolean skip_shadows = (mergedLinks.isEmpty() || nadi.turnOnShadows);
-      finished = flf_.handleDirectionsDupsAndShadows(mergedLinks, mergedLoneNodeIDs, false, relMap, reducedLinks, cacheFile, true, skip_shadows);
-    }
+    //
+    // The merges leave the shadow links out; make them now, just before they go
+    // to the layout. The non-shadow links are kept for scoring.
+    //
+    
+    Set<NetLink> primaryLinks = new HashSet<NetLink>(mergedLinks);
+    ArrayList<NetLink> layoutLinks = (nabd.mergeMain != null) ? new ArrayList<NetLink>(mergedLinks) : mergedLinks;
+    NetworkAlignment.addShadowLinks(layoutLinks);
+    
+  	// If we have just singletons, we can skip the shadow question (though with no links it will not
+  	// be asked anyway. More importantly, if user forced it on previously, don't ask again.
+    boolean skip_shadows = (layoutLinks.isEmpty() || nadi.turnOnShadows);
+    Set<NetLink> reducedLinks = new HashSet<NetLink>();
+    boolean finished = flf_.handleDirectionsDupsAndShadows(layoutLinks, mergedLoneNodeIDs, false, relMap, reducedLinks, cacheFile, true, skip_shadows);
+    assert (!finished || matchesBatchReduction(layoutLinks, reducedLinks));
+    layoutLinks.clear(); // reducedLinks has them now
+    layoutLinks.trimToSize();
+    layoutLinks = null;
     
-    if (finished && doingPerfectGroup) { // for perfect alignment
-    	// Doing this a second time, we want to shut up the question about turning on shadow links (just got asked)
-      finished = flf_.handleDirectionsDupsAndShadows(mergedLinksPerfect, mergedLoneNodeIDsPerfect, false, relMapPerfect, 
-      																							 reducedLinksPerfect, cacheFile, true, true);
-    }
-  
     if (finished) { // Score Report
-      finished = networkAlignmentStepFour(reducedLinks, mergedLoneNodeIDs, nodeColorMap, mergedToCorrectNC,
-              reducedLinksPerfect, mergedLoneNodeIDsPerfect, nodeColorMapPerfect, pendingNetAlignStats_,
-              linksSmall, lonersSmall, linksLarge, lonersLarge, mapG1toG2, perfectG1toG2);
+      nabd.graphContext = nabd.graphContext.forMain(primaryLinks, mergedLoneNodeIDs);
+      nabd.netAlignStats = pendingNetAlignStats_;
+      pendingJaccSweep_ = null;
+      pendingJaccSim_ = null;
+      boolean keepJaccSweep = (nadi.mode == NodeGroupMap.PerfectNGMode.JACCARD_SIMILARITY);
+      finished = networkAlignmentStepFour(reducedLinks, primaryLinks, edgeClasses, nabd.colorMapMain, nabd.mergedToCorrectNC,
+              nabd.allLinksPerfect, nabd.colorMapPerfect, pendingNetAlignStats_,
+              nabd.graphContext, nabd.smallNameIndex, nabd.mapG1toG2, nabd.perfectG1toG2, nadi.jaccSimHashes, keepJaccSweep);
+      nabd.jaccSimMain = pendingJaccSim_; // the JS node groups use the scored values
+      pendingJaccSim_ = null;
+    }
+    
+    if (finished && (pendingJaccSweep_ != null)) { // keep the JS thresholds to preview next time
+      jaccSweep_ = pendingJaccSweep_;
+      jaccSweepInfo_ = nadi;
+      pendingJaccSweep_ = null;
+    }
+    
+    if (finished) { // Load the alignment
+      pendingEdit_ = (nabd.mergeMain != null) ? new AlignmentEditState(nadi, nabd, idGen) : null;
+      // The build keeps its own loners; an edit changes the merge's set in place
+      finished = networkAlignmentStepFive(reducedLinks, new HashSet<NetNode>(mergedLoneNodeIDs), nabd, idGen, nadi.align, cacheFile);
+      pendingEdit_ = null;
     }
-   
-    if (finished) { // Load the alignments
-      
-      //
-      // If we are doing a CaseII Cycle layout, we want to have a full list of the nodes in both
-      // networks:
-      //
+    return (finished);
+  }
   
-      BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
-      Set<NetNode> allLargerNodes, allSmallerNodes;
-      try {
-        allLargerNodes = bex.extractNodes(linksLarge, lonersLarge,null);
-        allSmallerNodes = bex.extractNodes(linksSmall,lonersSmall, null);
-      } catch (AsynchExitRequestException aere) {
-        throw (new IllegalStateException("Error met while extracting nodes"));
-        // shouldn't happen
-      }
-      NetworkAlignmentBuildData nabd = new NetworkAlignmentBuildData(nodeColorMap, reducedLinksPerfect, mergedLoneNodeIDsPerfect, nodeColorMapPerfect,
-              mergedToCorrectNC, allSmallerNodes, linksSmall, lonersSmall, allLargerNodes, linksLarge, lonersLarge, mapG1toG2, perfectG1toG2,
-              pendingNetAlignStats_, outType, nadi.mode, jaccSimThreshold, nadi.useNodeGroups, nadi.turnOnShadows);
+  /***************************************************************************
+   **
+   ** Whether the batch scorer's culling keeps the same links as the load's, so
+   ** batch NGS and LGS agree with those of a loaded alignment
+   */
+  
+  private static boolean matchesBatchReduction(List<NetLink> links, Set<NetLink> reducedLinks) {
+    Set<NetLink> batchLinks = new HashSet<NetLink>();
+    NetworkAlignment.reduceLinks(links, batchLinks);
+    return (batchLinks.equals(reducedLinks));
+  }
+  
+  /***************************************************************************
+   **
+   ** Apply edits to the alignment last loaded, and load the re-merged result.
+   ** Each entry gives a G1 node its new G2 partner; see NetworkAlignment.remerge().
+   ** Only the merge is redone incrementally: the reduction, the scores and the
+   ** layout are made again as for a new load.
+   */
   
-      networkAlignmentStepFive(reducedLinks, mergedLoneNodeIDs, nabd, idGen, nadi.align, cacheFile);
+  private boolean editAlignment(Map<NetNode, NetNode> changes) {
+    AlignmentEditState edit = publishedEdit_;
+    publishedEdit_ = null; // its merge is about to change; a successful load publishes it again
+    File holdIt;
+    try {
+      holdIt = File.createTempFile("BioFabricHold", ".zip");
+      holdIt.deleteOnExit();
+    } catch (IOException ioex) {
+      holdIt = null;
+    }
+    
+    SortedMap<AugRelation, Boolean> relMap = new TreeMap<AugRelation, Boolean>();
+    NetworkAlignmentBuilder nab = new NetworkAlignmentBuilder();
+    boolean finished = nab.processRemerge(edit.nabd.mergeMain, changes, relMap, holdIt);
+    if (finished) {
+      NetworkAlignment mergeMain = edit.nabd.mergeMain;
+      networkAlignmentStepThree(edit.nadi, edit.nabd, mergeMain.getMergedLinks(), mergeMain.getEdgeClasses(),
+                                mergeMain.getMergedLoners(), relMap, edit.idGen, holdIt);
     }
     pendingNetAlignStats_ = new NetAlignStats();
     return (true);
   }
   
-
-  
   /***************************************************************************
    **
    ** Process NetAlign Score Reports
    */
   
-  private boolean networkAlignmentStepFour(Set<NetLink> reducedLinks, Set<NetNode> loneNodeIDs, NetworkAlignment.NodeColorMap nodeColorMap,
+  private boolean networkAlignmentStepFour(Set<NetLink> reducedLinks, Set<NetLink> primaryLinks,
+                                           NetworkAlignment.EdgeClassColumn primaryClasses, NetworkAlignment.NodeColorMap nodeColorMap,
                                            Map<NetNode, Boolean> mergedToCorrectNC, Set<NetLink> reducedLinksPerfect,
-                                           Set<NetNode> loneNodeIDsPerfect, NetworkAlignment.NodeColorMap nodeColorMapPerfect,
-                                           NetAlignStats report,
-                                           ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                                           ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
-                                           Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2) {
+                                           NetworkAlignment.NodeColorMap nodeColorMapPerfect,
+                                           NetAlignStats report, AlignmentGraphContext graphContext,
+                                           NodeNameIndex indexSmall,
+                                           Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
+                                           int jaccSimHashes, boolean keepJaccSweep) {
     File holdIt;
     try {
       holdIt = File.createTempFile("BioFabricHold", ".zip");
@@ -499,9 +655,9 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     }
     NetAlignMeasureBuilder namb = new NetAlignMeasureBuilder();
     
-    boolean finished = namb.processNetAlignMeasures(reducedLinks, loneNodeIDs, nodeColorMap, mergedToCorrectNC,
-            reducedLinksPerfect, loneNodeIDsPerfect, nodeColorMapPerfect, report, linksSmall, lonersSmall,
-            linksLarge, lonersLarge, mapG1toG2, perfectG1toG2, holdIt);
+    boolean finished = namb.processNetAlignMeasures(reducedLinks, primaryLinks, primaryClasses, nodeColorMap, mergedToCorrectNC,
+            reducedLinksPerfect, nodeColorMapPerfect, report, graphContext, indexSmall, mapG1toG2, perfectG1toG2,
+            jaccSimHashes, keepJaccSweep, holdIt);
     
     return (finished);
   }
@@ -538,31 +694,8 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
    ** Check if G1's nodes are subset of G2's
    */
   
-  private boolean isG1subsetG2(ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                               ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge) {
-  
-    Set<NetNode> nodesG1 = null, nodesG2 = null;
-    try {
-      BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
-      nodesG1 = bex.extractNodes(linksSmall, lonersSmall, null);
-      nodesG2 = bex.extractNodes(linksLarge, lonersLarge, null);
-    } catch (AsynchExitRequestException aere) {
-      // should never happen
-    }
-    
-    if (nodesG1 == null || nodesG2 == null) {
-      throw (new IllegalStateException("Node Set null in subset test"));
-    }
-    
-    Set<String> namesG1 = new HashSet<String>(), namesG2 = new HashSet<String>();
-    for (NetNode node : nodesG1) {
-      namesG1.add(node.getName());
-    }
-    for (NetNode node : nodesG2) {
-      namesG2.add(node.getName());
-    }
-    
-    return (namesG2.containsAll(namesG1));
+  private boolean isG1subsetG2(NodeNameIndex indexSmall, NodeNameIndex indexLarge) {
+    return (indexLarge.containsAllNames(indexSmall));
   }
   
   ////////////////////////////////////////////////////////////////////////////
@@ -608,6 +741,50 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       return (enabled_ && publishedNetAlignStats_.hasStats());
     } 
   }
+  
+  /***************************************************************************
+  **
+  ** Command
+  */
+  
+  private class EditNetAlignCmd implements BioFabricToolPlugInCmd, Enabler {
+   
+  	private boolean enabled_;
+  	
+    public void setEnabled(boolean isEnabled) {
+    	enabled_ = isEnabled;
+      return;
+    }
+      
+    public String getCommandName() {
+      return (rMan_.getPluginString("command.netAlignEdit"));
+    }   
+    
+    public boolean performOperation(JFrame topFrame) {
+      if ((publishedEdit_ == null) || !enabled_) {
+        return (false);
+      }
+      
+      //
+      // The edits come as an alignment file of just the changed pairs:
+      //
+      
+      File file = flf_.getTheFile(".align", null, "LoadDirectory", "filterName.align", topFrame);
+      if (file == null) {
+        return (false);
+      }
+      NetworkAlignmentBuildData nabd = publishedEdit_.nabd;
+      Map<NetNode, NetNode> changes = loadTheAlignmentFile(file, nabd.smallNameIndex, nabd.largeNameIndex, false);
+      if ((changes == null) || changes.isEmpty()) {
+        return (false);
+      }
+      return (editAlignment(changes));
+    }
+  
+    public boolean isEnabled() {
+      return (enabled_ && (publishedEdit_ != null));
+    } 
+  }
  
   /***************************************************************************
   **
@@ -629,6 +806,7 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       NetworkAlignmentDialog nad = new NetworkAlignmentDialog(topFrame,  
                                                               NetworkAlignmentBuildData.ViewType.GROUP, 
                                                               className_, flf_, rMan_);
+      nad.setJaccardSweep(jaccSweep_, jaccSweepInfo_);
       nad.setVisible(true);
       
       if(!nad.haveResult()) {
@@ -785,6 +963,78 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     }
   }
   
+  /***************************************************************************
+   **
+   ** Command
+   */
+  
+  private class ScoreNetAlignBatchCmd implements BioFabricToolPlugInCmd, Enabler {
+    
+    public void setEnabled(boolean isEnabled) {
+      return; // Always enabled  
+    }
+    
+    public String getCommandName() {
+      return (rMan_.getPluginString("command.netAlignBatchScore"));  
+    }
+    
+    public boolean performOperation(JFrame topFrame) {
+      
+      NetworkAlignmentBatchDialog nabd = new NetworkAlignmentBatchDialog(topFrame, flf_, rMan_);
+      nabd.setVisible(true);
+      
+      if (!nabd.haveResult()) {
+        return (false);
+      }
+      
+      NetworkAlignmentBatchDialog.BatchInfo info = nabd.getBatchInfo();
+      
+      boolean filesNotOkay =
+              !flf_.standardFileChecks(info.graph1, FileLoadFlows.FILE_MUST_EXIST, FileLoadFlows.FILE_CAN_CREATE_DONT_CARE,
+                                       FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                       FileLoadFlows.FILE_CAN_WRITE_DONT_CARE, FileLoadFlows.FILE_CAN_READ) ||
+              !flf_.standardFileChecks(info.graph2, FileLoadFlows.FILE_MUST_EXIST, FileLoadFlows.FILE_CAN_CREATE_DONT_CARE,
+                                       FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                       FileLoadFlows.FILE_CAN_WRITE_DONT_CARE, FileLoadFlows.FILE_CAN_READ) ||
+              !flf_.standardFileChecks(info.output, FileLoadFlows.FILE_MUST_EXIST_DONT_CARE, FileLoadFlows.FILE_CAN_CREATE,
+                                       FileLoadFlows.FILE_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                       FileLoadFlows.FILE_CAN_WRITE, FileLoadFlows.FILE_CAN_READ_DONT_CARE);
+      if (!filesNotOkay && (info.perfect != null)) {
+        filesNotOkay = !flf_.standardFileChecks(info.perfect, FileLoadFlows.FILE_MUST_EXIST, FileLoadFlows.FILE_CAN_CREATE_DONT_CARE,
+                                                FileLoadFlows.FILE_DONT_CHECK_OVERWRITE, FileLoadFlows.FILE_MUST_BE_FILE,
+                                                FileLoadFlows.FILE_CAN_WRITE_DONT_CARE, FileLoadFlows.FILE_CAN_READ);
+      }
+      
+      if (filesNotOkay) {
+        return (false);
+      }
+      return (scoreAlignmentBatch(info));
+    }
+    
+    public boolean isEnabled() {
+      return (true); // Always enabled      
+    }
+  }
+  
+  /***************************************************************************
+   **
+   ** What an alignment edit needs from the load it edits
+   */
+  
+  private static class AlignmentEditState {
+    
+    final NetworkAlignmentDialog.NetworkAlignmentDialogInfo nadi;
+    final NetworkAlignmentBuildData nabd;
+    final UniqueLabeller idGen;
+    
+    AlignmentEditState(NetworkAlignmentDialog.NetworkAlignmentDialogInfo nadi, NetworkAlignmentBuildData nabd,
+                       UniqueLabeller idGen) {
+      this.nadi = nadi;
+      this.nabd = nabd;
+      this.idGen = idGen;
+    }
+  }
+  
   /****************************************************************************
   **
   ** Contains common network alignment scores
@@ -877,31 +1127,56 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     
     private File holdIt_;
     private boolean finished_;
+    private NetworkAlignment netAlign_;
     
     public boolean processNetAlign(ArrayList<NetLink> mergedLinks, Set<NetNode> mergedLoneNodeIDs,
                                    Map<NetNode, NetNode> mapG1toG2,
                                    Map<NetNode, NetNode> perfectG1toG2,
                                    Map<NetNode, Boolean> mergedToCorrect,
                                    NetworkAlignment.NodeColorMap nodeColorMap,
+                                   NetworkAlignment.EdgeClassColumn edgeClasses,
+                                   NetworkAlignment.MergedNodeSources mergedSources,
                                    ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
                                    ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
                                    SortedMap<AugRelation, Boolean> relMap,
-                                   NetworkAlignmentBuildData.ViewType outType, UniqueLabeller idGen, File holdIt) {
+                                   NetworkAlignmentBuildData.ViewType outType, int orphanHops,
+                                   UniqueLabeller idGen, File holdIt) {
       finished_= true;
       holdIt_ = holdIt;
       try {    	
       	BFWorker bfw = PluginSupportFactory.getBFWorker(this, topWindow_, bwcm_, "fileLoad.waitTitle", "fileLoad.wait", true, rMan_);
         NetworkAlignmentRunner runner = new NetworkAlignmentRunner(mergedLinks, mergedLoneNodeIDs, mapG1toG2, perfectG1toG2,
-                                                                   mergedToCorrect, nodeColorMap, linksG1, lonersG1, linksG2,
-                                                                   lonersG2, relMap, outType, idGen, bfw);
+                                                                   mergedToCorrect, nodeColorMap, edgeClasses, mergedSources, linksG1, lonersG1, linksG2,
+                                                                   lonersG2, relMap, outType, orphanHops, idGen, bfw);
         bfw.setCore(runner);
         bfw.launchWorker();
+        netAlign_ = runner.getAlignment();
       } catch (Exception ex) {
         ExceptionHandler.getHandler().displayException(ex);
       }
       return (finished_);
     }
     
+    public boolean processRemerge(NetworkAlignment netAlign, Map<NetNode, NetNode> changes,
+                                  SortedMap<AugRelation, Boolean> relMap, File holdIt) {
+      finished_= true;
+      holdIt_ = holdIt;
+      netAlign_ = netAlign;
+      try {
+      	BFWorker bfw = PluginSupportFactory.getBFWorker(this, topWindow_, bwcm_, "fileLoad.waitTitle", "fileLoad.wait", true, rMan_);
+        NetworkRemergeRunner runner = new NetworkRemergeRunner(netAlign, changes, relMap, bfw);
+        bfw.setCore(runner);
+        bfw.launchWorker();
+      } catch (Exception ex) {
+        ExceptionHandler.getHandler().displayException(ex);
+      }
+      return (finished_);
+    }
+    
+    public NetworkAlignment getAlignment() {
+      return (netAlign_);
+    }
+    
     public boolean handleRemoteException(Exception remoteEx) {
       finished_ = false;
       return (false);
@@ -933,11 +1208,15 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     private Map<NetNode, NetNode> mapG1toG2_, perfectG1toG2_;
     private Map<NetNode, Boolean> mergedToCorrect_;
     private NetworkAlignment.NodeColorMap nodeColorMap_;
+    private NetworkAlignment.EdgeClassColumn edgeClasses_;
+    private NetworkAlignment.MergedNodeSources mergedSources_;
     private ArrayList<NetLink> linksG1_, linksG2_;
     private HashSet<NetNode> lonersG1_, lonersG2_;
     private SortedMap<AugRelation, Boolean> relMap_;
     private NetworkAlignmentBuildData.ViewType outType_;
+    private int orphanHops_;
     private UniqueLabeller idGen_;
+    private NetworkAlignment netAlign_;
     private BFWorker bfwk_;
     
     public NetworkAlignmentRunner(ArrayList<NetLink> mergedLinks, Set<NetNode> mergedLoners,
@@ -945,10 +1224,12 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
                                   Map<NetNode, NetNode> perfectG1toG2,
                                   Map<NetNode, Boolean> mergedToCorrect,
                                   NetworkAlignment.NodeColorMap nodeColorMap,
+                                  NetworkAlignment.EdgeClassColumn edgeClasses,
+                                  NetworkAlignment.MergedNodeSources mergedSources,
                                   ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
                                   ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
                                   SortedMap<AugRelation, Boolean> relMap,
-                                  NetworkAlignmentBuildData.ViewType outType, 
+                                  NetworkAlignmentBuildData.ViewType outType, int orphanHops,
                                   UniqueLabeller idGen, BFWorker bfwk) {
       
       this.bfwk_ = bfwk;
@@ -958,12 +1239,15 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       this.perfectG1toG2_ = perfectG1toG2;
       this.mergedToCorrect_ = mergedToCorrect;
       this.nodeColorMap_ = nodeColorMap;
+      this.edgeClasses_ = edgeClasses;
+      this.mergedSources_ = mergedSources;
       this.linksG1_ = linksG1;
       this.lonersG1_ = lonersG1;
       this.linksG2_ = linksG2;
       this.lonersG2_ = lonersG2;
       this.relMap_ = relMap;
       this.outType_ = outType;
+      this.orphanHops_ = orphanHops;
       this.idGen_ = idGen;
     }
     
@@ -975,11 +1259,57 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
       
     	BTProgressMonitor monitor = bfwk_.getMonitor();
       NetworkAlignment netAlign = new NetworkAlignment(mergedLinks_, mergedLoneNodeIDs_, mapG1toG2_, perfectG1toG2_,
-              linksG1_, lonersG1_, linksG2_, lonersG2_, mergedToCorrect_, nodeColorMap_, outType_, idGen_, monitor);
+              linksG1_, lonersG1_, linksG2_, lonersG2_, mergedToCorrect_, nodeColorMap_, edgeClasses_, mergedSources_,
+              outType_, idGen_, monitor);
+      netAlign.setOrphanHops(orphanHops_);
       
-      netAlign.mergeNetworks();
+      netAlign.mergeNetworks(NetworkAlignment.MergeMode.PARALLEL, NetworkAlignment.ShadowMode.VIRTUAL);
       BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
       bex.extractRelations(mergedLinks_, relMap_, monitor);
+      netAlign_ = netAlign;
+      return (new Boolean(true));
+    }
+    
+    public Object postRunCore() {
+      return null;
+    }
+    
+    public NetworkAlignment getAlignment() {
+      return (netAlign_);
+    }
+  }
+  
+  /***************************************************************************
+   **
+   ** Background re-merge of an edited alignment
+   */
+  
+  private class NetworkRemergeRunner implements BackgroundCore {
+    
+    private NetworkAlignment netAlign_;
+    private Map<NetNode, NetNode> changes_;
+    private SortedMap<AugRelation, Boolean> relMap_;
+    private BFWorker bfwk_;
+    
+    public NetworkRemergeRunner(NetworkAlignment netAlign, Map<NetNode, NetNode> changes,
+                                SortedMap<AugRelation, Boolean> relMap, BFWorker bfwk) {
+      this.netAlign_ = netAlign;
+      this.changes_ = changes;
+      this.relMap_ = relMap;
+      this.bfwk_ = bfwk;
+    }
+    
+    public Object getEarlyResult() {
+      return (new Boolean(false));
+    }
+    
+    public Object runCore() throws AsynchExitRequestException {
+      BTProgressMonitor monitor = bfwk_.getMonitor();
+      netAlign_.remerge(changes_);
+      // With assertions on, every edit is checked against merging the new alignment from scratch:
+      assert netAlign_.matchesFullMerge(monitor) : "Re-merge differs from a full merge";
+      BuildExtractor bex = PluginSupportFactory.getBuildExtractor();
+      bex.extractRelations(netAlign_.getMergedLinks(), relMap_, monitor);
       return (new Boolean(true));
     }
     
@@ -998,22 +1328,23 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     private File holdIt_;
     private boolean finished_;
     
-    public boolean processNetAlignMeasures(Set<NetLink> reducedLinks, Set<NetNode> loneNodeIDs, NetworkAlignment.NodeColorMap nodeColorMap,
+    public boolean processNetAlignMeasures(Set<NetLink> reducedLinks, Set<NetLink> primaryLinks,
+                                           NetworkAlignment.EdgeClassColumn primaryClasses, NetworkAlignment.NodeColorMap nodeColorMap,
                                            Map<NetNode, Boolean> mergedToCorrectNC, Set<NetLink> reducedLinksPerfect,
-                                           Set<NetNode> loneNodeIDsPerfect, NetworkAlignment.NodeColorMap nodeColorMapPerfect,
-                                           NetAlignStats report,
-                                           ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                                           ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
-                                           Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2, File holdIt) {
+                                           NetworkAlignment.NodeColorMap nodeColorMapPerfect,
+                                           NetAlignStats report, AlignmentGraphContext graphContext,
+                                           NodeNameIndex indexSmall,
+                                           Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
+                                           int jaccSimHashes, boolean keepJaccSweep, File holdIt) {
       finished_ = true;
       holdIt_ = holdIt;
       try {
       	
       	BFWorker bfw = PluginSupportFactory.getBFWorker(this, topWindow_, bwcm_, "fileLoad.waitTitle", "fileLoad.wait", true, rMan_);
-        NetAlignMeasureRunner runner = new NetAlignMeasureRunner(reducedLinks, loneNodeIDs, nodeColorMap, mergedToCorrectNC,
-        		                                                     reducedLinksPerfect, loneNodeIDsPerfect, nodeColorMapPerfect,
-        		                                                     report, linksSmall, lonersSmall, linksLarge, 
-        		                                                     lonersLarge, mapG1toG2, perfectG1toG2, bfw, rMan_);
+        NetAlignMeasureRunner runner = new NetAlignMeasureRunner(reducedLinks, primaryLinks, primaryClasses, nodeColorMap, mergedToCorrectNC,
+        		                                                     reducedLinksPerfect, nodeColorMapPerfect,
+        		                                                     report, graphContext, indexSmall, mapG1toG2, perfectG1toG2,
+        		                                                     jaccSimHashes, keepJaccSweep, bfw, rMan_);
         bfw.setCore(runner);
         bfw.launchWorker();
       } catch (Exception ex) {
@@ -1041,6 +1372,115 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
     }
   }
   
+  /***************************************************************************
+   **
+   ** Class for scoring a batch of alignments
+   */
+  
+  private class NetAlignBatchBuilder implements BackgroundWorkerOwner {
+    
+    private boolean finished_;
+    
+    public boolean processBatch(ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
+                                ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
+                                NetworkAlignmentBatchDialog.BatchInfo info) {
+      finished_ = true;
+      try {
+        BFWorker bfw = PluginSupportFactory.getBFWorker(this, topWindow_, bwcm_, "fileLoad.waitTitle", "fileLoad.wait", true, rMan_);
+        NetAlignBatchRunner runner = new NetAlignBatchRunner(linksG1, lonersG1, linksG2, lonersG2, info, bfw);
+        bfw.setCore(runner);
+        bfw.launchWorker();
+        if (runner.getIOError() != null) {
+          flf_.displayFileInputError(runner.getIOError());
+          finished_ = false;
+        }
+      } catch (Exception ex) {
+        ExceptionHandler.getHandler().displayException(ex);
+      }
+      return (finished_);
+    }
+    
+    public boolean handleRemoteException(Exception remoteEx) {
+      finished_ = false;
+      return (false);
+    }
+  
+    public boolean handleCancellation() {
+      finished_ = false; // the network on display was never touched
+      return (true);
+    }
+  
+    public void cleanUpPreEnable(Object result) {
+      return;
+    }
+  
+    public void cleanUpPostRepaint(Object result, boolean skipImage) {
+      return;
+    }
+  }
+  
+  /***************************************************************************
+   **
+   ** Background batch scoring. The results file is written row by row, so a
+   ** cancelled batch leaves the rows finished so far.
+   */
+  
+  private class NetAlignBatchRunner implements BackgroundCore {
+    
+    private ArrayList<NetLink> linksG1_, linksG2_;
+    private HashSet<NetNode> lonersG1_, lonersG2_;
+    private NetworkAlignmentBatchDialog.BatchInfo info_;
+    private BFWorker bfwk_;
+    private IOException ioError_;
+    
+    public NetAlignBatchRunner(ArrayList<NetLink> linksG1, HashSet<NetNode> lonersG1,
+                               ArrayList<NetLink> linksG2, HashSet<NetNode> lonersG2,
+                               NetworkAlignmentBatchDialog.BatchInfo info, BFWorker bfwk) {
+      this.linksG1_ = linksG1;
+      this.lonersG1_ = lonersG1;
+      this.linksG2_ = linksG2;
+      this.lonersG2_ = lonersG2;
+      this.info_ = info;
+      this.bfwk_ = bfwk;
+    }
+    
+    public IOException getIOError() {
+      return (ioError_);
+    }
+    
+    public Object getEarlyResult() {
+      return (new Boolean(false));
+    }
+  
+    public Object runCore() throws AsynchExitRequestException {
+      Writer out = null;
+      try {
+        NetworkAlignmentBatchScorer scorer = new NetworkAlignmentBatchScorer(linksG1_, lonersG1_, linksG2_, lonersG2_,
+                                                                             info_.perfect, rMan_, bfwk_.getMonitor());
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(info_.output), "UTF-8"));
+        scorer.scoreAll(info_.aligns, info_.maxThreads, info_.maxMemoryMB, out, info_.format, bfwk_.getMonitor());
+      } catch (IOException ioex) {
+        ioError_ = ioex;
+        return (new Boolean(false));
+      } finally {
+        if (out != null) {
+          try {
+            out.close();
+          } catch (IOException ioex) {
+            if (ioError_ == null) {
+              ioError_ = ioex;
+            }
+          }
+        }
+      }
+      return (new Boolean(true));
+    }
+  
+    public Object postRunCore() {
+      return (null);
+    }
+  }
+  
   /***************************************************************************
    **
    ** Background network alignment measure processing
@@ -1050,45 +1490,47 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
   
     private Map<NetNode, NetNode> mapG1toG2_;
     private Set<NetLink> reducedLinks_;
-    private Set<NetNode> loneNodeIDs_;
+    private Set<NetLink> primaryLinks_;
+    private NetworkAlignment.EdgeClassColumn primaryClasses_;
     private NetworkAlignment.NodeColorMap nodeColorMap_;
     private Map<NetNode, Boolean> mergedToCorrectNC_;
     private Map<NetNode, NetNode> perfectG1toG2_;
     private Set<NetLink> reducedLinksPerfect_;
-    private Set<NetNode> loneNodeIDsPerfect_;
     private NetworkAlignment.NodeColorMap nodeColorMapPerfect_;
   
-    private ArrayList<NetLink> linksSmall_, linksLarge_;
-    private HashSet<NetNode> lonersSmall_, lonersLarge_;
+    private AlignmentGraphContext graphContext_;
+    private NodeNameIndex indexSmall_;
     private NetAlignStats report_;
+    private int jaccSimHashes_;
+    private boolean keepJaccSweep_;
     private BFWorker bfwk_;
     private PluginResourceManager rMan_;
     
     
-    public NetAlignMeasureRunner(Set<NetLink> reducedLinks, Set<NetNode> loneNodeIDs, NetworkAlignment.NodeColorMap nodeColorMap,
+    public NetAlignMeasureRunner(Set<NetLink> reducedLinks, Set<NetLink> primaryLinks,
+                                 NetworkAlignment.EdgeClassColumn primaryClasses, NetworkAlignment.NodeColorMap nodeColorMap,
                                  Map<NetNode, Boolean> mergedToCorrectNC, Set<NetLink> reducedLinksPerfect,
-                                 Set<NetNode> loneNodeIDsPerfect, NetworkAlignment.NodeColorMap nodeColorMapPerfect, NetAlignStats report,
-                                 ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                                 ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
-                                 Map<NetNode, NetNode> mapG1toG2, 
-                                 Map<NetNode, NetNode> perfectG1toG2, BFWorker bfwk, PluginResourceManager rMan) {
+                                 NetworkAlignment.NodeColorMap nodeColorMapPerfect, NetAlignStats report,
+                                 AlignmentGraphContext graphContext, NodeNameIndex indexSmall, Map<NetNode, NetNode> mapG1toG2, 
+                                 Map<NetNode, NetNode> perfectG1toG2, int jaccSimHashes, boolean keepJaccSweep,
+                                 BFWorker bfwk, PluginResourceManager rMan) {
       
     	rMan_ = rMan;
     	this.bfwk_ = bfwk;
       this.reducedLinks_ = reducedLinks;
-      this.loneNodeIDs_ = loneNodeIDs;
+      this.primaryLinks_ = primaryLinks;
+      this.primaryClasses_ = primaryClasses;
       this.nodeColorMap_ = nodeColorMap;
       this.nodeColorMapPerfect_ = nodeColorMapPerfect;
       this.mergedToCorrectNC_ = mergedToCorrectNC;
       this.reducedLinksPerfect_ = reducedLinksPerfect;
-      this.loneNodeIDsPerfect_ = loneNodeIDsPerfect;
       this.report_ = report;
-      this.linksSmall_ = linksSmall;
-      this.lonersSmall_ = lonersSmall;
-      this.linksLarge_ = linksLarge;
-      this.lonersLarge_ = lonersLarge;
+      this.graphContext_ = graphContext;
+      this.indexSmall_ = indexSmall;
       this.mapG1toG2_ = mapG1toG2;
       this.perfectG1toG2_ = perfectG1toG2;
+      this.jaccSimHashes_ = jaccSimHashes;
+      this.keepJaccSweep_ = keepJaccSweep;
     }
     
     public Object getEarlyResult() {
@@ -1097,13 +1539,34 @@ public class NetworkAlignmentPlugIn implements BioFabricToolPlugIn {
   
     public Object runCore() throws AsynchExitRequestException {
   
-      NetworkAlignmentScorer scorer = new NetworkAlignmentScorer(reducedLinks_, loneNodeIDs_, mergedToCorrectNC_,
-              nodeColorMap_, nodeColorMapPerfect_, reducedLinksPerfect_, loneNodeIDsPerfect_,
-              linksSmall_, lonersSmall_, linksLarge_, lonersLarge_, 
-              mapG1toG2_, perfectG1toG2_, bfwk_.getMonitor(), rMan_);
+      //
+      // The measure families are independent, so run them side by side:
+      //
+      
+      int threads = Math.min(NetworkAlignmentScorer.CONCURRENT_FAMILIES, Runtime.getRuntime().availableProcessors());
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+      NetworkAlignmentScorer scorer;
+      try {
+        scorer = new NetworkAlignmentScorer(reducedLinks_, primaryLinks_, primaryClasses_, mergedToCorrectNC_,
+                nodeColorMap_, nodeColorMapPerfect_, reducedLinksPerfect_, graphContext_, indexSmall_,
+                mapG1toG2_, perfectG1toG2_, jaccSimHashes_, pool, bfwk_.getMonitor(), rMan_);
+      } finally {
+        pool.shutdownNow();
+      }
   
       this.report_.replaceValuesTo(scorer.getNetAlignStats());
       
+      //
+      // JS node groups take their verdicts from the scored JS values, and the
+      // threshold preview is only offered for them, so only those loads keep
+      // the values and pay for the sweep:
+      //
+      
+      if (keepJaccSweep_) {
+        pendingJaccSim_ = scorer.getJaccardSimilarity();
+        pendingJaccSweep_ = scorer.getJaccardSweep();
+      }
+      
       return (new Boolean(true));
     }
   
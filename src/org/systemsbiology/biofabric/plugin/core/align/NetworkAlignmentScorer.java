@@ -29,6 +29,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.systemsbiology.biofabric.api.model.NetLink;
 import org.systemsbiology.biofabric.api.model.NetNode;
@@ -36,7 +44,6 @@ import org.systemsbiology.biofabric.api.util.PluginResourceManager;
 import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
 import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
 import org.systemsbiology.biofabric.api.worker.LoopReporter;
-import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
 /****************************************************************************
  **
@@ -53,6 +60,59 @@ import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
 public class NetworkAlignmentScorer {
   
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // With a perfect alignment, the main and perfect group maps are independent
+  // of each other and of Jaccard similarity; this many threads run the two maps
+  // at once, while Jaccard similarity is split across a ForkJoin pool.
+  //
+  
+  public static final int CONCURRENT_FAMILIES = 2;
+  
+  //
+  // The measures, in report order, with the resource keys of their names
+  //
+  
+  public enum Measure {
+    EC("networkAlignment.edgeCoverage"),
+    S3("networkAlignment.symmetricSubstructureScore"),
+    ICS("networkAlignment.inducedConservedStructure"),
+    NC("networkAlignment.nodeCorrectness"),
+    NGS("networkAlignment.nodeGroupSimilarity"),
+    LGS("networkAlignment.linkGroupSimilarity"),
+    JS("networkAlignment.jaccardSimilarity");
+    
+    public final String key;
+    
+    Measure(String key) {
+      this.key = key;
+    }
+  }
+  
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+  
+  //
+  // How often to check for a cancel while waiting on the measure tasks
+  //
+  
+  private static final long POLL_MILLIS_ = 100L;
+  
+  //
+  // When the measures run concurrently, Jaccard similarity has this first part
+  // of the progress bar, and waiting on the group maps the rest
+  //
+  
+  private static final double JS_PROGRESS_END_ = 0.6;
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // PRIVATE INSTANCE MEMBERS
@@ -63,22 +123,23 @@ public class NetworkAlignmentScorer {
   // Keep track of both the main alignment and perfect alignment's info
   //
   
-  private Set<NetLink> linksMain_, linksPerfect_;
-  private Set<NetNode> loneNodeIDsMain_, loneNodeIDsPerfect_;
+  private Set<NetLink> reducedLinks_, linksMain_, linksPerfect_;
+  private NetworkAlignment.EdgeClassColumn primaryClasses_;
   private NetworkAlignment.NodeColorMap nodeColorMapMain_, nodeColorMapPerfect_;
   private Map<NetNode, Boolean> mergedToCorrectNC_;
   
-  private Map<NetNode, Set<NetLink>> nodeToLinksMain_, nodeToLinksPerfect_;
-  private Map<NetNode, Set<NetNode>> nodeToNeighborsMain_, nodeToNeighborsPerfect_;
   private NodeGroupMap groupMapMain_, groupMapPerfect_;
+  private JaccardSimilarity funcJS_;
+  private JaccardThresholdSweep jaccSweep_;
   
   //
   // This are from original untouched graphs and alignments
   //
   
-  private ArrayList<NetLink> linksSmall_, linksLarge_;
-  private HashSet<NetNode> lonersSmall_, lonersLarge_;
+  private AlignmentGraphContext context_;
+  private NodeNameIndex indexSmall_;
   private Map<NetNode, NetNode> mapG1toG2_, perfectG1toG2_;
+  private int jaccSimHashes_;
   
   private BTProgressMonitor monitor_;
   private PluginResourceManager rMan_;
@@ -96,57 +157,64 @@ public class NetworkAlignmentScorer {
   //
   ////////////////////////////////////////////////////////////////////////////
   
-  public NetworkAlignmentScorer(Set<NetLink> reducedLinks, Set<NetNode> loneNodeIDs,
+  public NetworkAlignmentScorer(Set<NetLink> reducedLinks, Set<NetLink> primaryLinks,
+                                NetworkAlignment.EdgeClassColumn primaryClasses,
                                 Map<NetNode, Boolean> mergedToCorrectNC,
                                 NetworkAlignment.NodeColorMap nodeColorMap, NetworkAlignment.NodeColorMap nodeColorMapPerfect,
-                                Set<NetLink> linksPerfect, Set<NetNode> loneNodeIDsPerfect,
-                                ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                                ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
-                                Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
+                                Set<NetLink> linksPerfect, AlignmentGraphContext context, NodeNameIndex indexSmall,
+                                Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2, int jaccSimHashes,
                                 BTProgressMonitor monitor, PluginResourceManager rMan) throws AsynchExitRequestException {
+    this(reducedLinks, primaryLinks, primaryClasses, mergedToCorrectNC, nodeColorMap, nodeColorMapPerfect,
+         linksPerfect, context, indexSmall, mapG1toG2, perfectG1toG2, jaccSimHashes, null, monitor, rMan);
+  }
+  
+  /****************************************************************************
+   **
+   ** With a pool, the independent measure families are run on it at once, and
+   ** the monitor sees their combined progress. A cancel stops them all. Jaccard
+   ** similarity is estimated with jaccSimHashes MinHash functions, or exact for
+   ** JaccardSimilarity.EXACT, just as the JS node groups are to be made.
+   */
+  
+  public NetworkAlignmentScorer(Set<NetLink> reducedLinks, Set<NetLink> primaryLinks,
+                                NetworkAlignment.EdgeClassColumn primaryClasses,
+                                Map<NetNode, Boolean> mergedToCorrectNC,
+                                NetworkAlignment.NodeColorMap nodeColorMap, NetworkAlignment.NodeColorMap nodeColorMapPerfect,
+                                Set<NetLink> linksPerfect, AlignmentGraphContext context, NodeNameIndex indexSmall,
+                                Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2, int jaccSimHashes,
+                                ExecutorService pool, BTProgressMonitor monitor,
+                                PluginResourceManager rMan) throws AsynchExitRequestException {
   	this.rMan_ = rMan;
-    this.linksMain_ = new HashSet<NetLink>(reducedLinks);
-    this.loneNodeIDsMain_ = new HashSet<NetNode>(loneNodeIDs);
+    
+    //
+    // If the caller already has the de-duplicated, non-shadow links (from a merge with
+    // virtual shadows), use them as they are instead of stripping them out of reducedLinks.
+    // Their edge class column then gives the link group counts directly.
+    //
+    
+    this.primaryClasses_ = (primaryLinks != null) ? primaryClasses : null;
+    
+    this.reducedLinks_ = reducedLinks;
+    this.linksMain_ = (primaryLinks != null) ? primaryLinks : reducedLinks;
     this.nodeColorMapMain_ = nodeColorMap;
     this.nodeColorMapPerfect_ = nodeColorMapPerfect;
     this.mergedToCorrectNC_ = mergedToCorrectNC;
     this.linksPerfect_ = linksPerfect;
-    this.loneNodeIDsPerfect_ = loneNodeIDsPerfect;
     this.monitor_ = monitor;
-    this.nodeToLinksMain_ = new HashMap<NetNode, Set<NetLink>>();
-    this.nodeToNeighborsMain_ = new HashMap<NetNode, Set<NetNode>>();
-    this.nodeToLinksPerfect_ = new HashMap<NetNode, Set<NetLink>>();
-    this.nodeToNeighborsPerfect_ = new HashMap<NetNode, Set<NetNode>>();
-    
-    this.linksSmall_ = linksSmall;
-    this.lonersSmall_ = lonersSmall;
-    this.linksLarge_ = linksLarge;
-    this.lonersLarge_ = lonersLarge;
+    this.context_ = context;
+    this.indexSmall_ = indexSmall;
     this.mapG1toG2_ = mapG1toG2;
     this.perfectG1toG2_ = perfectG1toG2;
+    this.jaccSimHashes_ = jaccSimHashes;
     
-    // Create Node Group Map to use for NGS/LGS
-    this.groupMapMain_ = new NodeGroupMap(linksMain_, loneNodeIDsMain_, nodeColorMapMain_,
-            linksPerfect_, loneNodeIDsPerfect_, nodeColorMapPerfect_,
-            mergedToCorrectNC_, NodeGroupMap.PerfectNGMode.NONE, null,
-            linksSmall, lonersSmall, linksLarge, lonersLarge, mapG1toG2, perfectG1toG2,
-            NodeGroupMap.nodeGroupOrder, NodeGroupMap.nodeGroupAnnots, monitor_);
-    if (mergedToCorrectNC != null) { // perfect alignment processing does not need a 'perfect' alignment
-      this.groupMapPerfect_ = new NodeGroupMap(linksPerfect_, loneNodeIDsPerfect_, nodeColorMapPerfect_, null, null, null, null, NodeGroupMap.PerfectNGMode.NONE, null,
-              linksSmall, lonersSmall, linksLarge, lonersLarge, mapG1toG2, perfectG1toG2,
-              NodeGroupMap.nodeGroupOrder, NodeGroupMap.nodeGroupAnnots, monitor_);
+    if (primaryLinks == null) {
+      removeDuplicateAndShadow();
     }
-    
-    removeDuplicateAndShadow();
-    // Generate Structures
-    PluginSupportFactory.getBuildExtractor().createNeighborLinkMap(linksMain_, loneNodeIDsMain_,
-            nodeToNeighborsMain_, nodeToLinksMain_, monitor_);
-  
-    if (mergedToCorrectNC != null) {
-      PluginSupportFactory.getBuildExtractor().createNeighborLinkMap(linksPerfect_, loneNodeIDsPerfect_,
-              nodeToNeighborsPerfect_, nodeToLinksPerfect_, monitor_);
+    if (pool == null) {
+      calcScores();
+    } else {
+      calcScoresConcurrently(pool);
     }
-    calcScores();
     finalizeMeasures();
     return;
   }
@@ -187,10 +255,7 @@ public class NetworkAlignmentScorer {
       } // skip duplicates
     }
     
-    linksMain_.clear();
-    for (Map.Entry<String, NetLink> entry : map.entrySet()) {
-      linksMain_.add(entry.getValue());
-    }
+    linksMain_ = new HashSet<NetLink>(map.values()); // the caller's reducedLinks are left alone
     return;
   }
   
@@ -204,41 +269,132 @@ public class NetworkAlignmentScorer {
   
     if (mergedToCorrectNC_ != null) { // must have perfect alignment for these measures
       calcNodeCorrectness();
+      groupMapMain_ = buildGroupMapMain(monitor_);
+      groupMapPerfect_ = buildGroupMapPerfect(monitor_);
       calcGroupSimilarity();
-      calcJaccardSimilarity();
+      calcJaccardSimilarity(monitor_);
     }
   }
   
+  /****************************************************************************
+   **
+   ** Calculate the scores, with the two group maps as tasks on the pool. The
+   ** cheap measures and then Jaccard similarity, itself in parallel, are done
+   ** here in the meantime. The map tasks do not move the progress bar; it is
+   ** moved along as each one finishes. They get a monitor that stops them on
+   ** a cancel, or when their future is cancelled.
+   */
+  
+  private void calcScoresConcurrently(ExecutorService pool) throws AsynchExitRequestException {
+    if (mergedToCorrectNC_ == null) {
+      calcTopologicalMeasures();
+      return;
+    }
+    
+    final BTProgressMonitor taskMonitor = new TaskMonitor(monitor_);
+    List<Future<Void>> families = new ArrayList<Future<Void>>();
+    families.add(pool.submit(new Callable<Void>() {
+      public Void call() throws AsynchExitRequestException {
+        groupMapMain_ = buildGroupMapMain(taskMonitor);
+        return (null);
+      }
+    }));
+    families.add(pool.submit(new Callable<Void>() {
+      public Void call() throws AsynchExitRequestException {
+        groupMapPerfect_ = buildGroupMapPerfect(taskMonitor);
+        return (null);
+      }
+    }));
+    
+    ForkJoinPool jsPool = new ForkJoinPool();
+    try {
+      calcTopologicalMeasures();
+      calcNodeCorrectness();
+      funcJS_ = new JaccardSimilarity(context_, indexSmall_, mapG1toG2_, perfectG1toG2_, jaccSimHashes_, monitor_);
+      this.JaccSim = funcJS_.calcScore(jsPool, 0.0, JS_PROGRESS_END_);
+      awaitFamilies(families, JS_PROGRESS_END_, 1.0);
+    } finally {
+      jsPool.shutdownNow();
+      for (Future<Void> family : families) { // stops the rest after a cancel or failure
+        family.cancel(true);
+      }
+    }
+    calcGroupSimilarity();
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Wait for the measure tasks, checking for a cancel as we go, over the
+   ** given part of the progress bar
+   */
+  
+  private void awaitFamilies(List<Future<Void>> families,
+                             double startFrac, double endFrac) throws AsynchExitRequestException {
+    LoopReporter lr = new LoopReporter(families.size(), families.size(), monitor_, startFrac, endFrac, "progress.alignmentMeasures");
+    for (Future<Void> family : families) {
+      while (true) {
+        try {
+          family.get(POLL_MILLIS_, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException tex) {
+          if ((monitor_ != null) && !monitor_.keepGoing()) {
+            throw (new AsynchExitRequestException());
+          }
+        } catch (InterruptedException iex) {
+          throw (new AsynchExitRequestException());
+        } catch (ExecutionException eex) {
+          Throwable cause = eex.getCause();
+          if (cause instanceof AsynchExitRequestException) {
+            throw ((AsynchExitRequestException)cause);
+          } else if (cause instanceof RuntimeException) {
+            throw ((RuntimeException)cause);
+          }
+          throw (new IllegalStateException(cause));
+        }
+      }
+      lr.report();
+    }
+    lr.finish();
+    return;
+  }
+  
+  /****************************************************************************
+   **
+   ** Node group map of the main alignment; the adjacency comes from the shared context
+   */
+  
+  private NodeGroupMap buildGroupMapMain(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (new NodeGroupMap(reducedLinks_,
+            context_.getNeighborsMain(monitor), context_.getLinksMain(monitor), nodeColorMapMain_,
+            mergedToCorrectNC_, NodeGroupMap.PerfectNGMode.NONE, null, null,
+            NodeGroupMap.nodeGroupOrder, NodeGroupMap.nodeGroupAnnots, monitor));
+  }
+  
+  /****************************************************************************
+   **
+   ** Node group map of the perfect alignment (which does not need a 'perfect' alignment)
+   */
+  
+  private NodeGroupMap buildGroupMapPerfect(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    return (new NodeGroupMap(linksPerfect_,
+            context_.getNeighborsPerfect(monitor), context_.getLinksPerfect(monitor), nodeColorMapPerfect_,
+            null, NodeGroupMap.PerfectNGMode.NONE, null, null,
+            NodeGroupMap.nodeGroupOrder, NodeGroupMap.nodeGroupAnnots, monitor));
+  }
+  
   /****************************************************************************
    **
    ** Create the Measure list and filter out 'null' measures
    */
   
   private void finalizeMeasures() {
-
-    String
-            ECn = rMan_.getPluginString("networkAlignment.edgeCoverage"),
-            S3n = rMan_.getPluginString("networkAlignment.symmetricSubstructureScore"),
-            ICSn = rMan_.getPluginString("networkAlignment.inducedConservedStructure"),
-            NCn = rMan_.getPluginString("networkAlignment.nodeCorrectness"),
-            NGSn = rMan_.getPluginString("networkAlignment.nodeGroupSimilarity"),
-            LGSn = rMan_.getPluginString("networkAlignment.linkGroupSimilarity"),
-            JSn = rMan_.getPluginString("networkAlignment.jaccardSimilarity");
-    
-    NetworkAlignmentPlugIn.NetAlignMeasure[] possibleMeasures = {
-            new NetworkAlignmentPlugIn.NetAlignMeasure(ECn, EC),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(S3n, S3),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(ICSn, ICS),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(NCn, NC),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(NGSn, NGS),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(LGSn, LGS),
-            new NetworkAlignmentPlugIn.NetAlignMeasure(JSn, JaccSim),
-    };
   
     List<NetworkAlignmentPlugIn.NetAlignMeasure> measures = new ArrayList<NetworkAlignmentPlugIn.NetAlignMeasure>();
-    for (NetworkAlignmentPlugIn.NetAlignMeasure msr : possibleMeasures) {
-      if (msr.val != null) { // no point having null measures
-        measures.add(msr);
+    for (Measure measure : Measure.values()) {
+      Double val = getScore(measure);
+      if (val != null) { // no point having null measures
+        measures.add(new NetworkAlignmentPlugIn.NetAlignMeasure(rMan_.getPluginString(measure.key), val));
       }
     }
     this.netAlignStats_ = new NetworkAlignmentPlugIn.NetAlignStats(measures);
@@ -246,19 +402,20 @@ public class NetworkAlignmentScorer {
   }
   
   private void calcTopologicalMeasures() throws AsynchExitRequestException{
-    LoopReporter lr = new LoopReporter(linksMain_.size(), 20, monitor_, 0.0, 1.0, "progress.topologicalMeasures");
-    int numCoveredEdge = 0, numInducedGraph1 = 0, numInducedGraph2 = 0;
-    
-    for (NetLink link : linksMain_) {
-      lr.report();
-      if (link.getRelation().equals(NetworkAlignment.EdgeType.COVERED.tag)) {
-        numCoveredEdge++;
-      } else if (link.getRelation().equals(NetworkAlignment.EdgeType.INDUCED_GRAPH1.tag)) {
-        numInducedGraph1++;
-      } else if (link.getRelation().equals(NetworkAlignment.EdgeType.INDUCED_GRAPH2.tag)) {
-        numInducedGraph2++;
+    int[] counts;
+    if (primaryClasses_ != null) {
+      counts = primaryClasses_.countByClass();
+    } else {
+      LoopReporter lr = new LoopReporter(linksMain_.size(), 20, monitor_, 0.0, 1.0, "progress.topologicalMeasures");
+      counts = new int[NetworkAlignment.LINK_GROUPS.length];
+      for (NetLink link : linksMain_) {
+        lr.report();
+        counts[NetworkAlignment.EdgeType.forTag(link.getRelation()).index]++;
       }
     }
+    int numCoveredEdge = counts[NetworkAlignment.EdgeType.COVERED.index];
+    int numInducedGraph1 = counts[NetworkAlignment.EdgeType.INDUCED_GRAPH1.index];
+    int numInducedGraph2 = counts[NetworkAlignment.EdgeType.INDUCED_GRAPH2.index];
     
     EC = ((double) numCoveredEdge) / (numCoveredEdge + numInducedGraph1);
     S3 = ((double) numCoveredEdge) / (numCoveredEdge + numInducedGraph1 + numInducedGraph2);
@@ -300,11 +457,9 @@ public class NetworkAlignmentScorer {
     return;
   }
   
-  private void calcJaccardSimilarity() throws AsynchExitRequestException {
-    this.JaccSim = (new JaccardSimilarity(linksMain_, loneNodeIDsMain_, nodeColorMapMain_,
-            linksPerfect_, loneNodeIDsPerfect_, nodeColorMapPerfect_, nodeToNeighborsMain_, nodeToLinksMain_,
-            nodeToNeighborsPerfect_, nodeToLinksPerfect_, linksSmall_, lonersSmall_, linksLarge_, lonersLarge_,
-            mapG1toG2_, perfectG1toG2_, null, monitor_)).calcScore();
+  private void calcJaccardSimilarity(BTProgressMonitor monitor) throws AsynchExitRequestException {
+    funcJS_ = new JaccardSimilarity(context_, indexSmall_, mapG1toG2_, perfectG1toG2_, jaccSimHashes_, monitor);
+    this.JaccSim = funcJS_.calcScore();
     return;
   }
   
@@ -312,6 +467,60 @@ public class NetworkAlignmentScorer {
     return (netAlignStats_);
   }
   
+  /****************************************************************************
+   **
+   ** The value of a measure, or null if it does not exist for this alignment
+   */
+  
+  public Double getScore(Measure measure) {
+    switch (measure) {
+      case EC:
+        return (EC);
+      case S3:
+        return (S3);
+      case ICS:
+        return (ICS);
+      case NC:
+        return (NC);
+      case NGS:
+        return (NGS);
+      case LGS:
+        return (LGS);
+      case JS:
+        return (JaccSim);
+      default:
+        throw new IllegalArgumentException();
+    }
+  }
+  
+  /****************************************************************************
+   **
+   ** The scored JS of each G1 node, for JS node groups to read their verdicts
+   ** from. Null without a perfect alignment.
+   */
+  
+  JaccardSimilarity getJaccardSimilarity() {
+    return (funcJS_);
+  }
+  
+  /****************************************************************************
+   **
+   ** JS node groups of the main alignment over all thresholds, from the JS
+   ** values already scored. Nothing is built until this is called, and the
+   ** first call pays for sorting every merged node's JS. Null without a
+   ** perfect alignment.
+   */
+  
+  public JaccardThresholdSweep getJaccardSweep() throws AsynchExitRequestException {
+    if ((funcJS_ == null) || (groupMapMain_ == null)) {
+      return (null);
+    }
+    if (jaccSweep_ == null) {
+      jaccSweep_ = new JaccardThresholdSweep(groupMapMain_, groupMapPerfect_, context_.getLinksMain(monitor_).keySet(), mergedToCorrectNC_, funcJS_);
+    }
+    return (jaccSweep_);
+  }
+  
   ////////////////////////////////////////////////////////////////////////////
   //
   // INNER CLASSES
@@ -459,12 +668,57 @@ public class NetworkAlignmentScorer {
     
   }
   
+  /****************************************************************************
+   **
+   ** Monitor for the measure tasks on the pool. The waiting thread owns the
+   ** progress bar, so the tasks' reports do not move it; they only find out
+   ** whether to keep going. A task stops if the user cancels, or if its future
+   ** is cancelled (which interrupts it).
+   */
+  
+  private static class TaskMonitor implements BTProgressMonitor {
+    
+    private final BTProgressMonitor parent_;
+    
+    TaskMonitor(BTProgressMonitor parent) {
+      parent_ = parent;
+    }
+    
+    public void setTotal(int total) {
+      return;
+    }
+    
+    public int getTotal() {
+      return ((parent_ == null) ? 0 : parent_.getTotal());
+    }
+    
+    public boolean updateUnknownProgress() {
+      return (keepGoing());
+    }
+    
+    public boolean updateProgress(int done) {
+      return (keepGoing());
+    }
+    
+    public boolean updateProgressAndPhase(int done, String message) {
+      return (keepGoing());
+    }
+    
+    public boolean updateRankings(SortedMap<Integer, Double> chartVals) {
+      return (keepGoing());
+    }
+    
+    public boolean keepGoing() {
+      return (!Thread.currentThread().isInterrupted() && ((parent_ == null) || parent_.keepGoing()));
+    }
+  }
+  
   /****************************************************************************
    **
    ** NGS and LGS - with Angular similarity
    */
   
-  private static class GroupSimilarityMeasure {
+  static class GroupSimilarityMeasure {
   
     /***************************************************************************
      **
@@ -477,6 +731,22 @@ public class NetworkAlignmentScorer {
       return (score);
     }
   
+    /***************************************************************************
+     **
+     ** Calculated the score from node group ratios already in hand, with the
+     ** vector indices taken from the group order
+     */
+  
+    double calcNGS(Map<String, Double> ratiosMain, Map<String, Double> ratiosPerfect, String[] groupOrder) {
+      Map<String, Integer> tagToIndex = new HashMap<String, Integer>();
+      for (int i = 0; i < groupOrder.length; i++) {
+        tagToIndex.put(groupOrder[i], Integer.valueOf(i));
+      }
+      VectorND main = getNGVector(ratiosMain, tagToIndex), perfect = getNGVector(ratiosPerfect, tagToIndex);
+      double score = main.angSim(perfect);
+      return (score);
+    }
+  
     /***************************************************************************
      **
      ** Convert ratio to vector
@@ -494,6 +764,24 @@ public class NetworkAlignmentScorer {
       return (vector);
     }
   
+    /***************************************************************************
+     **
+     ** Convert ratio map to vector
+     */
+    
+    private VectorND getNGVector(Map<String, Double> ngRatios, Map<String, Integer> tagToIndex) {
+      VectorND vector = new VectorND(tagToIndex.size());
+      for (Map.Entry<String, Double> entry : ngRatios.entrySet()) {
+        Integer index = tagToIndex.get(entry.getKey());
+        if (index == null) {
+          throw new IllegalArgumentException("GroupID " + entry.getKey() + " not found in given order list");
+        }
+        vector.set(index.intValue(), entry.getValue());
+      }
+      vector.normalize();
+      return (vector);
+    }
+  
     /***************************************************************************
      **
      ** Calculated the score
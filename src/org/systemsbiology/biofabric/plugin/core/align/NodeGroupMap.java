@@ -25,7 +25,6 @@ package org.systemsbiology.biofabric.plugin.core.align;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,7 +34,6 @@ import org.systemsbiology.biofabric.api.model.NetNode;
 import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
 import org.systemsbiology.biofabric.api.worker.BTProgressMonitor;
 import org.systemsbiology.biofabric.api.worker.LoopReporter;
-import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
 
 /***************************************************************************
  **
@@ -67,7 +65,6 @@ public class NodeGroupMap {
   
   private final PerfectNGMode mode_;
   private Set<NetLink> links_;
-  private Set<NetNode> loners_;
   private Map<NetNode, Boolean> mergedToCorrectNC_;
   private NetworkAlignment.NodeColorMap nodeColorMap_;
   
@@ -81,6 +78,7 @@ public class NodeGroupMap {
   
   private Map<String, Double> nodeGroupRatios_, linkGroupRatios_;
   private JaccardSimilarity funcJS_;
+  private Double jaccSimThreshold_;
   private BTProgressMonitor monitor_;
   
   ////////////////////////////////////////////////////////////////////////////
@@ -92,57 +90,48 @@ public class NodeGroupMap {
   public NodeGroupMap(BuildData bd, String[] nodeGroupOrder, String[][] colorMap,
                       BTProgressMonitor monitor) throws AsynchExitRequestException {
     this(bd.getLinks(), 
-    		 bd.getSingletonNodes(), 
+         ((NetworkAlignmentBuildData)bd.getPluginBuildData()).graphContext.getNeighborsMain(monitor),
+         ((NetworkAlignmentBuildData)bd.getPluginBuildData()).graphContext.getLinksMain(monitor),
     		 ((NetworkAlignmentBuildData)bd.getPluginBuildData()).colorMapMain,
-    		 ((NetworkAlignmentBuildData)bd.getPluginBuildData()).allLinksPerfect,
-    		 ((NetworkAlignmentBuildData)bd.getPluginBuildData()).loneNodeIDsPerfect,
-    		 ((NetworkAlignmentBuildData)bd.getPluginBuildData()).colorMapPerfect,
              ((NetworkAlignmentBuildData)bd.getPluginBuildData()).mergedToCorrectNC,
              ((NetworkAlignmentBuildData)bd.getPluginBuildData()).mode,
              ((NetworkAlignmentBuildData)bd.getPluginBuildData()).jaccSimThreshold,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).linksSmall,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).lonersSmall,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).linksLarge,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).lonersLarge,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).mapG1toG2,
-             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).perfectG1toG2,
+             ((NetworkAlignmentBuildData)bd.getPluginBuildData()).jaccSimMain,
          nodeGroupOrder,
          colorMap, 
          monitor);
   }
   
-  public NodeGroupMap(Set<NetLink> allLinksMain, Set<NetNode> loneNodeIDsMain,
+  /***************************************************************************
+   **
+   ** The adjacency maps are those of the links, shared from an AlignmentGraphContext;
+   ** the links themselves are only used for the link group ratios. JS node groups
+   ** read their verdicts from the JS values the scorer has already computed.
+   */
+  
+  public NodeGroupMap(Set<NetLink> allLinksMain,
+                        Map<NetNode, Set<NetNode>> nodeToNeighbors, Map<NetNode, Set<NetLink>> nodeToLinks,
                         NetworkAlignment.NodeColorMap colorMapMain,
-                        Set<NetLink> allLinksPerfect, Set<NetNode> loneNodeIDsPerfect,
-                        NetworkAlignment.NodeColorMap colorMapPerfect,
                         Map<NetNode, Boolean> mergedToCorrectNC,
-                        PerfectNGMode mode, final Double jaccSimThreshold,
-                        ArrayList<NetLink> linksSmall, HashSet<NetNode> lonersSmall,
-                        ArrayList<NetLink> linksLarge, HashSet<NetNode> lonersLarge,
-                        Map<NetNode, NetNode> mapG1toG2, Map<NetNode, NetNode> perfectG1toG2,
+                        PerfectNGMode mode, final Double jaccSimThreshold, JaccardSimilarity funcJS,
                         String[] nodeGroupOrder, String[][] colorMap,
                         BTProgressMonitor monitor) throws AsynchExitRequestException {
     
     this.links_ = allLinksMain;
-    this.loners_ = loneNodeIDsMain;
     this.mergedToCorrectNC_ = mergedToCorrectNC;
     this.nodeColorMap_ = colorMapMain;
     this.numGroups_ = nodeGroupOrder.length;
     this.mode_ = mode;
     this.monitor_ = monitor;
-    this.nodeToNeighbors_ = new HashMap<NetNode, Set<NetNode>>();
-    this.nodeToLinks_ = new HashMap<NetNode, Set<NetLink>>();
-    PluginSupportFactory.getBuildExtractor().createNeighborLinkMap(links_, loners_, nodeToNeighbors_, nodeToLinks_, monitor_);
+    this.nodeToNeighbors_ = nodeToNeighbors;
+    this.nodeToLinks_ = nodeToLinks;
     
-    if (mode == PerfectNGMode.JACCARD_SIMILARITY) { // create structures for JS involving perfect alignment
-      Map<NetNode, Set<NetNode>> nodeToNeighborsPerfect = new HashMap<NetNode, Set<NetNode>>();
-      Map<NetNode, Set<NetLink>> nodeToLinksPerfect = new HashMap<NetNode, Set<NetLink>>();
-      PluginSupportFactory.getBuildExtractor().createNeighborLinkMap(allLinksPerfect, loneNodeIDsPerfect,
-              nodeToNeighborsPerfect, nodeToLinksPerfect, monitor_);
-      
-      this.funcJS_ = new JaccardSimilarity(allLinksMain, loneNodeIDsMain, colorMapMain, allLinksPerfect, loneNodeIDsPerfect,
-              colorMapPerfect, nodeToNeighbors_, nodeToLinks_, nodeToNeighborsPerfect, nodeToLinksPerfect,
-              linksSmall, lonersSmall, linksLarge, lonersLarge, mapG1toG2, perfectG1toG2, jaccSimThreshold, monitor);
+    if (mode == PerfectNGMode.JACCARD_SIMILARITY) { // JS involves the perfect alignment
+      if ((funcJS == null) || (jaccSimThreshold == null)) {
+        throw (new IllegalStateException("No JS values or threshold for JS node groups"));
+      }
+      this.funcJS_ = funcJS;
+      this.jaccSimThreshold_ = jaccSimThreshold;
     }
     generateOrderMap(nodeGroupOrder);
     generateColorMap(colorMap);
@@ -193,11 +182,7 @@ public class NodeGroupMap {
     
     
     for (NetLink link : nodeToLinks_.get(node)) {
-      for (int rel = 0; rel < inLG.length; rel++) {
-        if (link.getRelation().equals(NetworkAlignment.LINK_GROUPS[rel].tag)) {
-          inLG[rel] = true;
-        }
-      }
+      inLG[NetworkAlignment.EdgeType.forTag(link.getRelation()).index] = true;
     }
   
     List<String> tags = new ArrayList<String>();
@@ -233,7 +218,7 @@ public class NodeGroupMap {
         if (mode_ == PerfectNGMode.NODE_CORRECTNESS) {
           isCorrect = mergedToCorrectNC_.get(node);
         } else if (mode_ == PerfectNGMode.JACCARD_SIMILARITY) {
-          isCorrect = funcJS_.isCorrectJS(node);
+          isCorrect = funcJS_.isCorrectJS(node, jaccSimThreshold_.doubleValue());
         } else {
           throw new IllegalStateException("Incorrect mode for Perfect NGs Group Map");
         }
@@ -250,7 +235,7 @@ public class NodeGroupMap {
    ** Calculate node group size to total #nodes for each group
    */
   
-  private void calcNGRatios() {
+  private void calcNGRatios() throws AsynchExitRequestException {
     Set<NetNode> nodes = nodeToLinks_.keySet();
     double size = nodes.size();
     Set<GroupID> tags = groupIDtoIndex_.keySet();
@@ -261,6 +246,9 @@ public class NodeGroupMap {
     }
     
     for (NetNode node : nodes) {
+      if (Thread.currentThread().isInterrupted()) { // run as a task that has been cancelled
+        throw (new AsynchExitRequestException());
+      }
       GroupID gID = generateID(node);
       counts.put(gID, counts.get(gID) + 1);
     }
@@ -283,23 +271,18 @@ public class NodeGroupMap {
     
     double size = links_.size();
     
-    Map<String, Integer> counts = new HashMap<String, Integer>(); // initial vals
-    for (NetworkAlignment.EdgeType type : NetworkAlignment.LINK_GROUPS) {
-      counts.put(type.tag, 0);
-    }
+    int[] counts = new int[NetworkAlignment.LINK_GROUPS.length]; // indexed by EdgeType.index
     
     LoopReporter lr = new LoopReporter(links_.size(), 20, monitor_, 0.0, 1.0, "progress.calculatingLinkRatios");
     for (NetLink link : links_) {
       lr.report();
-      String rel = link.getRelation();
-      counts.put(rel, counts.get(rel) + 1);
+      counts[NetworkAlignment.EdgeType.forTag(link.getRelation()).index]++;
     }
     
     linkGroupRatios_ = new HashMap<String, Double>();
-    for (Map.Entry<String, Integer> count : counts.entrySet()) {
-      String tag = count.getKey();
-      double ratio = count.getValue() / size;
-      linkGroupRatios_.put(tag, ratio);
+    for (NetworkAlignment.EdgeType type : NetworkAlignment.LINK_GROUPS) {
+      double ratio = counts[type.index] / size;
+      linkGroupRatios_.put(type.tag, ratio);
     }
     return;
   }
@@ -0,0 +1,190 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.systemsbiology.biofabric.api.model.NetNode;
+
+/****************************************************************************
+ **
+ ** Open-addressing hash index from the UTF-8 bytes of a node name to the node.
+ ** Lets the alignment parser resolve tokens straight out of a byte buffer
+ ** without building a String for every token.
+ */
+
+public class NodeNameByteIndex {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private static final Charset UTF8_ = Charset.forName("UTF-8");
+  private static final int FNV_OFFSET_ = 0x811C9DC5;
+  private static final int FNV_PRIME_ = 0x01000193;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final byte[][] keys_;
+  private final int[] hashes_;
+  private final NetNode[] vals_;
+  private final int mask_;
+  private int size_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. As with a name->node HashMap, if two nodes share a name the
+   ** one seen last in iteration order wins.
+   */
+
+  public NodeNameByteIndex(Set<NetNode> nodes) {
+    int cap = 16;
+    while (cap < (nodes.size() * 2)) {
+      cap <<= 1;
+    }
+    keys_ = new byte[cap][];
+    hashes_ = new int[cap];
+    vals_ = new NetNode[cap];
+    mask_ = cap - 1;
+    size_ = 0;
+    for (NetNode node : nodes) {
+      put(node.getName().getBytes(UTF8_), node);
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Look up the node whose name is held in buf[start, end). Returns null if
+   ** no such node. Uses absolute gets only; buffer position is untouched.
+   */
+
+  public NetNode get(ByteBuffer buf, int start, int end) {
+    int hash = hash(buf, start, end);
+    int len = end - start;
+    int slot = hash & mask_;
+    while (keys_[slot] != null) {
+      if ((hashes_[slot] == hash) && (keys_[slot].length == len) && sameBytes(keys_[slot], buf, start)) {
+        return (vals_[slot]);
+      }
+      slot = (slot + 1) & mask_;
+    }
+    return (null);
+  }
+
+  /***************************************************************************
+   **
+   ** Number of distinct names
+   */
+
+  public int size() {
+    return (size_);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Install a key
+   */
+
+  private void put(byte[] key, NetNode node) {
+    int hash = hash(key);
+    int slot = hash & mask_;
+    while (keys_[slot] != null) {
+      if ((hashes_[slot] == hash) && Arrays.equals(keys_[slot], key)) {
+        vals_[slot] = node;
+        return;
+      }
+      slot = (slot + 1) & mask_;
+    }
+    keys_[slot] = key;
+    hashes_[slot] = hash;
+    vals_[slot] = node;
+    size_++;
+    return;
+  }
+
+  /***************************************************************************
+   **
+   ** Compare stored key against buffer bytes
+   */
+
+  private static boolean sameBytes(byte[] key, ByteBuffer buf, int start) {
+    for (int i = 0; i < key.length; i++) {
+      if (key[i] != buf.get(start + i)) {
+        return (false);
+      }
+    }
+    return (true);
+  }
+
+  /***************************************************************************
+   **
+   ** FNV-1a over a byte array...
+   */
+
+  private static int hash(byte[] key) {
+    int hash = FNV_OFFSET_;
+    for (int i = 0; i < key.length; i++) {
+      hash ^= (key[i] & 0xFF);
+      hash *= FNV_PRIME_;
+    }
+    return (hash ^ (hash >>> 16));
+  }
+
+  /***************************************************************************
+   **
+   ** ...and over a buffer range. Must agree with the above.
+   */
+
+  private static int hash(ByteBuffer buf, int start, int end) {
+    int hash = FNV_OFFSET_;
+    for (int i = start; i < end; i++) {
+      hash ^= (buf.get(i) & 0xFF);
+      hash *= FNV_PRIME_;
+    }
+    return (hash ^ (hash >>> 16));
+  }
+}
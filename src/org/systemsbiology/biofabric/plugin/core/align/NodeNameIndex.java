@@ -0,0 +1,245 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+import org.systemsbiology.biofabric.api.worker.AsynchExitRequestException;
+import org.systemsbiology.biofabric.plugin.PluginSupportFactory;
+
+/****************************************************************************
+ **
+ ** The node set of one input graph (G1 or G2), with its name->node map. Built
+ ** once per load and then shared by the alignment loader, the subset test,
+ ** the Jaccard similarity measure and the cycle layout, so none of them has to
+ ** extract the nodes and hash the names again. The name order is made up
+ ** front, so the index can be read from many threads with no locking. Not
+ ** changed after construction.
+ */
+
+public class NodeNameIndex {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private static final long FP_OFFSET_ = 0xCBF29CE484222325L;
+  private static final long FP_PRIME_ = 0x100000001B3L;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final Set<NetNode> nodes_;
+  private final Map<String, NetNode> nameToNode_;
+  private final boolean uniqueNames_;
+  private NodeNameByteIndex byteIndex_;
+  private final List<NetNode> sorted_;
+  private final HashMap<NetNode, Integer> sortedPos_;
+  private final long fingerprint_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. As before, if two nodes share a name the one seen last wins
+   ** the name lookup; hasUniqueNames() reports whether that happened.
+   */
+
+  public NodeNameIndex(ArrayList<NetLink> links, HashSet<NetNode> loneNodes) {
+    Set<NetNode> nodes;
+    try {
+      nodes = PluginSupportFactory.getBuildExtractor().extractNodes(links, loneNodes, null);
+    } catch (AsynchExitRequestException aere) {
+      throw (new IllegalStateException("Error met while extracting nodes"));  // shouldn't happen
+    }
+    HashMap<String, NetNode> nameToNode = new HashMap<String, NetNode>();
+    for (NetNode node : nodes) {
+      nameToNode.put(node.getName(), node);
+    }
+    nodes_ = Collections.unmodifiableSet(nodes);
+    nameToNode_ = Collections.unmodifiableMap(nameToNode);
+    uniqueNames_ = (nameToNode.size() == nodes.size());
+    byteIndex_ = null;
+
+    NetNode[] sorted = nodes.toArray(new NetNode[nodes.size()]);
+    Arrays.sort(sorted, new Comparator<NetNode>() {
+      public int compare(NetNode n1, NetNode n2) {
+        return (n1.getName().compareTo(n2.getName()));
+      }
+    });
+    HashMap<NetNode, Integer> pos = new HashMap<NetNode, Integer>();
+    for (int i = 0; i < sorted.length; i++) {
+      pos.put(sorted[i], Integer.valueOf(i));
+    }
+    sorted_ = Collections.unmodifiableList(Arrays.asList(sorted));
+    sortedPos_ = pos;
+    fingerprint_ = fingerprint(sorted);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** All the nodes of the graph
+   */
+
+  public Set<NetNode> getNodes() {
+    return (nodes_);
+  }
+
+  /***************************************************************************
+   **
+   ** Read-only name->node map
+   */
+
+  public Map<String, NetNode> getNameToNode() {
+    return (nameToNode_);
+  }
+
+  /***************************************************************************
+   **
+   ** Node for the name, or null
+   */
+
+  public NetNode getNode(String name) {
+    return (nameToNode_.get(name));
+  }
+
+  /***************************************************************************
+   **
+   ** Answer if the graph has a node with the name
+   */
+
+  public boolean containsName(String name) {
+    return (nameToNode_.containsKey(name));
+  }
+
+  /***************************************************************************
+   **
+   ** Answer if every name in the other graph is also in this one
+   */
+
+  public boolean containsAllNames(NodeNameIndex other) {
+    return (nameToNode_.keySet().containsAll(other.nameToNode_.keySet()));
+  }
+
+  /***************************************************************************
+   **
+   ** Answer if no two nodes share a name
+   */
+
+  public boolean hasUniqueNames() {
+    return (uniqueNames_);
+  }
+
+  /***************************************************************************
+   **
+   ** Byte-keyed version of the name map, for the mapped alignment parser.
+   ** Built on first use.
+   */
+
+  public synchronized NodeNameByteIndex getByteIndex() {
+    if (byteIndex_ == null) {
+      byteIndex_ = new NodeNameByteIndex(nodes_);
+    }
+    return (byteIndex_);
+  }
+
+  /***************************************************************************
+   **
+   ** The nodes in name order. This gives each node a dense int index that is
+   ** the same for any copy of the same graph. Read-only.
+   */
+
+  public List<NetNode> getSortedNodes() {
+    return (sorted_);
+  }
+
+  /***************************************************************************
+   **
+   ** Dense index of the node in name order, or -1 if it is not in the graph
+   */
+
+  public int getSortedIndex(NetNode node) {
+    Integer pos = sortedPos_.get(node);
+    return ((pos == null) ? -1 : pos.intValue());
+  }
+
+  /***************************************************************************
+   **
+   ** Hash of the names in name order. Two graphs with the same node names
+   ** have the same fingerprint, and so the same dense indices.
+   */
+
+  public long getFingerprint() {
+    return (fingerprint_);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** 64-bit FNV-1a over the sorted node names, each followed by a zero
+   */
+
+  private static long fingerprint(NetNode[] sorted) {
+    long hash = FP_OFFSET_;
+    for (NetNode node : sorted) {
+      String name = node.getName();
+      int len = name.length();
+      for (int i = 0; i < len; i++) {
+        char ch = name.charAt(i);
+        hash ^= (ch & 0xFF);
+        hash *= FP_PRIME_;
+        hash ^= (ch >>> 8);
+        hash *= FP_PRIME_;
+      }
+      hash *= FP_PRIME_;
+    }
+    return (hash);
+  }
+}
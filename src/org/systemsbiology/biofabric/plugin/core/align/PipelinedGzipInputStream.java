@@ -0,0 +1,251 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/****************************************************************************
+ **
+ ** Reads a gzip file with the inflating done on a separate thread. The
+ ** inflater thread fills blocks and hands them over through a bounded queue,
+ ** so decompression runs ahead of whoever is parsing the stream. Anything
+ ** thrown on the inflater is rethrown to the reader, as an IOException,
+ ** when it reaches that point, and again on every later read.
+ */
+
+public class PipelinedGzipInputStream extends InputStream {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE CONSTANTS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private static final int BLOCK_SIZE_ = 1 << 16;
+  private static final int QUEUE_DEPTH_ = 32;
+
+  //
+  // Marks the end of the stream in the queue
+  //
+
+  private static final byte[] END_ = new byte[0];
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final ArrayBlockingQueue<byte[]> queue_;
+  private final Thread inflater_;
+  private volatile IOException error_;
+  private volatile boolean closed_;
+  private byte[] curr_;
+  private int currPos_;
+  private boolean atEnd_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. The file is opened and the gzip header checked on the
+   ** calling thread, so a missing or non-gzip file fails right here.
+   */
+
+  public PipelinedGzipInputStream(File infile) throws IOException {
+    FileInputStream fis = new FileInputStream(infile);
+    final GZIPInputStream gzin;
+    try {
+      gzin = new GZIPInputStream(fis, BLOCK_SIZE_);
+    } catch (IOException ioex) {
+      fis.close();
+      throw (ioex);
+    }
+    queue_ = new ArrayBlockingQueue<byte[]>(QUEUE_DEPTH_);
+    error_ = null;
+    closed_ = false;
+    curr_ = END_;
+    currPos_ = 0;
+    atEnd_ = false;
+    inflater_ = new Thread(new Runnable() {
+      public void run() {
+        inflate(gzin);
+      }
+    }, "Alignment inflater");
+    inflater_.setDaemon(true);
+    inflater_.start();
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Read a byte
+   */
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return (-1);
+    }
+    return (curr_[currPos_++] & 0xFF);
+  }
+
+  /***************************************************************************
+   **
+   ** Read into an array
+   */
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws IOException {
+    if (len == 0) {
+      return (0);
+    }
+    if (!fill()) {
+      return (-1);
+    }
+    int count = Math.min(len, curr_.length - currPos_);
+    System.arraycopy(curr_, currPos_, buf, off, count);
+    currPos_ += count;
+    return (count);
+  }
+
+  /***************************************************************************
+   **
+   ** Bytes on hand without blocking
+   */
+
+  @Override
+  public int available() {
+    return (curr_.length - currPos_);
+  }
+
+  /***************************************************************************
+   **
+   ** Close; stops the inflater if it is still running
+   */
+
+  @Override
+  public void close() {
+    closed_ = true;
+    inflater_.interrupt();
+    queue_.clear();
+    return;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Make sure the current block has bytes left. Returns false at the end.
+   */
+
+  private boolean fill() throws IOException {
+    if (closed_) {
+      throw (new IOException("Stream closed"));
+    }
+    while (currPos_ >= curr_.length) {
+      if (atEnd_) {
+        if (error_ != null) {
+          throw (error_);
+        }
+        return (false);
+      }
+      try {
+        curr_ = queue_.take();
+      } catch (InterruptedException iex) {
+        throw (new IOException("Interrupted while inflating"));
+      }
+      currPos_ = 0;
+      if (curr_ == END_) {
+        atEnd_ = true;
+        if (error_ != null) {
+          throw (error_);
+        }
+        return (false);
+      }
+    }
+    return (true);
+  }
+
+  /***************************************************************************
+   **
+   ** Inflater thread body
+   */
+
+  private void inflate(GZIPInputStream gzin) {
+    try {
+      boolean more = true;
+      while (more && !closed_) {
+        byte[] block = new byte[BLOCK_SIZE_];
+        int count = 0;
+        while (count < block.length) {
+          int got = gzin.read(block, count, block.length - count);
+          if (got < 0) {
+            more = false;
+            break;
+          }
+          count += got;
+        }
+        if (count > 0) {
+          queue_.put((count == block.length) ? block : Arrays.copyOf(block, count));
+        }
+      }
+    } catch (IOException ioex) {
+      error_ = ioex;
+    } catch (InterruptedException iex) {
+      // Reader closed the stream
+    } catch (Throwable th) { // e.g. out of memory; must not look like a clean end
+      error_ = new IOException("Inflating failed", th);
+    } finally {
+      try {
+        gzin.close();
+      } catch (IOException ioex) {
+        // Nothing to do
+      }
+      if (!closed_) {
+        try {
+          queue_.put(END_);
+        } catch (InterruptedException iex) {
+          // Reader closed the stream
+        }
+      }
+    }
+    return;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+**    Copyright (C) 2003-2019 Institute for Systems Biology
+**                            Seattle, Washington, USA.
+**
+**    This library is free software; you can redistribute it and/or
+**    modify it under the terms of the GNU Lesser General Public
+**    License as published by the Free Software Foundation; either
+**    version 2.1 of the License, or (at your option) any later version.
+**
+**    This library is distributed in the hope that it will be useful,
+**    but WITHOUT ANY WARRANTY; without even the implied warranty of
+**    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+**    Lesser General Public License for more details.
+**
+**    You should have received a copy of the GNU Lesser General Public
+**    License along with this library; if not, write to the Free Software
+**    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package org.systemsbiology.biofabric.plugin.core.align;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.systemsbiology.biofabric.api.model.NetLink;
+import org.systemsbiology.biofabric.api.model.NetNode;
+
+/****************************************************************************
+ **
+ ** Edge Coverage (EC), Symmetric Substructure Score (S3) and Induced Conserved
+ ** Substructure (ICS) straight from G1, G2 and an alignment, with no merged
+ ** network. Both graphs are reduced once to de-duplicated, non-shadow edge
+ ** lists on the name-order node indices of their NodeNameIndex, and the G2
+ ** edges are also hashed as packed index pairs. Scoring an alignment is then
+ ** one pass over each edge list, counting the same COVERED, INDUCED_GRAPH1
+ ** and INDUCED_GRAPH2 links the merge would make. The kernel is not changed
+ ** by scoring, so many alignments can be scored at once.
+ */
+
+public class TopologicalScoreKernel {
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE INSTANCE MEMBERS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  private final NodeNameIndex indexG1_;
+  private final NodeNameIndex indexG2_;
+  private final int numNodesG1_;
+  private final int numNodesG2_;
+  private final int[][] edgesG1_;
+  private final int[][] edgesG2_;
+  private final LongHashSet keysG2_;
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC CONSTRUCTORS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Constructor. The indices must be those of the two link lists.
+   */
+
+  public TopologicalScoreKernel(List<NetLink> linksG1, NodeNameIndex indexG1,
+                                List<NetLink> linksG2, NodeNameIndex indexG2) {
+    indexG1_ = indexG1;
+    indexG2_ = indexG2;
+    numNodesG1_ = indexG1.getNodes().size();
+    numNodesG2_ = indexG2.getNodes().size();
+    edgesG1_ = distinctEdges(linksG1, indexG1, null);
+    keysG2_ = new LongHashSet(linksG2.size() / 2);
+    edgesG2_ = distinctEdges(linksG2, indexG2, keysG2_);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** Score an alignment given as a node map
+   */
+
+  public Counts score(Map<NetNode, NetNode> mapG1toG2) {
+    int[] g1ToG2 = new int[numNodesG1_];
+    Arrays.fill(g1ToG2, -1);
+    for (Map.Entry<NetNode, NetNode> entry : mapG1toG2.entrySet()) {
+      int g1Index = indexG1_.getSortedIndex(entry.getKey());
+      int g2Index = indexG2_.getSortedIndex(entry.getValue());
+      if ((g1Index != -1) && (g2Index != -1)) {
+        g1ToG2[g1Index] = g2Index;
+      }
+    }
+    return (score(g1ToG2));
+  }
+
+  /***************************************************************************
+   **
+   ** Score an alignment given, for each G1 node in name order, the name-order
+   ** index of its G2 match or -1 (as AlignmentBatchLoader.CompactAlignment has it)
+   */
+
+  public Counts score(int[] g1ToG2) {
+
+    //
+    // Each aligned G1 edge has an image pair in G2; the image is covered if G2 has it:
+    //
+
+    long covered = 0L;
+    long inducedG1 = 0L;
+    boolean[] alignedG2 = new boolean[numNodesG2_];
+    for (int i = 0; i < g1ToG2.length; i++) {
+      if (g1ToG2[i] != -1) {
+        alignedG2[g1ToG2[i]] = true;
+      }
+    }
+    int[] srcs = edgesG1_[0], trgs = edgesG1_[1];
+    for (int i = 0; i < srcs.length; i++) {
+      int imgSrc = g1ToG2[srcs[i]], imgTrg = g1ToG2[trgs[i]];
+      if ((imgSrc == -1) || (imgTrg == -1)) {
+        continue;
+      }
+      if (keysG2_.contains(LongHashSet.edgeKey(imgSrc, imgTrg))) {
+        covered++;
+      } else {
+        inducedG1++;
+      }
+    }
+
+    //
+    // G2 edges between aligned nodes that are not covered are induced:
+    //
+
+    long alignedPairsG2 = 0L;
+    srcs = edgesG2_[0];
+    trgs = edgesG2_[1];
+    for (int i = 0; i < srcs.length; i++) {
+      if (alignedG2[srcs[i]] && alignedG2[trgs[i]]) {
+        alignedPairsG2++;
+      }
+    }
+    return (new Counts(covered, inducedG1, alignedPairsG2 - covered));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PRIVATE METHODS
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** The distinct undirected non-shadow edges of a graph, as index pairs in
+   ** retval[0] and retval[1]. The keys are left in keys if it is given.
+   */
+
+  private static int[][] distinctEdges(List<NetLink> links, NodeNameIndex index, LongHashSet keys) {
+    LongHashSet seen = (keys != null) ? keys : new LongHashSet(links.size() / 2);
+    int[] srcs = new int[16];
+    int[] trgs = new int[16];
+    int count = 0;
+    for (NetLink link : links) {
+      if (link.isShadow()) {
+        continue;
+      }
+      int src = index.getSortedIndex(link.getSrcNode());
+      int trg = index.getSortedIndex(link.getTrgNode());
+      if (!seen.add(LongHashSet.edgeKey(src, trg))) {
+        continue;
+      }
+      if (count == srcs.length) {
+        srcs = Arrays.copyOf(srcs, count * 2);
+        trgs = Arrays.copyOf(trgs, count * 2);
+      }
+      srcs[count] = src;
+      trgs[count] = trg;
+      count++;
+    }
+    int[][] retval = new int[2][];
+    retval[0] = Arrays.copyOf(srcs, count);
+    retval[1] = Arrays.copyOf(trgs, count);
+    return (retval);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  //
+  // PUBLIC INNER CLASSES
+  //
+  ////////////////////////////////////////////////////////////////////////////
+
+  /***************************************************************************
+   **
+   ** The link counts for one alignment, and the measures they give. A measure
+   ** that would be 0/0 (an alignment of singletons) is null, as in
+   ** NetworkAlignmentScorer.
+   */
+
+  public static class Counts {
+
+    public final long covered;
+    public final long inducedG1;
+    public final long inducedG2;
+
+    public Counts(long covered, long inducedG1, long inducedG2) {
+      this.covered = covered;
+      this.inducedG1 = inducedG1;
+      this.inducedG2 = inducedG2;
+    }
+
+    public Double getEC() {
+      return (ratio(covered, covered + inducedG1));
+    }
+
+    public Double getS3() {
+      return (ratio(covered, covered + inducedG1 + inducedG2));
+    }
+
+    public Double getICS() {
+      return (ratio(covered, covered + inducedG2));
+    }
+
+    private static Double ratio(long num, long denom) {
+      return ((denom == 0L) ? null : Double.valueOf(((double)num) / denom));
+    }
+  }
+}